@@ -16,11 +16,13 @@ package org.josql;
 
 import java.io.BufferedReader;
 import java.io.StringReader;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
 import java.util.SortedMap;
 
 import org.josql.events.BindVariableChangedEvent;
@@ -29,6 +31,7 @@ import org.josql.events.SaveValueChangedEvent;
 import org.josql.events.SaveValueChangedListener;
 import org.josql.exceptions.QueryExecutionException;
 import org.josql.exceptions.QueryParseException;
+import org.josql.expressions.AdaptiveAndOrExpression;
 import org.josql.expressions.AliasedExpression;
 import org.josql.expressions.BindVariable;
 import org.josql.expressions.ConstantExpression;
@@ -40,14 +43,19 @@ import org.josql.functions.CollectionFunctions;
 import org.josql.functions.ConversionFunctions;
 import org.josql.functions.FormattingFunctions;
 import org.josql.functions.FunctionHandler;
+import org.josql.functions.FunctionRegistry;
 import org.josql.functions.GroupingFunctions;
 import org.josql.functions.MiscellaneousFunctions;
 import org.josql.functions.StringFunctions;
+import org.josql.internal.CommonSubExpressions;
+import org.josql.internal.ExpressionOptimizer;
 import org.josql.internal.GroupByExpressionComparator;
 import org.josql.internal.Grouper;
 import org.josql.internal.Limit;
 import org.josql.internal.ListExpressionComparator;
+import org.josql.internal.NameSlots;
 import org.josql.internal.OrderBy;
+import org.josql.internal.RowValues;
 import org.josql.parser.JoSQLParser;
 import org.josql.utils.Timer;
 
@@ -148,6 +156,7 @@ public class Query
     private Map bindVars;
     private String query;
     private List functionHandlers;
+    private FunctionRegistry functionRegistry;
     private int anonVarIndex = 1;
     private Expression from;
     private Class objClass;
@@ -159,11 +168,22 @@ public class Query
     private ClassLoader classLoader;
     private Query parent;
     private Map listeners= Maps.newHashMap();
+    private int rowValueSlots = 0;
+    private boolean rowValuesUsedAfterWhere = false;
+    private List<String> rewrites = Lists.newArrayList();
+    private boolean reorderConditions = false;
+    private NameSlots variableSlots = new NameSlots ();
+    private Object[] variableValues = new Object[0];
+    private NameSlots saveValueSlots = new NameSlots ();
+    private int groupByThreads = 1;
+    private boolean groupByInputSorted = false;
+    private List<Query> groupByWorkers;
 
     // Execution data.
     private transient Object currentObject;
     protected transient List allObjects;
     private transient List currGroupBys;
+    private transient RowValues rowValues;
 
     private QueryResults qd;
 
@@ -203,6 +223,59 @@ public class Query
 
     }
 
+    /**
+     * Get the values of the expressions shared by the clauses for the rows of the
+     * current execution.
+     *
+     * @return The values or null if there is no execution or no shared expression.
+     */
+    public RowValues getRowValues ()
+    {
+
+	return rowValues;
+
+    }
+
+    /**
+     * @return The number of expressions evaluated once per row since they are found in more than one clause.
+     */
+    public int getRowValueSlotCount ()
+    {
+
+	return rowValueSlots;
+
+    }
+
+    /**
+     * @return <code>true</code> if the select columns or the ORDER BY read the values
+     *         of the rows kept by the WHERE clause, see {@link RowValues}.
+     */
+    public boolean isRowValuesUsedAfterWhere ()
+    {
+
+	return rowValuesUsedAfterWhere;
+
+    }
+
+    void startRowValues ()
+    {
+
+	if (rowValueSlots > 0)
+	{
+
+	    rowValues = new RowValues (rowValueSlots);
+
+	}
+
+    }
+
+    void endRowValues ()
+    {
+
+	rowValues = null;
+
+    }
+
     public FunctionHandler getFunctionHandler (final String id)
     {
 
@@ -318,6 +391,40 @@ public class Query
 
     }
 
+    /**
+     * Get the registry of the functions called without reflection, it is the one of
+     * the top-level query for a sub-query.
+     *
+     * @return The registry, can be null.
+     */
+    public FunctionRegistry getFunctionRegistry ()
+    {
+
+	if (parent != null)
+	{
+
+	    return parent.getFunctionRegistry ();
+
+	}
+
+	return functionRegistry;
+
+    }
+
+    /**
+     * Set the registry of the functions called without reflection, its functions are
+     * looked up before the methods of the function handlers.  It must be set before
+     * the query is parsed.
+     *
+     * @param r The registry.
+     */
+    public void setFunctionRegistry (final FunctionRegistry r)
+    {
+
+	functionRegistry = r;
+
+    }
+
     public void addFunctionHandler (final Object o) {
 
 		if (parent != null) {
@@ -395,6 +502,19 @@ public class Query
 
     }
 
+    /**
+     * Return the {@link Grouper} used to group the results, will be null if there
+     * is no GROUP BY clause.
+     *
+     * @return The Grouper.
+     */
+    public Grouper getGrouper ()
+    {
+
+	return grouper;
+
+    }
+
     public List getGroupByColumns ()
     {
 
@@ -480,6 +600,63 @@ public class Query
 
     }
 
+    /**
+     * Get the slot of a named bind variable, the value of the variable can then be got with
+     * {@link #getVariableAt(int)} without looking up the name.  Used when the bind variables are inited.
+     *
+     * @param name The name of the bind variable.
+     * @return The slot.
+     */
+    public int getVariableSlot (String name)
+    {
+
+	if (parent != null)
+	{
+
+	    return parent.getVariableSlot (name);
+
+	}
+
+        if (name.startsWith (":"))
+        {
+            
+            name = name.substring (1);
+            
+        }
+
+	int slot = variableSlots.getSlot (name);
+
+	if (slot >= variableValues.length)
+	{
+
+	    variableValues = variableSlots.getValues (bindVars);
+
+	}
+
+	return slot;
+
+    }
+
+    /**
+     * Get the value of a bind variable from its slot, see: {@link #getVariableSlot(String)}.
+     *
+     * @param slot The slot.
+     * @return The value.
+     */
+    public Object getVariableAt (final int slot)
+    {
+
+	if (parent != null)
+	{
+
+	    return parent.getVariableAt (slot);
+
+	}
+
+	return variableValues[slot];
+
+    }
+
     /**
      * Get the class that the named variable has.
      *
@@ -673,8 +850,19 @@ public class Query
             
         }
 
-	bindVars.put (name.toLowerCase (),
-			   v);
+	name = name.toLowerCase ();
+
+	bindVars.put (name,
+		      v);
+
+	int slot = variableSlots.findSlot (name);
+
+	if (slot > -1)
+	{
+
+	    variableValues[slot] = v;
+
+	}
 
     }
 
@@ -794,6 +982,30 @@ public class Query
 
     }
 
+    /**
+     * Reset the bind variables and the execution data of this query, so that once
+     * parsed it can be executed again as if it had just been parsed.
+     * This is used by the {@link QueryPlanCache} to hand out the same query more than once.
+     */
+    public void reset ()
+    {
+
+	bindVars = null;
+	currentObject = null;
+	allObjects = null;
+	currGroupBys = null;
+	rowValues = null;
+
+	// The expressions keep their slots.
+	Arrays.fill (variableValues,
+		     null);
+
+	// A new QueryResults, the one returned by a previous execution stays untouched.
+	qd = new QueryResults ();
+	qd.setSaveValueSlots (saveValueSlots);
+
+    }
+
     /**
      * Execute this query on the specified objects provided by the iterator.  It should be noted that the iterator
      * is first traversed and the objects it returns converted to a List and then passed to the {@link #execute(List)} method for execution.
@@ -835,6 +1047,66 @@ public class Query
     	return qd;
 
     }                              
+
+    /**
+     * Execute this query directly on the specified list, without first copying it as
+     * {@link #execute(Collection)} does.  The list is only read, it is never sorted or
+     * changed in any other way by the query (a function that changes :_allobjs will change it though)
+     * and must not be changed while the query is executed.  A list that is not
+     * {@link RandomAccess} is copied.
+     * <p>
+     * The objects that match are not copied either: the where results and, when the
+     * objects themselves are selected, the results stay views of the list, held as the
+     * indices of the objects.  They are only valid as long as the list is not changed,
+     * a change of the list shows in them, or makes them return other objects.  Use
+     * {@link #executeReadOnly(List,List)} to get the results in a list of their own.
+     *
+     * @param objs The list of objects to execute the query on.
+     * @return The list of objects that match the query.
+     * @throws QueryExecutionException If the query cannot be executed.
+     */
+    public QueryResults executeReadOnly (final List<?> objs)
+	                                 throws QueryExecutionException {
+
+    	return this.executeReadOnly (objs,
+    				     null);
+
+    }
+
+    /**
+     * Execute this query directly on the specified list, see {@link #executeReadOnly(List)},
+     * and put the results in the specified list.  The output list is cleared first and is
+     * the list returned by {@link QueryResults#getResults()}, so the same list can be used
+     * for every execution.  The results are then not changed by a change of the list
+     * of objects, the where results still are.
+     *
+     * @param objs The list of objects to execute the query on.
+     * @param output The list to put the results in, can be null.
+     * @return The list of objects that match the query.
+     * @throws QueryExecutionException If the query cannot be executed.
+     */
+    public QueryResults executeReadOnly (final List<?>      objs,
+    					 final List<Object> output)
+	                                 throws QueryExecutionException {
+
+    	List<Object> l = null;
+
+    	if (objs instanceof RandomAccess) {
+
+    		l = (List<Object>) objs;
+
+    	} else if (objs != null) {
+
+    		l = Lists.newArrayList(objs);
+
+    	}
+
+    	QueryExecutor process = new QueryExecutor(this, l, objClass, output);
+    	process.execute();
+
+    	return qd;
+
+    }
     
 
     public void setCurrentGroupByObjects (final List objs) {
@@ -927,9 +1199,7 @@ public class Query
 	
 		}
 	
-		Object old = qd.getSaveValues().get(id);
-	
-		qd.getSaveValues().put(id,value);
+		Object old = qd.putSaveValue(id, value);
 	
 		if (old != null) {
 	
@@ -1087,6 +1357,79 @@ public class Query
 
     }
 
+    /**
+     * Get the slot of a named save value, the value can then be got with
+     * {@link #getSaveValueAt(int)} without looking up the name.  Used when the save values are inited.
+     *
+     * @param name The name of the save value.
+     * @return The slot.
+     */
+    public int getSaveValueSlot (final String name)
+    {
+
+		if (parent != null) {
+			
+		    return parent.getSaveValueSlot (name);
+	
+		}
+
+		return saveValueSlots.getSlot (name);
+
+    }
+
+    /**
+     * Get the save value at a slot, see: {@link #getSaveValueSlot(String)}.
+     *
+     * @param slot The slot.
+     * @return The value.
+     */
+    public Object getSaveValueAt (final int slot)
+    {
+
+		if (parent != null) {
+			
+		    return parent.getSaveValueAt (slot);
+	
+		}
+	
+		if (qd == null) {
+	
+		    return null;
+	
+		}
+	
+		return qd.getSaveValueAt(slot);
+
+    }
+
+    /**
+     * Keep a value for an object for the time of the execution, the value is then returned
+     * by {@link #getSaveValue(Object)} for the object.  The objects are held by identity.
+     *
+     * @param o The object.
+     * @param value The value.
+     */
+    public void setObjectValue (final Object o,
+				final Object value)
+    {
+
+		if (parent != null) {
+	
+		    parent.setObjectValue(o, value);
+		    return;
+	
+		}
+	
+		if (qd == null) {
+	
+		    return;
+	
+		}
+
+		qd.putObjectValue(o, value);
+
+    }
+
     /**
      * Get the query string that this Query object represents.
      *
@@ -1406,8 +1749,10 @@ public class Query
 	               throws QueryParseException {
 
 		query = q;
+		groupByWorkers = null;
 		
 		qd = new QueryResults();
+		qd.setSaveValueSlots(saveValueSlots);
 	
 		BufferedReader sr = new BufferedReader (new StringReader (q));
 	
@@ -1549,10 +1894,276 @@ public class Query
 
         initExecuteOn ();
 
+        optimize ();
+
+        // The expressions found in more than one clause are evaluated once per row.
+        CommonSubExpressions cse = CommonSubExpressions.assignSlots (where, cols, orderBys);
+
+        rowValueSlots = cse.getSlotCount ();
+        rowValuesUsedAfterWhere = cse.isUsedAfterWhere ();
+
         timer.stop();
         
     }
 
+    /**
+     * Rewrite the inited expressions so that they are cheaper to evaluate,
+     * see: {@link ExpressionOptimizer}.
+     */
+    private void optimize () {
+
+    	ExpressionOptimizer opt = new ExpressionOptimizer (this);
+
+    	// A WHERE clause folded into true is kept, the callers of getWhereClause ()
+    	// expect one, it is skipped when the query is executed.
+    	where = opt.optimize (where);
+
+    	having = opt.optimize (having);
+
+    	if (cols != null) {
+
+    		for (int i = 0; i < cols.size (); i++) {
+
+    			SelectItemExpression sei = (SelectItemExpression) cols.get (i);
+
+    			sei.setExpression (opt.optimize (sei.getExpression ()));
+
+    		}
+
+    	}
+
+    	if (reorderConditions) {
+
+    		where = AdaptiveAndOrExpression.flatten (where);
+    		having = AdaptiveAndOrExpression.flatten (having);
+
+    	}
+
+    	rewrites = opt.getRewrites ();
+
+    }
+
+    /**
+     * Set whether the branches of the AND and OR chains in the WHERE and HAVING clauses
+     * are reordered as the query is executed, so that the cheap and selective ones are
+     * evaluated first, see: {@link AdaptiveAndOrExpression}.  Must be set before the
+     * query is parsed.
+     *
+     * @param v <code>true</code> to reorder the conditions.
+     */
+    public void setReorderConditions (final boolean v) {
+
+    	reorderConditions = v;
+
+    }
+
+    public boolean isReorderConditions () {
+
+    	return reorderConditions;
+
+    }
+
+    /**
+     * Set the number of threads the groups of the GROUP BY clause are processed with,
+     * i.e. the GROUP_BY_RESULTS functions executed, the group objects ordered and their
+     * columns collected.  Each thread uses its own copy of this query, parsed from the
+     * same statement, so the functions it calls must be safe to call from more than one
+     * thread.  The groups are kept in order.
+     * <p>
+     * The groups of a sub-query, or of a query with its own function handlers, are
+     * always processed by the calling thread.
+     *
+     * @param n The number of threads, 1, the default, to only use the calling thread.
+     */
+    public void setGroupByThreads (final int n) {
+
+    	groupByThreads = Math.max (1, n);
+
+    }
+
+    public int getGroupByThreads () {
+
+    	return groupByThreads;
+
+    }
+
+    /**
+     * Set whether the objects are sorted by the values of the GROUP BY expressions,
+     * such as events in time order grouped by minute.  Each group is then processed as
+     * soon as the next object has another key and its objects are not kept, only one
+     * group is held at a time rather than all of them.  The groups are processed by
+     * the calling thread.
+     * <p>
+     * When a key comes back after its group was processed the objects were not sorted,
+     * they are then grouped as usual.
+     *
+     * @param sorted <code>true</code> if the objects are sorted by group key.
+     */
+    public void setGroupByInputSorted (final boolean sorted) {
+
+    	groupByInputSorted = sorted;
+
+    }
+
+    public boolean isGroupByInputSorted () {
+
+    	return groupByInputSorted;
+
+    }
+
+    /**
+     * Get the copies of this query that process the groups, see: {@link #setGroupByThreads(int)},
+     * they are parsed the first time and then prepared for each execution with the
+     * bind variables of this query.
+     *
+     * @param n The number of copies needed.
+     * @return The copies, empty if the groups can only be processed by the calling thread.
+     * @throws QueryExecutionException If a copy cannot be parsed.
+     */
+    public List<Query> getGroupByWorkers (final int n)
+                                          throws QueryExecutionException {
+
+    	List<Query> res = Lists.newArrayList ();
+
+    	if ((n < 2)
+    	    ||
+    	    (parent != null)
+    	    ||
+    	    ((functionHandlers != null)
+    	     &&
+    	     (!functionHandlers.isEmpty ())
+    	    )
+    	   ) {
+
+    		return res;
+
+    	}
+
+    	if (groupByWorkers == null) {
+
+    		groupByWorkers = Lists.newArrayList ();
+
+    	}
+
+    	while (groupByWorkers.size () < n) {
+
+    		Query w = new Query ();
+    		w.setClassLoader (classLoader);
+    		w.setFunctionRegistry (functionRegistry);
+    		w.setReorderConditions (reorderConditions);
+
+    		try {
+
+    			w.parse (query);
+
+    		} catch (QueryParseException e) {
+
+    			throw new QueryExecutionException ("Unable to parse a copy of the query to process the groups with",
+    							   e);
+
+    		}
+
+    		groupByWorkers.add (w);
+
+    	}
+
+    	for (int i = 0; i < n; i++) {
+
+    		Query w = groupByWorkers.get (i);
+
+    		w.reset ();
+
+    		// The memoized functions of the copies count as the ones of the query.
+    		w.getQueryResults ().setMemoCounts (qd.getMemoCounts ());
+
+    		if (bindVars != null) {
+
+    			w.setVariables (bindVars);
+
+    		}
+
+    		w.startRowValues ();
+
+    		res.add (w);
+
+    	}
+
+    	return res;
+
+    }
+
+    /**
+     * Describe the clauses of the query as they are executed, once rewritten by the
+     * optimizer, followed by the rewrites made.
+     *
+     * @return The description.
+     */
+    public String explain () {
+
+    	StringBuilder buf = new StringBuilder ();
+
+    	buf.append ("SELECT ");
+
+    	if (retObjs) {
+
+    		buf.append ("*");
+
+    	} else {
+
+    		for (int i = 0; i < cols.size (); i++) {
+
+    			if (i > 0) {
+
+    				buf.append (", ");
+
+    			}
+
+    			buf.append (cols.get (i));
+
+    		}
+
+    	}
+
+    	buf.append ("\nWHERE ").append (where != null ? where.toString () : "true");
+
+    	if (having != null) {
+
+    		buf.append ("\nHAVING ").append (having);
+
+    	}
+
+    	if (orderBys != null) {
+
+    		buf.append ("\nORDER BY ").append (orderBys);
+
+    	}
+
+    	for (String r : rewrites) {
+
+    		buf.append ("\n  rewritten: ").append (r);
+
+    	}
+
+    	return buf.toString ();
+
+    }
+
+    /**
+     * Remove the order bys, used when the order of the results does not matter.
+     *
+     * @return <code>true</code> if there were order bys.
+     */
+    public boolean removeOrderBys () {
+
+    	boolean had = orderBys != null;
+
+    	orderBys = null;
+    	orderByComp = null;
+
+    	return had;
+
+    }
+
     private void initSelect () throws QueryParseException {
         
         if (retObjs) {
@@ -1665,6 +2276,8 @@ public class Query
             grouper.addExpression (e);
 
         }
+
+        grouper.init ();
         
     }
 
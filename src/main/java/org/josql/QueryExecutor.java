@@ -5,6 +5,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 
+import org.josql.evaluators.AggregateScanEvaluator;
 import org.josql.evaluators.ExecuteOnEvaluator;
 import org.josql.evaluators.GroupByClauseEvaluator;
 import org.josql.evaluators.HavingClauseEvaluator;
@@ -22,6 +23,8 @@ public class QueryExecutor {
 	private List<Object> objs;
 	private Class<?> objClass;
 	private Map<Object, Object> executeOnFunctions;
+	private List<Object> output;
+	private boolean readOnly;
 	
 	private ColumnValuesExtractor columnExtractor;
 	private Stack<QueryEvaluator> evaluators;
@@ -41,6 +44,21 @@ public class QueryExecutor {
 		
 	}
 	
+	/**
+	 * Create a new QueryExecutor for executing a JoSQL query on a list that is only read.
+	 * @param _query the JoSQL Query object
+	 * @param _objs The list of objects to execute the query on, it is not changed.
+	 * @param _objClass the type of the objects
+	 * @param _output The list to put the results in, can be null.
+	 */
+	public QueryExecutor(final Query _query, final List<Object> _objs, final Class<?> _objClass, final List<Object> _output) {
+		
+		this(_query, _objs, _objClass);
+		output = _output;
+		readOnly = true;
+		
+	}
+	
 	/**
      * Execute this query on the specified objects.
      * @throws QueryExecutionException If the query cannot be executed.
@@ -58,8 +76,24 @@ public class QueryExecutor {
 		Timer timer = query.getQueryResults().getTimeEvaluator().newTimer("Query executed in");
 		timer.start();
 
-		init();
-		executeStack();
+		query.startRowValues();
+
+		try {
+			init();
+			executeStack();
+
+			if (output != null && query.getQueryResults().getResults() != output) {
+
+				// A group by or a select of the objects themselves.
+				List<Object> res = query.getQueryResults().getResults();
+				output.clear();
+				output.addAll(res);
+				query.getQueryResults().setResults(output);
+
+			}
+		} finally {
+			query.endRowValues();
+		}
 	    
 	    timer.stop();
 		
@@ -75,10 +109,23 @@ public class QueryExecutor {
 		// the complete set.
 		evaluators.push(new ExecuteOnEvaluator(executeOnFunctions, objs, Query.ALL));
 
+		// A query of aggregates only is done in a single scan, without keeping the results.
+		AggregateScanEvaluator aggregates = (query.grouper == null) ? AggregateScanEvaluator.create(query) : null;
+
+		if (aggregates != null) {
+
+			evaluators.push(aggregates);
+			evaluators.push(new LimitClauseEvaluator());
+
+			return;
+
+		}
+
 		evaluators.push(new WhereClauseEvaluator());
 
-		// See if we have any functions that are to be executed on the results...
-	    evaluators.push(new ExecuteOnEvaluator(executeOnFunctions, query.getQueryResults().getResults(), Query.RESULTS));    
+		// See if we have any functions that are to be executed on the results, they
+		// are only known once the where clause has been evaluated...
+	    evaluators.push(new ExecuteOnEvaluator(executeOnFunctions, null, Query.RESULTS));    
 	    
 	    columnExtractor = new ColumnValuesExtractor(query, query.cols);
 	    
@@ -92,12 +139,12 @@ public class QueryExecutor {
 	    }else{
 
 	    	// Now perform the order by.
-	    	evaluators.push(new OrderByClauseEvaluator());
+	    	evaluators.push(new OrderByClauseEvaluator(readOnly ? objs : null));
 
 	        // Finally, if we have a limit clause, restrict the set of objects returned...
 	    	evaluators.push(new LimitClauseEvaluator());
 
-	        evaluators.push(new SelectClauseEvaluator(query.cols, columnExtractor));	       
+	        evaluators.push(new SelectClauseEvaluator(query.cols, columnExtractor, output));	       
 
 	    }
 		
@@ -0,0 +1,258 @@
+package org.josql;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import org.josql.exceptions.QueryParseException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * A bounded LRU cache of parsed and initialized queries, keyed by the query text
+ * and the class loader the FROM class is loaded with. Parsing a query builds a new
+ * parser and resolves its accessors and functions through reflection, this cache
+ * lets the same query text be parsed once and executed many times.
+ * <p>
+ * A parsed query holds its execution state (bind variables, save values, results)
+ * so it can only be used by one caller at a time: {@link #acquire(String)} hands out
+ * an idle query, or parses a new one, and {@link #release(Query)} gives it back once
+ * executed. The bind variables are set on the acquired query for each execution.
+ * <p>
+ * The queries are held per class loader, the class loaders are weakly referenced
+ * and compared by identity and their queries softly referenced, as in
+ * {@link org.josql.internal.MetadataCache}.  A query refers to the classes it was
+ * parsed with, the queries of a class loader no longer used are dropped when memory
+ * runs low and the class loader can then be unloaded.
+ * <p>
+ * Usage:
+ * <pre>
+ *   Query q = QueryPlanCache.getInstance ().acquire (sql);
+ *   try {
+ *       q.setVariable ("name", value);
+ *       List&lt;Result&gt; results = q.execute (objs).asList ();
+ *   } finally {
+ *       QueryPlanCache.getInstance ().release (q);
+ *   }
+ * </pre>
+ */
+public class QueryPlanCache {
+
+	public static final int DEFAULT_MAX_SIZE = 256;
+	public static final int DEFAULT_MAX_IDLE = 8;
+
+	private static final QueryPlanCache instance = new QueryPlanCache(DEFAULT_MAX_SIZE);
+
+	private final int maxSize;
+	private final Cache<ClassLoader, Map<String, LinkedList<Query>>> loaders;
+	// The queries of the classes loaded by the bootstrap class loader.
+	private Map<String, LinkedList<Query>> bootstrapPlans;
+	private long hits;
+	private long misses;
+
+	/**
+	 * @param _maxSize the maximum number of distinct query texts per class loader
+	 */
+	public QueryPlanCache(final int _maxSize) {
+
+		maxSize = _maxSize;
+		loaders = CacheBuilder.newBuilder().weakKeys().softValues().build();
+
+	}
+
+	/**
+	 * @return the process wide cache
+	 */
+	public static QueryPlanCache getInstance() {
+
+		return instance;
+
+	}
+
+	/**
+	 * Get a parsed query using the context class loader of the current thread.
+	 *
+	 * @param _query the query text
+	 * @return the parsed query, to be released once executed
+	 * @throws QueryParseException If the query cannot be parsed.
+	 */
+	public Query acquire(final String _query) throws QueryParseException {
+
+		return acquire(_query, null, null);
+
+	}
+
+	/**
+	 * Get a parsed query.
+	 *
+	 * @param _query the query text
+	 * @param _fromClass the expected FROM class, can be null. A cached query whose
+	 *            FROM class is not this one is not used.
+	 * @param _classLoader the class loader, if null the context class loader of
+	 *            the current thread
+	 * @return the parsed query, to be released once executed
+	 * @throws QueryParseException If the query cannot be parsed.
+	 */
+	public Query acquire(final String _query, final Class<?> _fromClass, final ClassLoader _classLoader)
+			throws QueryParseException {
+
+		ClassLoader classLoader = _classLoader != null ? _classLoader
+				: Thread.currentThread().getContextClassLoader();
+
+		synchronized (this) {
+
+			LinkedList<Query> idle = getPlans(classLoader).get(_query);
+
+			if (idle != null && !idle.isEmpty()
+					&& (_fromClass == null || idle.getFirst().getFromObjectClass() == _fromClass)) {
+				hits++;
+				return idle.removeFirst();
+			}
+
+			misses++;
+
+		}
+
+		Query q = new Query();
+		q.setClassLoader(classLoader);
+		q.parse(_query);
+
+		return q;
+
+	}
+
+	/**
+	 * Give back a query got from {@link #acquire(String)}, it must not be used
+	 * anymore by the caller. A query that has its own function handlers or
+	 * function registry is not kept since they may not be the same for the next
+	 * caller.
+	 *
+	 * @param _query the query
+	 */
+	public void release(final Query _query) {
+
+		if (_query == null || !_query.parsed() || _query.getParent() != null
+				|| (_query.getFunctionHandlers() != null && !_query.getFunctionHandlers().isEmpty())
+				|| _query.getFunctionRegistry() != null) {
+			return;
+		}
+
+		_query.reset();
+
+		synchronized (this) {
+
+			Map<String, LinkedList<Query>> plans = getPlans(_query.getClassLoader());
+
+			LinkedList<Query> idle = plans.get(_query.getQuery());
+
+			if (idle == null) {
+				idle = new LinkedList<Query>();
+				plans.put(_query.getQuery(), idle);
+			}
+
+			if (idle.size() < DEFAULT_MAX_IDLE) {
+				idle.addFirst(_query);
+			}
+
+		}
+
+	}
+
+	/**
+	 * @return the number of queries handed out without being parsed
+	 */
+	public synchronized long getHitCount() {
+
+		return hits;
+
+	}
+
+	/**
+	 * @return the number of queries that had to be parsed
+	 */
+	public synchronized long getMissCount() {
+
+		return misses;
+
+	}
+
+	/**
+	 * @return the number of distinct query texts cached, for all the class loaders
+	 */
+	public synchronized int size() {
+
+		int size = bootstrapPlans == null ? 0 : bootstrapPlans.size();
+
+		for (Map<String, LinkedList<Query>> plans : loaders.asMap().values()) {
+			size += plans.size();
+		}
+
+		return size;
+
+	}
+
+	/**
+	 * @return the maximum number of distinct query texts cached per class loader
+	 */
+	public int getMaxSize() {
+
+		return maxSize;
+
+	}
+
+	/**
+	 * Remove all the cached queries and reset the counters.
+	 */
+	public synchronized void clear() {
+
+		loaders.invalidateAll();
+		bootstrapPlans = null;
+		hits = 0;
+		misses = 0;
+
+	}
+
+	/**
+	 * Get the queries of a class loader, as an LRU map of the query text to the idle
+	 * queries, the caller must hold the lock.
+	 */
+	private Map<String, LinkedList<Query>> getPlans(final ClassLoader _classLoader) {
+
+		if (_classLoader == null) {
+
+			if (bootstrapPlans == null) {
+				bootstrapPlans = newPlans();
+			}
+
+			return bootstrapPlans;
+
+		}
+
+		Map<String, LinkedList<Query>> plans = loaders.getIfPresent(_classLoader);
+
+		if (plans == null) {
+			plans = newPlans();
+			loaders.put(_classLoader, plans);
+		}
+
+		return plans;
+
+	}
+
+	private Map<String, LinkedList<Query>> newPlans() {
+
+		return new LinkedHashMap<String, LinkedList<Query>>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String, LinkedList<Query>> _eldest) {
+				return size() > maxSize;
+			}
+
+		};
+
+	}
+
+}
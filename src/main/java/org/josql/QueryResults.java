@@ -14,9 +14,13 @@
  */
 package org.josql;
 
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.josql.internal.NameSlots;
+import org.josql.utils.MemoCounts;
 import org.josql.utils.TimeEvaluator;
 
 /**
@@ -45,23 +49,35 @@ public class QueryResults
 
 	public void setResults(final List _results) {
 		results = _results;
+		globalResults = null;
 	}
 
 	public void setGroupByResults(final Map _groupByResults) {
 		groupByResults = _groupByResults;
+		globalResults = null;
 	}
 
 	List whereResults = null;
     Map groupByResults = null;
 
     Map groupBySaveValues = null;
+
+    // The save values by slot, see: Query.getSaveValueSlot(String), got from the
+    // save values when first needed.
+    private NameSlots saveValueSlots = null;
+    private Object[] slotValues = null;
+
+    // The values cached for each object, see: MiscellaneousFunctions.cache.
+    private Map objectValues = null;
     
     List<Result> globalResults;
     private TimeEvaluator timeEvaluator;
+    private MemoCounts memoCounts;
 
     public QueryResults() {
     	
     	timeEvaluator = new TimeEvaluator();
+    	memoCounts = new MemoCounts();
     	
     }
 
@@ -104,12 +120,96 @@ public class QueryResults
 	
 		    id = ((String) id).toLowerCase();
 	
+		} else if ((objectValues != null) && (objectValues.containsKey(id))) {
+
+			return objectValues.get(id);
+
 		}
 
 		return getSaveValues().get(id);
 
     }
 
+    /**
+     * Get the save value at a slot.
+     * @param slot The slot, see: {@link Query#getSaveValueSlot(String)}.
+     * @return The value it maps to.
+     */
+    public Object getSaveValueAt (final int slot) {
+
+    	if ((slotValues == null) || (slot >= slotValues.length)) {
+
+    		if (saveValueSlots == null) {
+
+    			return null;
+
+    		}
+
+    		slotValues = saveValueSlots.getValues(saveValues);
+
+    	}
+
+    	return slotValues[slot];
+
+    }
+
+    /**
+     * Set a save value, the save values are created if needed.
+     * @param id The key of the save value, a String key should already be in lower case.
+     * @param value The value.
+     * @return The value the key mapped to before.
+     */
+    public Object putSaveValue (final Object id, final Object value) {
+
+    	if (saveValues == null) {
+
+    		saveValues = new HashMap();
+
+    	}
+
+    	Object old = saveValues.put(id, value);
+
+    	if ((slotValues != null) && (id instanceof String)) {
+
+    		int slot = saveValueSlots.findSlot((String) id);
+
+    		if ((slot > -1) && (slot < slotValues.length)) {
+
+    			slotValues[slot] = value;
+
+    		}
+
+    	}
+
+    	return old;
+
+    }
+
+    /**
+     * Keep a value for an object, the objects are held by identity.  The value is
+     * returned by {@link #getSaveValue(Object)} for the object.
+     * @param o The object.
+     * @param value The value.
+     */
+    public void putObjectValue (final Object o, final Object value) {
+
+    	if (objectValues == null) {
+
+    		objectValues = new IdentityHashMap();
+
+    	}
+
+    	objectValues.put(o, value);
+
+    }
+
+    void setSaveValueSlots (final NameSlots slots) {
+
+    	saveValueSlots = slots;
+    	slotValues = null;
+
+    }
+
     /**
      * Get the results of executing the query, this is the "final" results, i.e.
      * of executing ALL of the query.
@@ -182,6 +282,7 @@ public class QueryResults
 	public void setSaveValues(final Map saveValues) {
 		
 		this.saveValues = saveValues;
+		slotValues = null;
 		
 	}
 	
@@ -190,5 +291,29 @@ public class QueryResults
 		return timeEvaluator;
 		
 	}
+
+	/**
+	 * Get the hits and misses of the memoized functions, summed over the executions
+	 * made with these results.
+	 *
+	 * @return The counts.
+	 */
+	public MemoCounts getMemoCounts() {
+		
+		return memoCounts;
+		
+	}
+	
+	/**
+	 * Record the hits and misses in other counts, used by the copies of a query that
+	 * process its groups.
+	 *
+	 * @param _memoCounts The counts.
+	 */
+	public void setMemoCounts(final MemoCounts _memoCounts) {
+		
+		memoCounts = _memoCounts;
+		
+	}
 	
 }
@@ -0,0 +1,89 @@
+package org.josql.csv;
+
+import com.google.common.collect.Maps;
+import java.util.Map;
+
+/**
+ * A bounded dictionary of the values of the repetitive string columns of a CSV
+ * table, equal values are replaced by a single shared instance. Once the
+ * dictionary is full the new values are no longer shared, so that a column
+ * with unique values can not make it grow without limit.
+ */
+public class CsvDictionary {
+
+    public static final int DEFAULT_MAX_SIZE = 65536;
+
+    private int maxSize;
+    private Map<String, String> values;
+
+    public CsvDictionary() {
+
+        this(DEFAULT_MAX_SIZE);
+
+    }
+
+    /**
+     * @param _maxSize the maximum number of distinct values
+     */
+    public CsvDictionary(final int _maxSize) {
+
+        maxSize = _maxSize;
+        values = Maps.newHashMap();
+
+    }
+
+    /**
+     * Get the shared instance of a value
+     *
+     * @param _value the value
+     * @return the shared instance equal to the value, or the value itself if
+     * it is new and the dictionary is full
+     */
+    public synchronized String intern(final String _value) {
+
+        if (_value == null) {
+            return null;
+        }
+
+        String shared = values.get(_value);
+
+        if (shared != null) {
+            return shared;
+        }
+
+        if (values.size() < maxSize) {
+            values.put(_value, _value);
+        }
+
+        return _value;
+
+    }
+
+    /**
+     * @return the number of distinct values
+     */
+    public synchronized int size() {
+
+        return values.size();
+
+    }
+
+    /**
+     * @return the maximum number of distinct values
+     */
+    public int getMaxSize() {
+
+        return maxSize;
+
+    }
+
+    /**
+     * Remove all the values
+     */
+    public synchronized void clear() {
+
+        values.clear();
+
+    }
+
+}
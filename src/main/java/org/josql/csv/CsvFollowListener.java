@@ -0,0 +1,29 @@
+package org.josql.csv;
+
+import java.util.List;
+import org.josql.Result;
+
+/**
+ * Notified by a {@link CsvTableFollower} when rows appended to the followed
+ * CSV file change the results of its query.
+ */
+public interface CsvFollowListener {
+
+    /**
+     * Called with the results of the query for the new rows, or for the groups
+     * touched by the new rows when the query has a GROUP BY clause
+     *
+     * @param _follower the follower
+     * @param _results the new results
+     */
+    void resultsChanged(CsvTableFollower _follower, List<Result> _results);
+
+    /**
+     * Called when the appended rows can not be read or queried
+     *
+     * @param _follower the follower
+     * @param _error the error
+     */
+    void followFailed(CsvTableFollower _follower, Exception _error);
+
+}
@@ -0,0 +1,172 @@
+package org.josql.csv;
+
+import com.opencsv.CSVParser;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Finds the boundaries of the records of a CSV file without parsing them, the
+ * same way as the CSV reader: a line break inside a quoted value does not end
+ * the record. The stream must support mark/reset and the file encoding must be
+ * ASCII compatible since it is scanned as bytes.
+ */
+class CsvRecordScanner {
+
+    private InputStream in;
+    private int quote;
+    private long position;
+    private long recordStart;
+    private boolean terminated;
+
+    /**
+     * @param _in the stream, positioned at the start of a line
+     * @param _quote the quote character
+     * @param _position the position of the stream in the file
+     */
+    CsvRecordScanner(final InputStream _in, final char _quote, final long _position) {
+
+        in = _in;
+        quote = _quote;
+        position = _position;
+
+    }
+
+    /**
+     * Skip plain lines, as done by the CSV reader for the first lines
+     *
+     * @param _lines the number of lines to skip
+     * @return false if the end of the stream has been reached before the end
+     * of the last line
+     * @throws IOException
+     */
+    boolean skipLines(final int _lines) throws IOException {
+
+        for (int i = 0; i < _lines; i++) {
+
+            int b;
+
+            while (true) {
+
+                b = in.read();
+
+                if (b == -1) {
+                    return false;
+                }
+
+                position++;
+
+                if (b == '\n') {
+                    break;
+                }
+
+                if (b == '\r') {
+                    skipLineFeed();
+                    break;
+                }
+
+            }
+
+        }
+
+        return true;
+
+    }
+
+    /**
+     * Move over the next record
+     *
+     * @return false if there is no more record
+     * @throws IOException
+     */
+    boolean nextRecord() throws IOException {
+
+        int b = in.read();
+
+        if (b == -1) {
+            return false;
+        }
+
+        recordStart = position;
+        terminated = false;
+
+        boolean inQuotes = false;
+
+        while (b != -1) {
+
+            position++;
+
+            if (b == CSVParser.DEFAULT_ESCAPE_CHARACTER) {
+
+                // An escaped quote does not open or close a quoted value.
+                in.mark(1);
+                int n = in.read();
+                if (n == quote || n == CSVParser.DEFAULT_ESCAPE_CHARACTER) {
+                    position++;
+                } else {
+                    in.reset();
+                }
+
+            } else if (b == quote) {
+
+                inQuotes = !inQuotes;
+
+            } else if (!inQuotes && (b == '\n' || b == '\r')) {
+
+                if (b == '\r') {
+                    skipLineFeed();
+                }
+
+                terminated = true;
+                return true;
+
+            }
+
+            b = in.read();
+
+        }
+
+        return true;
+
+    }
+
+    private void skipLineFeed() throws IOException {
+
+        in.mark(1);
+
+        if (in.read() == '\n') {
+            position++;
+        } else {
+            in.reset();
+        }
+
+    }
+
+    /**
+     * @return the position in the file after the last byte read
+     */
+    long getPosition() {
+
+        return position;
+
+    }
+
+    /**
+     * @return the position in the file of the last record found
+     */
+    long getRecordStart() {
+
+        return recordStart;
+
+    }
+
+    /**
+     * @return true if the last record found ends with a line break, i.e. it
+     * has been completely written
+     */
+    boolean isTerminated() {
+
+        return terminated;
+
+    }
+
+}
@@ -0,0 +1,263 @@
+package org.josql.csv;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * A sparse index of the records of a CSV file, it holds the byte offset of
+ * every Nth record so that a range of rows can be read by seeking close to it
+ * instead of parsing the file from the start.
+ * <p>
+ * The file encoding must be ASCII compatible (UTF-8, ISO-8859-x...) since the
+ * record boundaries are found by scanning the file as bytes.
+ */
+public class CsvRowIndex {
+
+    public static final String INDEX_EXTENSION = ".josqlidx";
+    public static final int DEFAULT_INTERVAL = 1024;
+
+    private static final long MAGIC = 0x4A6F53514C494458L;
+    private static final int VERSION = 1;
+
+    private int interval;
+    private int rowCount;
+    private long[] offsets;
+
+    private CsvRowIndex(final int _interval, final int _rowCount, final long[] _offsets) {
+
+        interval = _interval;
+        rowCount = _rowCount;
+        offsets = _offsets;
+
+    }
+
+    /**
+     * Get the file the row index of a CSV file is stored in
+     *
+     * @param _source the CSV file
+     * @param _directory the cache directory, if null the index is stored next
+     * to the CSV file
+     * @return the index file
+     */
+    public static File getIndexFile(final File _source, final File _directory) {
+
+        if (_directory == null) {
+            return new File(_source.getPath() + INDEX_EXTENSION);
+        }
+
+        String path = _source.getAbsolutePath();
+        return new File(_directory, _source.getName() + "-"
+                + Integer.toHexString(path.hashCode()) + INDEX_EXTENSION);
+
+    }
+
+    /**
+     * Scan a CSV file and build its row index
+     *
+     * @param _source the CSV file
+     * @param _options the options used to parse the CSV file
+     * @param _interval the number of records between two indexed offsets
+     * @return the row index
+     * @throws IOException
+     */
+    public static CsvRowIndex build(final File _source, final CsvOptions _options, final int _interval)
+            throws IOException {
+
+        InputStream in = null;
+
+        try {
+
+            in = new BufferedInputStream(new FileInputStream(_source), 65536);
+
+            CsvRecordScanner scanner = new CsvRecordScanner(in, _options.getQuote(), 0);
+
+            long[] offsets = new long[64];
+            int entries = 0;
+            int rows = 0;
+
+            // The first lines are skipped as plain lines by the CSV reader.
+            if (scanner.skipLines(_options.getFirstLine())) {
+
+                while (scanner.nextRecord()) {
+
+                    if (rows % _interval == 0) {
+                        if (entries == offsets.length) {
+                            offsets = Arrays.copyOf(offsets, entries * 2);
+                        }
+                        offsets[entries++] = scanner.getRecordStart();
+                    }
+
+                    rows++;
+
+                }
+
+            }
+
+            return new CsvRowIndex(_interval, rows, Arrays.copyOf(offsets, entries));
+
+        } finally {
+
+            IOUtils.closeQuietly(in);
+
+        }
+
+    }
+
+    /**
+     * Load the row index of a CSV file
+     *
+     * @param _indexFile the index file
+     * @param _source the CSV file
+     * @param _options the options used to parse the CSV file
+     * @param _interval the expected number of records between two offsets
+     * @return the row index, or null if it does not exist or is out of date
+     */
+    public static CsvRowIndex load(final File _indexFile, final File _source, final CsvOptions _options,
+            final int _interval) {
+
+        if (!_indexFile.isFile()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+
+        try {
+
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(_indexFile)));
+
+            if (in.readLong() != MAGIC || in.readInt() != VERSION
+                    || in.readLong() != _source.length()
+                    || in.readLong() != _source.lastModified()
+                    || in.readChar() != _options.getQuote()
+                    || in.readInt() != _options.getFirstLine()
+                    || in.readInt() != _interval) {
+                return null;
+            }
+
+            int rowCount = in.readInt();
+            long[] offsets = new long[in.readInt()];
+
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = in.readLong();
+            }
+
+            return new CsvRowIndex(_interval, rowCount, offsets);
+
+        } catch (IOException e) {
+
+            // An unreadable index is simply rebuilt.
+            return null;
+
+        } catch (RuntimeException e) {
+
+            return null;
+
+        } finally {
+
+            IOUtils.closeQuietly(in);
+
+        }
+
+    }
+
+    /**
+     * Write the row index
+     *
+     * @param _indexFile the index file
+     * @param _sourceLength the length of the CSV file when it was scanned
+     * @param _sourceLastModified the modification time of the CSV file when
+     * it was scanned
+     * @param _options the options used to parse the CSV file
+     * @throws IOException
+     */
+    public void write(final File _indexFile, final long _sourceLength, final long _sourceLastModified,
+            final CsvOptions _options) throws IOException {
+
+        File parent = _indexFile.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create the index directory: " + parent);
+        }
+
+        File tmp = File.createTempFile(_indexFile.getName(), ".tmp", parent);
+        DataOutputStream out = null;
+
+        try {
+
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+
+            out.writeLong(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(_sourceLength);
+            out.writeLong(_sourceLastModified);
+            out.writeChar(_options.getQuote());
+            out.writeInt(_options.getFirstLine());
+            out.writeInt(interval);
+            out.writeInt(rowCount);
+            out.writeInt(offsets.length);
+
+            for (long offset : offsets) {
+                out.writeLong(offset);
+            }
+
+            out.close();
+            out = null;
+
+            if (_indexFile.exists() && !_indexFile.delete()) {
+                throw new IOException("Unable to replace the index: " + _indexFile);
+            }
+
+            if (!tmp.renameTo(_indexFile)) {
+                throw new IOException("Unable to rename: " + tmp + " to: " + _indexFile);
+            }
+
+        } finally {
+
+            IOUtils.closeQuietly(out);
+            if (tmp.exists()) {
+                tmp.delete();
+            }
+
+        }
+
+    }
+
+    /**
+     * @return the number of records in the CSV file
+     */
+    public int getRowCount() {
+
+        return rowCount;
+
+    }
+
+    /**
+     * @return the number of records between two indexed offsets
+     */
+    public int getInterval() {
+
+        return interval;
+
+    }
+
+    /**
+     * Get the byte offset of the closest indexed record before a row
+     *
+     * @param _row the row index
+     * @return the byte offset of record: <code>_row - _row % interval</code>
+     */
+    public long getOffset(final int _row) {
+
+        return offsets[_row / interval];
+
+    }
+
+}
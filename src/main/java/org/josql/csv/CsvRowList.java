@@ -0,0 +1,168 @@
+package org.josql.csv;
+
+import com.opencsv.CSVReader;
+import com.opencsv.bean.MappingStrategy;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * A read-only list over the rows of a CSV file that only creates the java
+ * objects of the rows it is asked for. Rows are read by pages of
+ * {@link CsvRowIndex#getInterval()} records, starting from the offsets of the
+ * row index, and the most recently used pages are kept.
+ * <p>
+ * A page that is read again creates new objects. While a query is executed the
+ * pages read are all kept, see {@link #startExecution()}, so that a row is the same
+ * object for the whole execution: the query caches values and finds distinct
+ * objects by identity.
+ */
+public class CsvRowList extends AbstractList<Object> implements RandomAccess {
+
+    public static final int DEFAULT_CACHED_PAGES = 16;
+
+    private File file;
+    private CsvOptions options;
+    private CsvRowIndex index;
+    private JoCsvToBean csv;
+    private MappingStrategy<Object> strategy;
+    private Map<Integer, List<Object>> pages;
+    private Map<Integer, List<Object>> executionPages;
+    private int pagesRead;
+
+    /**
+     * @param _file the CSV file
+     * @param _options the options used to parse the CSV file
+     * @param _index the row index of the file
+     * @param _csv the bean creator
+     * @param _strategy the mapping strategy
+     */
+    public CsvRowList(final File _file, final CsvOptions _options, final CsvRowIndex _index,
+            final JoCsvToBean _csv, final MappingStrategy<Object> _strategy) {
+
+        file = _file;
+        options = _options;
+        index = _index;
+        csv = _csv;
+        strategy = _strategy;
+        pages = new LinkedHashMap<Integer, List<Object>>(DEFAULT_CACHED_PAGES, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Integer, List<Object>> _eldest) {
+                return size() > DEFAULT_CACHED_PAGES;
+            }
+
+        };
+
+    }
+
+    @Override
+    public Object get(final int _index) {
+
+        if (_index < 0 || _index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + _index + ", Size: " + size());
+        }
+
+        int interval = index.getInterval();
+        Integer page = _index / interval;
+        List<Object> rows = executionPages != null ? executionPages.get(page) : null;
+
+        if (rows == null) {
+            rows = pages.get(page);
+        }
+
+        if (rows == null) {
+            rows = readRows(page * interval, interval);
+            pagesRead++;
+            pages.put(page, rows);
+        }
+
+        if (executionPages != null) {
+            executionPages.put(page, rows);
+        }
+
+        return rows.get(_index % interval);
+
+    }
+
+    @Override
+    public int size() {
+
+        return index.getRowCount();
+
+    }
+
+    /**
+     * Keep all the pages read until {@link #endExecution()}, a row is then the same
+     * object each time it is got.
+     */
+    public void startExecution() {
+
+        executionPages = new HashMap<Integer, List<Object>>();
+
+    }
+
+    /**
+     * Only keep the most recently used pages again.
+     */
+    public void endExecution() {
+
+        executionPages = null;
+
+    }
+
+    /**
+     * @return the number of pages parsed since the list was created
+     */
+    public int getPagesRead() {
+
+        return pagesRead;
+
+    }
+
+    /**
+     * Read a range of rows, only the records from the closest indexed offset
+     * before the range are parsed
+     *
+     * @param _from the index of the first row
+     * @param _count the maximum number of rows
+     * @return the java objects of the rows
+     */
+    public List<Object> readRows(final int _from, final int _count) {
+
+        FileInputStream in = null;
+
+        try {
+
+            in = new FileInputStream(file);
+            in.getChannel().position(index.getOffset(_from));
+
+            CSVReader reader = new CSVReader(new InputStreamReader(in), options.getSeparator(),
+                    options.getQuote(), 0);
+
+            return csv.parse(strategy, reader, _from % index.getInterval(), _count);
+
+        } catch (IOException e) {
+
+            throw new RuntimeException("Unable to read rows: " + _from + " to: " + (_from + _count)
+                    + " from: " + file, e);
+
+        } finally {
+
+            IOUtils.closeQuietly(in);
+
+        }
+
+    }
+
+}
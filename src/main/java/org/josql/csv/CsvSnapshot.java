@@ -0,0 +1,838 @@
+package org.josql.csv;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Map;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * A binary columnar copy of the cells of a CSV file, written once after the
+ * file has been parsed and then memory-mapped on the following reads as long
+ * as the size and the last modification time of the source file are
+ * unchanged.
+ * <p>
+ * Each column is stored either as a typed array (<code>long</code> or
+ * <code>double</code>, with min/max statistics for every chunk of rows) when
+ * the property it is mapped to is numeric and every cell could be parsed, or
+ * as dictionary-encoded strings otherwise.
+ */
+public class CsvSnapshot {
+
+    public static final String SNAPSHOT_EXTENSION = ".josql";
+    public static final int DEFAULT_CHUNK_SIZE = 4096;
+
+    public static final byte KIND_STRING = 0;
+    public static final byte KIND_LONG = 1;
+    public static final byte KIND_DOUBLE = 2;
+
+    private static final long MAGIC = 0x4A6F53514C435356L;
+    private static final int VERSION = 2;
+    private static final int MISSING_CELL = -1;
+
+    private String[] properties;
+    private String[] types;
+    private int rowCount;
+    private int chunkSize;
+    private byte[] kinds;
+    private String[][] dictionaries;
+    private IntBuffer[] codes;
+    private LongBuffer[] longs;
+    private DoubleBuffer[] doubles;
+    private Number[][] chunkMins;
+    private Number[][] chunkMaxs;
+
+    private CsvSnapshot(final String[] _properties, final String[] _types, final int _rowCount,
+            final int _chunkSize) {
+
+        properties = _properties;
+        types = _types;
+        rowCount = _rowCount;
+        chunkSize = _chunkSize;
+        kinds = new byte[_properties.length];
+        dictionaries = new String[_properties.length][];
+        codes = new IntBuffer[_properties.length];
+        longs = new LongBuffer[_properties.length];
+        doubles = new DoubleBuffer[_properties.length];
+        chunkMins = new Number[_properties.length][];
+        chunkMaxs = new Number[_properties.length][];
+
+    }
+
+    /**
+     * Get the file the snapshot of a CSV file is stored in
+     *
+     * @param _source the CSV file
+     * @param _directory the cache directory, if null the snapshot is stored
+     * next to the CSV file
+     * @return the snapshot file
+     */
+    public static File getSnapshotFile(final File _source, final File _directory) {
+
+        if (_directory == null) {
+            return new File(_source.getPath() + SNAPSHOT_EXTENSION);
+        }
+
+        // Several CSV files with the same name may share the cache directory.
+        String path = _source.getAbsolutePath();
+        return new File(_directory, _source.getName() + "-"
+                + Integer.toHexString(path.hashCode()) + SNAPSHOT_EXTENSION);
+
+    }
+
+    /**
+     * Get the kind of column a property type can be stored as
+     *
+     * @param _type the type of the property, may be null
+     * @param _converters the converters defined for the table, a property with
+     * a converter is always stored as strings
+     * @return one of {@link #KIND_STRING}, {@link #KIND_LONG} or
+     * {@link #KIND_DOUBLE}
+     */
+    public static byte getColumnKind(final Class<?> _type, final Map<Class<?>, StringConverter<?>> _converters) {
+
+        if (_type == null || _converters.containsKey(_type)) {
+            return KIND_STRING;
+        }
+
+        if (_type == Integer.TYPE || _type == Integer.class
+                || _type == Long.TYPE || _type == Long.class
+                || _type == Short.TYPE || _type == Short.class
+                || _type == Byte.TYPE || _type == Byte.class) {
+            return KIND_LONG;
+        }
+
+        if (_type == Double.TYPE || _type == Double.class
+                || _type == Float.TYPE || _type == Float.class) {
+            return KIND_DOUBLE;
+        }
+
+        return KIND_STRING;
+
+    }
+
+    /**
+     * Load the snapshot of a CSV file
+     *
+     * @param _snapshotFile the snapshot file
+     * @param _source the CSV file
+     * @param _properties the properties the columns are mapped to
+     * @param _options the options used to parse the CSV file
+     * @return the snapshot, or null if it does not exist or is out of date
+     */
+    public static CsvSnapshot load(final File _snapshotFile, final File _source,
+            final String[] _properties, final CsvOptions _options) {
+
+        if (!_snapshotFile.isFile()) {
+            return null;
+        }
+
+        RandomAccessFile raf = null;
+
+        try {
+
+            raf = new RandomAccessFile(_snapshotFile, "r");
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buf.getLong() != MAGIC || buf.getInt() != VERSION
+                    || buf.getLong() != _source.length()
+                    || buf.getLong() != _source.lastModified()
+                    || buf.getChar() != _options.getSeparator()
+                    || buf.getChar() != _options.getQuote()
+                    || buf.getInt() != _options.getFirstLine()) {
+                return null;
+            }
+
+            String[] properties = new String[buf.getInt()];
+            for (int i = 0; i < properties.length; i++) {
+                properties[i] = readString(buf);
+            }
+
+            if (!Arrays.equals(properties, _properties)) {
+                return null;
+            }
+
+            String[] types = new String[properties.length];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = readString(buf);
+            }
+
+            CsvSnapshot snapshot = new CsvSnapshot(properties, types, buf.getInt(), buf.getInt());
+            int chunks = snapshot.getChunkCount();
+
+            for (int i = 0; i < properties.length; i++) {
+
+                byte kind = buf.get();
+                snapshot.kinds[i] = kind;
+
+                if (kind == KIND_LONG) {
+
+                    snapshot.longs[i] = slice(buf, snapshot.rowCount * 8).asLongBuffer();
+                    snapshot.chunkMins[i] = new Number[chunks];
+                    snapshot.chunkMaxs[i] = new Number[chunks];
+                    for (int c = 0; c < chunks; c++) {
+                        snapshot.chunkMins[i][c] = buf.getLong();
+                        snapshot.chunkMaxs[i][c] = buf.getLong();
+                    }
+
+                } else if (kind == KIND_DOUBLE) {
+
+                    snapshot.doubles[i] = slice(buf, snapshot.rowCount * 8).asDoubleBuffer();
+                    snapshot.chunkMins[i] = new Number[chunks];
+                    snapshot.chunkMaxs[i] = new Number[chunks];
+                    for (int c = 0; c < chunks; c++) {
+                        snapshot.chunkMins[i][c] = buf.getDouble();
+                        snapshot.chunkMaxs[i][c] = buf.getDouble();
+                    }
+
+                } else {
+
+                    String[] dictionary = new String[buf.getInt()];
+                    for (int d = 0; d < dictionary.length; d++) {
+                        dictionary[d] = readString(buf);
+                    }
+                    snapshot.dictionaries[i] = dictionary;
+                    snapshot.codes[i] = slice(buf, snapshot.rowCount * 4).asIntBuffer();
+
+                }
+
+            }
+
+            return snapshot;
+
+        } catch (IOException e) {
+
+            // An unreadable snapshot is simply rebuilt.
+            return null;
+
+        } catch (RuntimeException e) {
+
+            // A truncated or corrupt snapshot is rebuilt as well.
+            return null;
+
+        } finally {
+
+            // The mapping stays valid once the channel is closed.
+            IOUtils.closeQuietly(raf);
+
+        }
+
+    }
+
+    /**
+     * Write the snapshot, the file is first written to a temporary file and
+     * then renamed so that a concurrent reader never sees a partial snapshot
+     *
+     * @param _snapshotFile the snapshot file
+     * @param _source the CSV file the snapshot has been built from
+     * @param _sourceLength the length of the CSV file when it was read
+     * @param _sourceLastModified the modification time of the CSV file when it
+     * was read
+     * @param _options the options used to parse the CSV file
+     * @throws IOException
+     */
+    public void write(final File _snapshotFile, final long _sourceLength, final long _sourceLastModified,
+            final CsvOptions _options) throws IOException {
+
+        File parent = _snapshotFile.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create the snapshot directory: " + parent);
+        }
+
+        File tmp = File.createTempFile(_snapshotFile.getName(), ".tmp", parent);
+        DataOutputStream out = null;
+
+        try {
+
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 65536));
+
+            out.writeLong(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(_sourceLength);
+            out.writeLong(_sourceLastModified);
+            out.writeChar(_options.getSeparator());
+            out.writeChar(_options.getQuote());
+            out.writeInt(_options.getFirstLine());
+
+            out.writeInt(properties.length);
+            for (String property : properties) {
+                writeString(out, property);
+            }
+            for (String type : types) {
+                writeString(out, type);
+            }
+
+            out.writeInt(rowCount);
+            out.writeInt(chunkSize);
+
+            int chunks = getChunkCount();
+
+            for (int i = 0; i < properties.length; i++) {
+
+                out.writeByte(kinds[i]);
+
+                if (kinds[i] == KIND_LONG) {
+
+                    for (int r = 0; r < rowCount; r++) {
+                        out.writeLong(longs[i].get(r));
+                    }
+                    for (int c = 0; c < chunks; c++) {
+                        out.writeLong(chunkMins[i][c].longValue());
+                        out.writeLong(chunkMaxs[i][c].longValue());
+                    }
+
+                } else if (kinds[i] == KIND_DOUBLE) {
+
+                    for (int r = 0; r < rowCount; r++) {
+                        out.writeDouble(doubles[i].get(r));
+                    }
+                    for (int c = 0; c < chunks; c++) {
+                        out.writeDouble(chunkMins[i][c].doubleValue());
+                        out.writeDouble(chunkMaxs[i][c].doubleValue());
+                    }
+
+                } else {
+
+                    out.writeInt(dictionaries[i].length);
+                    for (String value : dictionaries[i]) {
+                        writeString(out, value);
+                    }
+                    for (int r = 0; r < rowCount; r++) {
+                        out.writeInt(codes[i].get(r));
+                    }
+
+                }
+
+            }
+
+            out.close();
+            out = null;
+
+            if (_snapshotFile.exists() && !_snapshotFile.delete()) {
+                throw new IOException("Unable to replace the snapshot: " + _snapshotFile);
+            }
+
+            if (!tmp.renameTo(_snapshotFile)) {
+                throw new IOException("Unable to rename: " + tmp + " to: " + _snapshotFile);
+            }
+
+        } finally {
+
+            IOUtils.closeQuietly(out);
+            if (tmp.exists()) {
+                tmp.delete();
+            }
+
+        }
+
+    }
+
+    /**
+     * Check that the snapshot can still be used, the converters or the row
+     * class may have changed since it was written. The type of every property
+     * must be the same: an <code>int</code> property cannot be read from a
+     * column written for a <code>long</code> one.
+     *
+     * @param _types the types of the properties the columns are mapped to
+     * @param _converters the converters defined for the table
+     * @return true if the snapshot can be used to create the java objects
+     */
+    public boolean isCompatible(final Class<?>[] _types, final Map<Class<?>, StringConverter<?>> _converters) {
+
+        for (int i = 0; i < kinds.length; i++) {
+            if (!types[i].equals(getTypeName(_types[i]))) {
+                return false;
+            }
+            if (kinds[i] != KIND_STRING && kinds[i] != getColumnKind(_types[i], _converters)) {
+                return false;
+            }
+        }
+
+        return true;
+
+    }
+
+    private static String getTypeName(final Class<?> _type) {
+
+        // A column that is not mapped to a property has no type.
+        return _type == null ? "" : _type.getName();
+
+    }
+
+    /**
+     * @return the properties the columns are mapped to
+     */
+    public String[] getProperties() {
+
+        return properties.clone();
+
+    }
+
+    /**
+     * @return the number of columns
+     */
+    public int getColumnCount() {
+
+        return properties.length;
+
+    }
+
+    /**
+     * @return the number of rows
+     */
+    public int getRowCount() {
+
+        return rowCount;
+
+    }
+
+    /**
+     * @return the number of rows covered by each chunk statistic
+     */
+    public int getChunkSize() {
+
+        return chunkSize;
+
+    }
+
+    /**
+     * @return the number of chunks
+     */
+    public int getChunkCount() {
+
+        return (rowCount + chunkSize - 1) / chunkSize;
+
+    }
+
+    /**
+     * @param _column the column index
+     * @return the kind of the column
+     */
+    public byte getColumnKind(final int _column) {
+
+        return kinds[_column];
+
+    }
+
+    /**
+     * @param _column the column index
+     * @return the distinct values of a string column, indexed by their code
+     */
+    public String[] getDictionary(final int _column) {
+
+        return dictionaries[_column];
+
+    }
+
+    /**
+     * @param _column the index of a string column
+     * @param _row the row index
+     * @return the dictionary code of the cell, or -1 if the row has no such
+     * cell
+     */
+    public int getCode(final int _column, final int _row) {
+
+        return codes[_column].get(_row);
+
+    }
+
+    /**
+     * @param _column the column index
+     * @param _row the row index
+     * @return true if the row has a cell for this column
+     */
+    public boolean hasValue(final int _column, final int _row) {
+
+        return kinds[_column] != KIND_STRING || codes[_column].get(_row) != MISSING_CELL;
+
+    }
+
+    /**
+     * @param _column the index of a string column
+     * @param _row the row index
+     * @return the raw value of the cell
+     */
+    public String getString(final int _column, final int _row) {
+
+        int code = codes[_column].get(_row);
+        return code == MISSING_CELL ? null : dictionaries[_column][code];
+
+    }
+
+    /**
+     * @param _column the index of a {@link #KIND_LONG} column
+     * @param _row the row index
+     * @return the value of the cell
+     */
+    public long getLong(final int _column, final int _row) {
+
+        return longs[_column].get(_row);
+
+    }
+
+    /**
+     * @param _column the index of a {@link #KIND_DOUBLE} column
+     * @param _row the row index
+     * @return the value of the cell
+     */
+    public double getDouble(final int _column, final int _row) {
+
+        return doubles[_column].get(_row);
+
+    }
+
+    /**
+     * Get the value of a typed cell boxed to the type of the property it is
+     * mapped to
+     *
+     * @param _column the index of a typed column
+     * @param _row the row index
+     * @param _type the property type
+     * @return the boxed value
+     */
+    public Object getTypedValue(final int _column, final int _row, final Class<?> _type) {
+
+        if (kinds[_column] == KIND_LONG) {
+
+            long v = longs[_column].get(_row);
+
+            if (_type == Integer.TYPE || _type == Integer.class) {
+                return Integer.valueOf((int) v);
+            }
+            if (_type == Short.TYPE || _type == Short.class) {
+                return Short.valueOf((short) v);
+            }
+            if (_type == Byte.TYPE || _type == Byte.class) {
+                return Byte.valueOf((byte) v);
+            }
+            return Long.valueOf(v);
+
+        }
+
+        double v = doubles[_column].get(_row);
+
+        if (_type == Float.TYPE || _type == Float.class) {
+            return Float.valueOf((float) v);
+        }
+        return Double.valueOf(v);
+
+    }
+
+    /**
+     * @param _column the index of a typed column
+     * @param _chunk the chunk index
+     * @return the smallest value of the column in the chunk
+     */
+    public Number getChunkMinimum(final int _column, final int _chunk) {
+
+        return chunkMins[_column][_chunk];
+
+    }
+
+    /**
+     * @param _column the index of a typed column
+     * @param _chunk the chunk index
+     * @return the largest value of the column in the chunk
+     */
+    public Number getChunkMaximum(final int _column, final int _chunk) {
+
+        return chunkMaxs[_column][_chunk];
+
+    }
+
+    private static ByteBuffer slice(final ByteBuffer _buf, final int _length) {
+
+        ByteBuffer slice = _buf.slice();
+        slice.limit(_length);
+        _buf.position(_buf.position() + _length);
+        return slice;
+
+    }
+
+    private static String readString(final ByteBuffer _buf) {
+
+        byte[] bytes = new byte[_buf.getInt()];
+        _buf.get(bytes);
+        return new String(bytes, Charsets.UTF_8);
+
+    }
+
+    private static void writeString(final DataOutputStream _out, final String _value) throws IOException {
+
+        byte[] bytes = _value.getBytes(Charsets.UTF_8);
+        _out.writeInt(bytes.length);
+        _out.write(bytes);
+
+    }
+
+    /**
+     * Collects the cells of a CSV file while it is parsed and builds the
+     * snapshot once every line has been added.
+     */
+    public static class Builder {
+
+        private String[] properties;
+        private Class<?>[] types;
+        private byte[] kinds;
+        private int chunkSize;
+        private int rowCount;
+        private int[][] codes;
+        private long[][] longs;
+        private double[][] doubles;
+        private Map<String, Integer>[] dictionaries;
+
+        /**
+         * @param _properties the properties the columns are mapped to
+         * @param _types the types of the properties, used to choose the
+         * typed columns
+         * @param _converters the converters defined for the table
+         */
+        @SuppressWarnings("unchecked")
+        public Builder(final String[] _properties, final Class<?>[] _types,
+                final Map<Class<?>, StringConverter<?>> _converters) {
+
+            properties = _properties;
+            types = _types;
+            chunkSize = DEFAULT_CHUNK_SIZE;
+            kinds = new byte[_properties.length];
+            codes = new int[_properties.length][];
+            longs = new long[_properties.length][];
+            doubles = new double[_properties.length][];
+            dictionaries = new Map[_properties.length];
+
+            for (int i = 0; i < _properties.length; i++) {
+
+                kinds[i] = getColumnKind(_types[i], _converters);
+
+                // Only the string columns are dictionary encoded, a typed
+                // column gets its dictionary when a bad cell demotes it.
+                if (kinds[i] == KIND_LONG) {
+                    longs[i] = new long[1024];
+                } else if (kinds[i] == KIND_DOUBLE) {
+                    doubles[i] = new double[1024];
+                } else {
+                    codes[i] = new int[1024];
+                    dictionaries[i] = Maps.newHashMap();
+                }
+
+            }
+
+        }
+
+        /**
+         * Add the cells of a line of the CSV file
+         *
+         * @param _line the cells
+         */
+        public void addRow(final String[] _line) {
+
+            for (int i = 0; i < properties.length; i++) {
+
+                String value = i < _line.length ? _line[i] : null;
+
+                if (kinds[i] == KIND_LONG) {
+                    addLong(i, value);
+                } else if (kinds[i] == KIND_DOUBLE) {
+                    addDouble(i, value);
+                }
+
+                // The column may just have been demoted.
+                if (kinds[i] == KIND_STRING) {
+                    addCode(i, value);
+                }
+
+            }
+
+            rowCount++;
+
+        }
+
+        private void addCode(final int _column, final String _value) {
+
+            if (rowCount == codes[_column].length) {
+                codes[_column] = Arrays.copyOf(codes[_column], rowCount * 2);
+            }
+
+            codes[_column][rowCount] = encode(_column, _value);
+
+        }
+
+        private int encode(final int _column, final String _value) {
+
+            if (_value == null) {
+                return MISSING_CELL;
+            }
+
+            Map<String, Integer> dictionary = dictionaries[_column];
+            Integer code = dictionary.get(_value);
+
+            if (code == null) {
+                code = dictionary.size();
+                dictionary.put(_value, code);
+            }
+
+            return code;
+
+        }
+
+        private void addLong(final int _column, final String _value) {
+
+            if (rowCount == longs[_column].length) {
+                longs[_column] = Arrays.copyOf(longs[_column], rowCount * 2);
+            }
+
+            try {
+
+                // Use the same parsing as the property editors so that a
+                // typed cell always gives the same value as a parsed one.
+                Class<?> type = types[_column];
+                String v = _value.trim();
+
+                if (type == Integer.TYPE || type == Integer.class) {
+                    longs[_column][rowCount] = Integer.decode(v);
+                } else if (type == Short.TYPE || type == Short.class) {
+                    longs[_column][rowCount] = Short.decode(v);
+                } else if (type == Byte.TYPE || type == Byte.class) {
+                    longs[_column][rowCount] = Byte.decode(v);
+                } else {
+                    longs[_column][rowCount] = Long.decode(v);
+                }
+
+            } catch (RuntimeException e) {
+
+                demote(_column);
+
+            }
+
+        }
+
+        private void addDouble(final int _column, final String _value) {
+
+            if (rowCount == doubles[_column].length) {
+                doubles[_column] = Arrays.copyOf(doubles[_column], rowCount * 2);
+            }
+
+            try {
+
+                Class<?> type = types[_column];
+                String v = _value.trim();
+
+                if (type == Float.TYPE || type == Float.class) {
+                    doubles[_column][rowCount] = Float.valueOf(v);
+                } else {
+                    doubles[_column][rowCount] = Double.valueOf(v);
+                }
+
+            } catch (RuntimeException e) {
+
+                demote(_column);
+
+            }
+
+        }
+
+        private void demote(final int _column) {
+
+            codes[_column] = new int[Math.max(1024, rowCount)];
+            dictionaries[_column] = Maps.newHashMap();
+
+            // The lines before all had a typed cell, written back as a string
+            // it is parsed to the same value.
+            for (int r = 0; r < rowCount; r++) {
+                String value = kinds[_column] == KIND_LONG
+                        ? String.valueOf(longs[_column][r]) : String.valueOf(doubles[_column][r]);
+                codes[_column][r] = encode(_column, value);
+            }
+
+            kinds[_column] = KIND_STRING;
+            longs[_column] = null;
+            doubles[_column] = null;
+
+        }
+
+        /**
+         * @return the snapshot of the lines added so far
+         */
+        public CsvSnapshot build() {
+
+            String[] typeNames = new String[types.length];
+            for (int i = 0; i < types.length; i++) {
+                typeNames[i] = getTypeName(types[i]);
+            }
+
+            CsvSnapshot snapshot = new CsvSnapshot(properties, typeNames, rowCount, chunkSize);
+            int chunks = snapshot.getChunkCount();
+
+            for (int i = 0; i < properties.length; i++) {
+
+                snapshot.kinds[i] = kinds[i];
+
+                if (kinds[i] == KIND_LONG) {
+
+                    long[] values = Arrays.copyOf(longs[i], rowCount);
+                    snapshot.longs[i] = LongBuffer.wrap(values);
+                    snapshot.chunkMins[i] = new Number[chunks];
+                    snapshot.chunkMaxs[i] = new Number[chunks];
+
+                    for (int c = 0; c < chunks; c++) {
+                        long min = Long.MAX_VALUE;
+                        long max = Long.MIN_VALUE;
+                        for (int r = c * chunkSize; r < Math.min(rowCount, (c + 1) * chunkSize); r++) {
+                            min = Math.min(min, values[r]);
+                            max = Math.max(max, values[r]);
+                        }
+                        snapshot.chunkMins[i][c] = min;
+                        snapshot.chunkMaxs[i][c] = max;
+                    }
+
+                } else if (kinds[i] == KIND_DOUBLE) {
+
+                    double[] values = Arrays.copyOf(doubles[i], rowCount);
+                    snapshot.doubles[i] = DoubleBuffer.wrap(values);
+                    snapshot.chunkMins[i] = new Number[chunks];
+                    snapshot.chunkMaxs[i] = new Number[chunks];
+
+                    for (int c = 0; c < chunks; c++) {
+                        double min = Double.POSITIVE_INFINITY;
+                        double max = Double.NEGATIVE_INFINITY;
+                        for (int r = c * chunkSize; r < Math.min(rowCount, (c + 1) * chunkSize); r++) {
+                            min = Math.min(min, values[r]);
+                            max = Math.max(max, values[r]);
+                        }
+                        snapshot.chunkMins[i][c] = min;
+                        snapshot.chunkMaxs[i][c] = max;
+                    }
+
+                } else {
+
+                    String[] dictionary = new String[dictionaries[i].size()];
+                    for (Map.Entry<String, Integer> entry : dictionaries[i].entrySet()) {
+                        dictionary[entry.getValue()] = entry.getKey();
+                    }
+                    snapshot.dictionaries[i] = dictionary;
+                    snapshot.codes[i] = IntBuffer.wrap(Arrays.copyOf(codes[i], rowCount));
+
+                }
+
+            }
+
+            return snapshot;
+
+        }
+
+    }
+
+}
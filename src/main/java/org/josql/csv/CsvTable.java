@@ -1,8 +1,10 @@
 package org.josql.csv;
 
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.opencsv.CSVReader;
 import com.opencsv.bean.ColumnPositionMappingStrategy;
+import java.beans.IntrospectionException;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
@@ -10,7 +12,10 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import org.apache.commons.io.IOUtils;
+import org.josql.Query;
+import org.josql.QueryPlanCache;
 import org.josql.exceptions.CsvMappingNotFoundException;
 import org.josql.exceptions.QueryParseException;
 import org.josql.utils.Timer;
@@ -24,6 +29,16 @@ public class CsvTable {
     private List<String> columnMapping;
     private CsvOptions options;
     private ClassLoader classLoader;
+    private boolean snapshotEnabled;
+    private File cacheDirectory;
+    private CsvSnapshot snapshot;
+    private boolean snapshotLoaded;
+    private boolean rowIndexEnabled;
+    private int rowIndexInterval = CsvRowIndex.DEFAULT_INTERVAL;
+    private CsvRowIndex rowIndex;
+    private CsvDictionary dictionary;
+    private Set<String> dictionaryColumns;
+    private boolean queryCacheEnabled;
 
     private Timer readTimer;
 
@@ -34,6 +49,7 @@ public class CsvTable {
         converters = Maps.newHashMap();
         columnMapping = Collections.emptyList();
         options = new CsvOptions();
+        dictionaryColumns = Collections.emptySet();
 
     }
 
@@ -137,6 +153,152 @@ public class CsvTable {
 
     }
 
+    /**
+     * Enable the binary snapshot of the CSV file. Once the file has been
+     * parsed its cells are written to a columnar snapshot, the following reads
+     * load the snapshot instead of parsing the file as long as its size and
+     * last modification time are unchanged.
+     *
+     * @param _enabled true to use a snapshot
+     */
+    public void setSnapshotEnabled(final boolean _enabled) {
+
+        snapshotEnabled = _enabled;
+
+    }
+
+    /**
+     * Defines the directory the snapshots and row indexes are written to, by
+     * default they are written next to the CSV file
+     *
+     * @param _directory the cache directory
+     */
+    public void setCacheDirectory(final File _directory) {
+
+        cacheDirectory = _directory;
+
+    }
+
+    /**
+     * Enable the row index of the CSV file. The file is then no longer parsed
+     * by {@link #read(String...)}, only the byte offset of every Nth record is
+     * stored and the java objects are created when the rows are accessed, so
+     * that paging through a huge file only parses the rows it touches. The
+     * snapshot takes precedence when both are enabled.
+     *
+     * @param _enabled true to use a row index
+     */
+    public void setRowIndexEnabled(final boolean _enabled) {
+
+        rowIndexEnabled = _enabled;
+
+    }
+
+    /**
+     * Defines the number of records between two offsets of the row index
+     *
+     * @param _interval the interval, also the number of rows read at once
+     */
+    public void setRowIndexInterval(final int _interval) {
+
+        rowIndexInterval = _interval;
+
+    }
+
+    /**
+     * Use the process wide {@link QueryPlanCache} for the queries of this
+     * table, a query text is then parsed once and its plan is reused by the
+     * following executions. A query with its own function handlers is always
+     * parsed.
+     *
+     * @param _enabled true to use the query plan cache
+     */
+    public void setQueryCacheEnabled(final boolean _enabled) {
+
+        queryCacheEnabled = _enabled;
+
+    }
+
+    /**
+     * @return true if the queries of this table use the query plan cache
+     */
+    public boolean isQueryCacheEnabled() {
+
+        return queryCacheEnabled;
+
+    }
+
+    /**
+     * Defines the properties whose string values are shared through the
+     * dictionary of the table, for the columns with few distinct values
+     * (status, country, host...). When the rows are loaded from a snapshot the
+     * values of these columns are converted once per distinct value, so the
+     * rows with the same value also share the converted objects.
+     *
+     * @param _properties the properties
+     */
+    public void setDictionaryColumns(final String... _properties) {
+
+        dictionaryColumns = Sets.newHashSet(_properties);
+
+        if (dictionary == null) {
+            dictionary = new CsvDictionary();
+        }
+
+    }
+
+    /**
+     * Defines the dictionary of the table, e.g. to bound its size or to share
+     * it between tables
+     *
+     * @param _dictionary the dictionary
+     */
+    public void setDictionary(final CsvDictionary _dictionary) {
+
+        dictionary = _dictionary;
+
+    }
+
+    /**
+     * @return the dictionary of the table, null if no dictionary column has
+     * been defined
+     */
+    public CsvDictionary getDictionary() {
+
+        return dictionary;
+
+    }
+
+    /**
+     * @return the row index used by the last read, null if the row index is
+     * not enabled
+     */
+    public CsvRowIndex getRowIndex() {
+
+        return rowIndex;
+
+    }
+
+    /**
+     * @return the snapshot used by the last read, null if snapshots are not
+     * enabled
+     */
+    public CsvSnapshot getSnapshot() {
+
+        return snapshot;
+
+    }
+
+    /**
+     * @return true if the last read loaded the snapshot instead of parsing the
+     * CSV file
+     */
+    public boolean isSnapshotLoaded() {
+
+        return snapshotLoaded;
+
+    }
+
     /**
      * Read the CSV file and convert each row into a java object
      *
@@ -170,16 +332,29 @@ public class CsvTable {
         readTimer = new Timer("time to read the file", null);
         readTimer.start();
 
-        JoCsvToBean csv = new JoCsvToBean(converters);
+        snapshot = null;
+        snapshotLoaded = false;
+        rowIndex = null;
+
+        JoCsvToBean csv = createCsvToBean();
+
+        ColumnPositionMappingStrategy strat = new ColumnPositionMappingStrategy();
+        strat.setColumnMapping(_properties);
+        strat.setType(pojoClass);
 
         FileReader fileReader = null;
         try {
+            if (snapshotEnabled) {
+                objects = readWithSnapshot(csv, strat, _properties);
+                return getObjects();
+            }
+            if (rowIndexEnabled) {
+                objects = readWithRowIndex(csv, strat);
+                return getObjects();
+            }
             fileReader = new FileReader(file);
             CSVReader csvReader = new CSVReader(fileReader, options.getSeparator(),
                     options.getQuote(), options.getFirstLine());
-            ColumnPositionMappingStrategy strat = new ColumnPositionMappingStrategy();
-            strat.setColumnMapping(_properties);
-            strat.setType(pojoClass);
             objects = csv.parse(strat, csvReader);
         } finally {
             IOUtils.closeQuietly(fileReader);
@@ -189,13 +364,103 @@ public class CsvTable {
         return getObjects();
     }
 
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private List<Object> readWithSnapshot(final JoCsvToBean _csv, final ColumnPositionMappingStrategy _strat,
+            final String[] _properties) throws IOException {
+
+        Class<?>[] types;
+
+        try {
+            types = _csv.getPropertyTypes(_strat, _properties.length);
+        } catch (IntrospectionException e) {
+            throw new IOException("Unable to introspect: " + pojoClass.getName(), e);
+        }
+
+        File snapshotFile = CsvSnapshot.getSnapshotFile(file, cacheDirectory);
+
+        snapshot = CsvSnapshot.load(snapshotFile, file, _properties, options);
+
+        if (snapshot != null && snapshot.isCompatible(types, converters)) {
+            snapshotLoaded = true;
+            return _csv.parse(_strat, snapshot);
+        }
+
+        // Get these before reading, a file modified meanwhile will then be
+        // seen as out of date on the next read.
+        long length = file.length();
+        long lastModified = file.lastModified();
+
+        CsvSnapshot.Builder builder = new CsvSnapshot.Builder(_properties, types, converters);
+        List<Object> list;
+
+        FileReader fileReader = null;
+        try {
+            fileReader = new FileReader(file);
+            CSVReader csvReader = new CSVReader(fileReader, options.getSeparator(),
+                    options.getQuote(), options.getFirstLine());
+            list = _csv.parse(_strat, csvReader, builder);
+        } finally {
+            IOUtils.closeQuietly(fileReader);
+        }
+
+        snapshot = builder.build();
+
+        try {
+            snapshot.write(snapshotFile, length, lastModified, options);
+        } catch (IOException e) {
+            // The snapshot is only a cache, the objects have been read anyway.
+        }
+
+        return list;
+
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private List<Object> readWithRowIndex(final JoCsvToBean _csv, final ColumnPositionMappingStrategy _strat)
+            throws IOException {
+
+        File indexFile = CsvRowIndex.getIndexFile(file, cacheDirectory);
+
+        rowIndex = CsvRowIndex.load(indexFile, file, options, rowIndexInterval);
+
+        if (rowIndex == null) {
+
+            long length = file.length();
+            long lastModified = file.lastModified();
+
+            rowIndex = CsvRowIndex.build(file, options, rowIndexInterval);
+
+            try {
+                rowIndex.write(indexFile, length, lastModified, options);
+            } catch (IOException e) {
+                // The index is only a cache, it is rebuilt on the next read.
+            }
+
+        }
+
+        return new CsvRowList(file, options, rowIndex, _csv, _strat);
+
+    }
+
+    private JoCsvToBean createCsvToBean() {
+
+        JoCsvToBean csv = new JoCsvToBean(converters);
+
+        if (dictionary != null && !dictionaryColumns.isEmpty()) {
+            csv.setDictionary(dictionary, dictionaryColumns);
+        }
+
+        return csv;
+
+    }
+
     /**
      * @return the objects that has been created from the CSV file
      */
     public List<Object> getObjects() {
         if (objects == null) {
             objects = Collections.emptyList();
-        } else {
+        } else if (!(objects instanceof CsvRowList)) {
             final Iterator<Object> iterator = objects.iterator();
             while (iterator.hasNext()) {
                 if (iterator.next() == null) {
@@ -206,6 +471,16 @@ public class CsvTable {
         return Collections.unmodifiableList(objects);
     }
 
+    /**
+     * @return the lazily created rows of the file when it is read with a row index,
+     *         null otherwise
+     */
+    CsvRowList getRowList() {
+
+        return objects instanceof CsvRowList ? (CsvRowList) objects : null;
+
+    }
+
     /**
      * @return time took for reading the CSV file (in seconds)
      */
@@ -232,4 +507,52 @@ public class CsvTable {
 
     }
 
+    /**
+     * Create a follower that runs a standing query on the rows appended to the
+     * CSV file
+     *
+     * @param _sql the SQL query string
+     * @return the follower, not started
+     * @throws CsvMappingNotFoundException
+     * @throws QueryParseException
+     */
+    public CsvTableFollower follow(final String _sql) throws CsvMappingNotFoundException, QueryParseException {
+
+        if (columnMapping.size() < 1) {
+
+            throw new CsvMappingNotFoundException();
+
+        }
+
+        return follow(_sql, columnMapping.toArray(new String[columnMapping.size()]));
+
+    }
+
+    /**
+     * Create a follower that runs a standing query on the rows appended to the
+     * CSV file
+     *
+     * @param _sql the SQL query string
+     * @param _properties properties of the java class in the same order that
+     * they appear in the CSV file
+     * @return the follower, not started
+     * @throws QueryParseException
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public CsvTableFollower follow(final String _sql, final String... _properties) throws QueryParseException {
+
+        ColumnPositionMappingStrategy strat = new ColumnPositionMappingStrategy();
+        strat.setColumnMapping(_properties);
+        strat.setType(pojoClass);
+
+        Query query = new Query();
+        if (classLoader != null) {
+            query.setClassLoader(classLoader);
+        }
+        query.parse(_sql);
+
+        return new CsvTableFollower(file, options, createCsvToBean(), strat, query);
+
+    }
+
 }
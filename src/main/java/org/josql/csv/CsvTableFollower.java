@@ -0,0 +1,305 @@
+package org.josql.csv;
+
+import com.gentlyweb.utils.FileChangeEvent;
+import com.gentlyweb.utils.FileChangeListener;
+import com.gentlyweb.utils.FileWatcher;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.opencsv.CSVReader;
+import com.opencsv.bean.MappingStrategy;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.josql.Query;
+import org.josql.Result;
+import org.josql.exceptions.QueryExecutionException;
+
+/**
+ * Follows a CSV file that rows are appended to, like <code>tail -f</code>, and
+ * runs a standing query on the new rows only. The file is read from the offset
+ * reached by the previous poll and only the completely written records are
+ * consumed, a partially written last line is read again on the next poll.
+ * <p>
+ * When the query has a GROUP BY clause the matching rows of each group are
+ * kept, so that the aggregates of the groups touched by the new rows can be
+ * computed again without reading the whole file. The other groups are left
+ * out of the notified results.
+ * <p>
+ * A file that becomes shorter than the offset (truncated or rotated) is read
+ * again from the start.
+ */
+public class CsvTableFollower implements FileChangeListener {
+
+    public static final long DEFAULT_CHECK_INTERVAL = 1000;
+
+    private File file;
+    private CsvOptions options;
+    private JoCsvToBean csv;
+    private MappingStrategy<Object> strategy;
+    private Query query;
+    private long offset;
+    private boolean started;
+    private Map<List<?>, List<Object>> groups;
+    private List<CsvFollowListener> listeners;
+    private FileWatcher watcher;
+
+    /**
+     * @param _file the CSV file
+     * @param _options the options used to parse the CSV file
+     * @param _csv the bean creator
+     * @param _strategy the mapping strategy
+     * @param _query the parsed standing query
+     */
+    public CsvTableFollower(final File _file, final CsvOptions _options, final JoCsvToBean _csv,
+            final MappingStrategy<Object> _strategy, final Query _query) {
+
+        file = _file;
+        options = _options;
+        csv = _csv;
+        strategy = _strategy;
+        query = _query;
+        groups = Maps.newLinkedHashMap();
+        listeners = new CopyOnWriteArrayList<CsvFollowListener>();
+
+    }
+
+    /**
+     * @param _listener the listener to notify of the new results
+     */
+    public void addListener(final CsvFollowListener _listener) {
+
+        listeners.add(_listener);
+
+    }
+
+    /**
+     * @param _listener the listener to remove
+     */
+    public void removeListener(final CsvFollowListener _listener) {
+
+        listeners.remove(_listener);
+
+    }
+
+    /**
+     * @return the standing query
+     */
+    public Query getQuery() {
+
+        return query;
+
+    }
+
+    /**
+     * @return the position in the file up to which the rows have been read
+     */
+    public synchronized long getOffset() {
+
+        return offset;
+
+    }
+
+    /**
+     * Read the rows appended since the last poll and run the query on them.
+     * The listeners are notified when there are results.
+     *
+     * @return the new results, empty if no row has been appended or if no new
+     * row matches the query
+     * @throws IOException
+     * @throws QueryExecutionException
+     */
+    public synchronized List<Result> poll() throws IOException, QueryExecutionException {
+
+        if (file.length() < offset) {
+            offset = 0;
+            started = false;
+            groups.clear();
+        }
+
+        long start = offset;
+        long end = offset;
+        int count = 0;
+
+        FileInputStream in = null;
+
+        try {
+
+            in = new FileInputStream(file);
+            in.getChannel().position(offset);
+
+            CsvRecordScanner scanner = new CsvRecordScanner(new BufferedInputStream(in, 65536),
+                    options.getQuote(), offset);
+
+            if (!started) {
+
+                // The first lines are skipped as plain lines by the CSV reader.
+                if (!scanner.skipLines(options.getFirstLine())) {
+                    return Collections.emptyList();
+                }
+
+                start = scanner.getPosition();
+                end = start;
+                started = true;
+
+            }
+
+            while (scanner.nextRecord() && scanner.isTerminated()) {
+                end = scanner.getPosition();
+                count++;
+            }
+
+        } finally {
+
+            IOUtils.closeQuietly(in);
+
+        }
+
+        offset = end;
+
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+
+        List<Result> results = execute(readRows(start, end, count));
+
+        if (!results.isEmpty()) {
+            for (CsvFollowListener listener : listeners) {
+                listener.resultsChanged(this, results);
+            }
+        }
+
+        return results;
+
+    }
+
+    private List<Object> readRows(final long _start, final long _end, final int _count) throws IOException {
+
+        FileInputStream in = null;
+
+        try {
+
+            in = new FileInputStream(file);
+            in.getChannel().position(_start);
+
+            CSVReader reader = new CSVReader(new InputStreamReader(new BoundedInputStream(in, _end - _start)),
+                    options.getSeparator(), options.getQuote(), 0);
+
+            List<Object> rows = csv.parse(strategy, reader, 0, _count);
+            rows.removeAll(Collections.singleton(null));
+            return rows;
+
+        } finally {
+
+            IOUtils.closeQuietly(in);
+
+        }
+
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private List<Result> execute(final List<Object> _rows) throws QueryExecutionException {
+
+        if (query.getGrouper() == null) {
+            return query.execute(_rows).asList();
+        }
+
+        List<Object> matched = Lists.newArrayList();
+
+        query.setAllObjects(_rows);
+
+        for (Object row : _rows) {
+            query.setCurrentObject(row);
+            if (query.isWhereTrue(row)) {
+                matched.add(row);
+            }
+        }
+
+        if (matched.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        query.setAllObjects(matched);
+
+        Map<List<?>, List<Object>> touched = query.getGrouper().group(matched);
+        List<Object> members = Lists.newArrayList();
+
+        for (Map.Entry<List<?>, List<Object>> entry : touched.entrySet()) {
+
+            List<Object> group = groups.get(entry.getKey());
+
+            if (group == null) {
+                group = Lists.newArrayList();
+                groups.put(entry.getKey(), group);
+            }
+
+            group.addAll(entry.getValue());
+            members.addAll(group);
+
+        }
+
+        return query.execute(members).asList();
+
+    }
+
+    /**
+     * Poll the file once and then watch it for changes
+     *
+     * @param _interval the time between two checks of the file, in ms
+     * @throws IOException
+     * @throws QueryExecutionException
+     */
+    public synchronized void start(final long _interval) throws IOException, QueryExecutionException {
+
+        if (watcher != null) {
+            return;
+        }
+
+        poll();
+
+        watcher = new FileWatcher();
+        watcher.addFile(file);
+        watcher.setCheckRepeatTime(_interval);
+        watcher.addFileChangeListener(this, FileChangeEvent.MODIFIED | FileChangeEvent.LENGTH_CHANGED
+                | FileChangeEvent.EXISTS);
+        watcher.start();
+
+    }
+
+    /**
+     * Stop watching the file
+     */
+    public synchronized void stop() {
+
+        if (watcher != null) {
+            watcher.stop();
+            watcher = null;
+        }
+
+    }
+
+    @Override
+    public void fileChanged(final FileChangeEvent _event, final int _types) {
+
+        try {
+
+            poll();
+
+        } catch (Exception e) {
+
+            for (CsvFollowListener listener : listeners) {
+                listener.followFailed(this, e);
+            }
+
+        }
+
+    }
+
+}
@@ -2,6 +2,7 @@ package org.josql.csv;
 
 import java.util.List;
 import org.josql.Query;
+import org.josql.QueryPlanCache;
 import org.josql.Result;
 import org.josql.exceptions.QueryExecutionException;
 import org.josql.exceptions.QueryParseException;
@@ -92,15 +93,50 @@ public class CsvTableQuery {
 
         }
 
+        if (table.isQueryCacheEnabled() && !query.parsed() && query.getFunctionHandlers() == null
+                && query.getFunctionRegistry() == null) {
+
+            QueryPlanCache cache = QueryPlanCache.getInstance();
+            Query plan = cache.acquire(sql, null, query.getClassLoader());
+
+            try {
+                return execute(plan);
+            } finally {
+                cache.release(plan);
+            }
+
+        }
+
         if (!query.parsed()) {
 
             parse();
 
         }
 
+        return execute(query);
+
+    }
+
+    private List<Result> execute(final Query _query) throws QueryExecutionException {
+
         final List<Object> objects = table.getObjects();
+        final CsvRowList rows = table.getRowList();
+
+        if (rows != null) {
+
+            // The rows are created lazily, a copy of the list would parse the
+            // whole file whereas an unfiltered LIMIT only touches its range.
+            rows.startExecution();
+
+            try {
+                return _query.executeReadOnly(objects).asList();
+            } finally {
+                rows.endExecution();
+            }
+
+        }
 
-        return query.execute(objects).asList();
+        return _query.execute(objects).asList();
 
     }
 
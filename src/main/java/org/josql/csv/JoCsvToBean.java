@@ -1,29 +1,396 @@
 package org.josql.csv;
 
+import com.google.common.collect.Lists;
+import com.opencsv.CSVReader;
 import com.opencsv.bean.CsvToBean;
+import com.opencsv.bean.MappingStrategy;
+import java.beans.IntrospectionException;
 import java.beans.PropertyDescriptor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class JoCsvToBean extends CsvToBean<Object> {
 
+    private static final int KIND_EDITOR = 0;
+    private static final int KIND_CONVERTER = 1;
+    private static final int KIND_STRING = 2;
+    private static final int KIND_INT = 3;
+    private static final int KIND_LONG = 4;
+    private static final int KIND_DOUBLE = 5;
+    private static final int KIND_FLOAT = 6;
+    private static final int KIND_SHORT = 7;
+    private static final int KIND_BYTE = 8;
+    private static final int KIND_BOOLEAN = 9;
+
     private Map<Class<?>, StringConverter<?>> converters;
+    private CsvDictionary dictionary;
+    private Set<String> dictionaryProperties;
+    private MappingStrategy<Object> planStrategy;
+    private Column[] plan = new Column[0];
 
     public JoCsvToBean(final Map<Class<?>, StringConverter<?>> _converters) {
 
         converters = _converters;
+        dictionaryProperties = Collections.emptySet();
+
+    }
+
+    /**
+     * Share the string values of some properties through a dictionary
+     *
+     * @param _dictionary the dictionary
+     * @param _properties the properties whose values are shared
+     */
+    public void setDictionary(final CsvDictionary _dictionary, final Set<String> _properties) {
+
+        dictionary = _dictionary;
+        dictionaryProperties = _properties;
+        planStrategy = null;
+
+    }
+
+    /**
+     * Parse the CSV file and record each line in a snapshot builder
+     *
+     * @param _strategy the mapping strategy
+     * @param _reader the CSV reader
+     * @param _builder the snapshot builder the lines are added to
+     * @return the java objects
+     */
+    public List<Object> parse(final MappingStrategy<Object> _strategy, final CSVReader _reader,
+            final CsvSnapshot.Builder _builder) {
+
+        try {
+
+            _strategy.captureHeader(_reader);
+
+            List<Object> list = Lists.newArrayList();
+            String[] line;
+
+            while ((line = _reader.readNext()) != null) {
+                _builder.addRow(line);
+                list.add(processLine(_strategy, line));
+            }
+
+            return list;
+
+        } catch (Exception e) {
+
+            throw new RuntimeException("Error parsing CSV!", e);
+
+        }
+
+    }
+
+    /**
+     * Parse a range of lines of the CSV file
+     *
+     * @param _strategy the mapping strategy
+     * @param _reader the CSV reader, positioned on the first line to skip
+     * @param _skip the number of lines to skip
+     * @param _count the maximum number of lines to parse
+     * @return the java objects
+     */
+    public List<Object> parse(final MappingStrategy<Object> _strategy, final CSVReader _reader,
+            final int _skip, final int _count) {
+
+        try {
+
+            for (int i = 0; i < _skip; i++) {
+                if (_reader.readNext() == null) {
+                    return Lists.newArrayList();
+                }
+            }
+
+            List<Object> list = Lists.newArrayListWithCapacity(_count);
+            String[] line;
+
+            while (list.size() < _count && (line = _reader.readNext()) != null) {
+                list.add(processLine(_strategy, line));
+            }
+
+            return list;
+
+        } catch (Exception e) {
+
+            throw new RuntimeException("Error parsing CSV!", e);
+
+        }
+
+    }
+
+    /**
+     * Create the java objects from the snapshot of a CSV file
+     *
+     * @param _strategy the mapping strategy
+     * @param _snapshot the snapshot
+     * @return the java objects
+     */
+    public List<Object> parse(final MappingStrategy<Object> _strategy, final CsvSnapshot _snapshot) {
+
+        try {
+
+            int rows = _snapshot.getRowCount();
+            int cols = _snapshot.getColumnCount();
+            List<Object> list = Lists.newArrayListWithCapacity(rows);
+
+            Column[] columns = getPlan(_strategy, cols);
+
+            // The values of the dictionary columns are converted once per
+            // dictionary code instead of once per row.
+            Object[][] decoded = new Object[cols][];
+            for (int c = 0; c < cols; c++) {
+                if (columns[c] != null && columns[c].shared
+                        && _snapshot.getColumnKind(c) == CsvSnapshot.KIND_STRING) {
+                    decoded[c] = new Object[_snapshot.getDictionary(c).length];
+                }
+            }
+
+            for (int r = 0; r < rows; r++) {
+
+                Object bean = _strategy.createBean();
+
+                for (int c = 0; c < cols; c++) {
+
+                    Column column = columns[c];
+
+                    if (column == null || !_snapshot.hasValue(c, r)) {
+                        continue;
+                    }
+
+                    Object value;
+
+                    if (decoded[c] != null) {
+                        int code = _snapshot.getCode(c, r);
+                        value = decoded[c][code];
+                        if (value == null) {
+                            value = column.convert(_snapshot.getString(c, r));
+                            decoded[c][code] = value;
+                        }
+                    } else if (_snapshot.getColumnKind(c) == CsvSnapshot.KIND_STRING) {
+                        value = column.convert(_snapshot.getString(c, r));
+                    } else {
+                        value = _snapshot.getTypedValue(c, r, column.type);
+                    }
+
+                    column.setter.invoke(bean, value);
+
+                }
+
+                list.add(bean);
+
+            }
+
+            return list;
+
+        } catch (Exception e) {
+
+            throw new RuntimeException("Error reading CSV snapshot!", e);
+
+        }
+
+    }
+
+    /**
+     * Get the types of the properties the columns are mapped to
+     *
+     * @param _strategy the mapping strategy
+     * @param _columns the number of columns
+     * @return the property types, null for a column without property
+     * @throws IntrospectionException
+     */
+    public Class<?>[] getPropertyTypes(final MappingStrategy<Object> _strategy, final int _columns)
+            throws IntrospectionException {
+
+        Class<?>[] types = new Class<?>[_columns];
+
+        for (int i = 0; i < _columns; i++) {
+            PropertyDescriptor prop = _strategy.findDescriptor(i);
+            types[i] = prop != null ? prop.getPropertyType() : null;
+        }
+
+        return types;
+
+    }
+
+    /**
+     * Create the java object of a line with the conversion plan of the mapping
+     * strategy, built on the first line
+     */
+    @Override
+    protected Object processLine(final MappingStrategy<Object> _strategy, final String[] _line)
+            throws IllegalAccessException, InvocationTargetException, InstantiationException,
+            IntrospectionException {
+
+        Column[] columns = getPlan(_strategy, _line.length);
+        Object bean = _strategy.createBean();
+
+        for (int i = 0; i < _line.length; i++) {
+
+            Column column = columns[i];
+
+            if (column != null) {
+                column.setter.invoke(bean, column.convert(_line[i]));
+            }
+
+        }
+
+        return bean;
 
     }
 
     @Override
     protected Object convertValue(final String value, final PropertyDescriptor prop) throws InstantiationException, IllegalAccessException {
 
-        StringConverter<?> converter = converters.get(prop.getPropertyType());
+        return new Column(prop).convertTrimmed(value);
+
+    }
+
+    private Column[] getPlan(final MappingStrategy<Object> _strategy, final int _columns)
+            throws IntrospectionException {
+
+        if (_strategy != planStrategy) {
+            planStrategy = _strategy;
+            plan = new Column[0];
+        }
+
+        if (plan.length < _columns) {
+
+            Column[] columns = Arrays.copyOf(plan, _columns);
+
+            for (int i = plan.length; i < _columns; i++) {
+                PropertyDescriptor prop = _strategy.findDescriptor(i);
+                columns[i] = prop != null ? new Column(prop) : null;
+            }
+
+            plan = columns;
 
-        if (converter != null) {
-            return converter.convertValue(value);
         }
 
-        return super.convertValue(value, prop);
+        return plan;
+
+    }
+
+    /**
+     * The conversion of a column, resolved once: values are trimmed like in
+     * opencsv unless the property is a String, the registered converter comes
+     * first, then the common types are parsed directly, the property editor is
+     * only used for the other types.
+     */
+    private class Column {
+
+        private final Class<?> type;
+        private final Method setter;
+        private final PropertyDescriptor prop;
+        private final StringConverter<?> converter;
+        private final boolean trim;
+        private final boolean shared;
+        private final int kind;
+
+        Column(final PropertyDescriptor _prop) {
+
+            prop = _prop;
+            type = _prop.getPropertyType();
+            setter = _prop.getWriteMethod();
+            converter = converters.get(type);
+            trim = !type.getName().contains("String");
+            shared = isDictionaryProperty(_prop);
+
+            if (converter != null) {
+                kind = KIND_CONVERTER;
+            } else if (_prop.getPropertyEditorClass() != null) {
+                kind = KIND_EDITOR;
+            } else if (type == String.class) {
+                kind = KIND_STRING;
+            } else if (type == Integer.class || type == Integer.TYPE) {
+                kind = KIND_INT;
+            } else if (type == Long.class || type == Long.TYPE) {
+                kind = KIND_LONG;
+            } else if (type == Double.class || type == Double.TYPE) {
+                kind = KIND_DOUBLE;
+            } else if (type == Float.class || type == Float.TYPE) {
+                kind = KIND_FLOAT;
+            } else if (type == Short.class || type == Short.TYPE) {
+                kind = KIND_SHORT;
+            } else if (type == Byte.class || type == Byte.TYPE) {
+                kind = KIND_BYTE;
+            } else if (type == Boolean.class || type == Boolean.TYPE) {
+                kind = KIND_BOOLEAN;
+            } else {
+                kind = KIND_EDITOR;
+            }
+
+        }
+
+        Object convert(final String _value) throws InstantiationException, IllegalAccessException {
+
+            return convertTrimmed(trim && _value != null ? _value.trim() : _value);
+
+        }
+
+        Object convertTrimmed(final String _value) throws InstantiationException, IllegalAccessException {
+
+            if (_value == null && kind != KIND_CONVERTER && kind != KIND_EDITOR) {
+                return null;
+            }
+
+            switch (kind) {
+                case KIND_CONVERTER:
+                    return converter.convertValue(_value);
+                case KIND_STRING:
+                    return shared ? dictionary.intern(_value) : _value;
+                case KIND_INT:
+                    return Integer.decode(_value);
+                case KIND_LONG:
+                    return Long.decode(_value);
+                case KIND_DOUBLE:
+                    return Double.valueOf(_value);
+                case KIND_FLOAT:
+                    return Float.valueOf(_value);
+                case KIND_SHORT:
+                    return Short.decode(_value);
+                case KIND_BYTE:
+                    return Byte.decode(_value);
+                case KIND_BOOLEAN:
+                    return parseBoolean(_value);
+                default:
+                    Object value = JoCsvToBean.super.convertValue(_value, prop);
+                    if (shared && value instanceof String) {
+                        return dictionary.intern((String) value);
+                    }
+                    return value;
+            }
+
+        }
+
+    }
+
+    /**
+     * Parse a boolean like the property editor does
+     */
+    private static Boolean parseBoolean(final String _value) {
+
+        if ("true".equalsIgnoreCase(_value)) {
+            return Boolean.TRUE;
+        }
+
+        if ("false".equalsIgnoreCase(_value)) {
+            return Boolean.FALSE;
+        }
+
+        throw new IllegalArgumentException(_value);
+
+    }
+
+    private boolean isDictionaryProperty(final PropertyDescriptor _prop) {
+
+        return dictionary != null && dictionaryProperties.contains(_prop.getName());
+
     }
 
 }
@@ -6,11 +6,19 @@ import java.util.Date;
 
 public class SimpleDateConverter extends StringConverter<Date> {
 
-	private SimpleDateFormat formatter;
+	// SimpleDateFormat is not thread safe, each thread gets its own formatter.
+	private ThreadLocal<SimpleDateFormat> formatter;
 	
 	public SimpleDateConverter(final String pattern) {
 		
-		formatter = new SimpleDateFormat(pattern);
+		formatter = new ThreadLocal<SimpleDateFormat>() {
+			
+			@Override
+			protected SimpleDateFormat initialValue() {
+				return new SimpleDateFormat(pattern);
+			}
+			
+		};
 		
 	}
 	
@@ -19,7 +27,7 @@ public class SimpleDateConverter extends StringConverter<Date> {
 		
 		try {
 			
-			return formatter.parse(_value);
+			return formatter.get().parse(_value);
 			
 		} catch (ParseException e) {
 			
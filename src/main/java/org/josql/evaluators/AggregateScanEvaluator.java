@@ -0,0 +1,250 @@
+package org.josql.evaluators;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.josql.Query;
+import org.josql.QueryResults;
+import org.josql.exceptions.QueryExecutionException;
+import org.josql.expressions.AliasedExpression;
+import org.josql.expressions.Expression;
+import org.josql.expressions.SelectItemExpression;
+import org.josql.internal.ExpressionOptimizer;
+import org.josql.internal.RepeatedList;
+import org.josql.internal.RowValues;
+import org.josql.internal.StreamingAggregate;
+import org.josql.utils.Timer;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Evaluates a query whose columns and EXECUTE ON RESULTS functions only hold
+ * aggregates, such as: <code>SELECT sum(bytes), count(:_allobjs, dir) FROM java.io.File
+ * WHERE ...</code>, in a single scan of the objects.  The aggregates are folded in as
+ * each object matches the WHERE clause and the objects that match are not kept, the
+ * where results are then <code>null</code>.
+ * <p>
+ * The rows returned are the same as those of the usual evaluation: a row of the
+ * aggregate values per object that matches.  They are all the same row, it is only
+ * held once, see {@link RepeatedList}.
+ */
+public class AggregateScanEvaluator implements QueryEvaluator {
+
+	private List<Object> cols;
+	private StreamingAggregate[] colAggregates;
+	private List<AliasedExpression> executeOn;
+	private StreamingAggregate[] executeOnAggregates;
+
+	private AggregateScanEvaluator() {
+
+	}
+
+	/**
+	 * Get the evaluator for a query, the query must not have a GROUP BY clause.
+	 * @param _q The query.
+	 * @return The evaluator or null if the query has something else than aggregates
+	 *         to evaluate for the objects.
+	 */
+	public static AggregateScanEvaluator create(final Query _q) {
+
+		List<Object> cols = _q.getColumns();
+
+		if (_q.isWantObjects() || cols == null || cols.isEmpty()) {
+
+			return null;
+
+		}
+
+		AggregateScanEvaluator ev = new AggregateScanEvaluator();
+		ev.cols = cols;
+		ev.colAggregates = new StreamingAggregate[cols.size()];
+
+		boolean found = false;
+
+		for (int i = 0; i < cols.size(); i++) {
+
+			SelectItemExpression sei = (SelectItemExpression) cols.get(i);
+
+			if (sei.isAddItemsFromCollectionOrMap()) {
+
+				return null;
+
+			}
+
+			ev.colAggregates[i] = StreamingAggregate.get(sei.getExpression(), _q);
+
+			if (ev.colAggregates[i] != null) {
+
+				found = true;
+
+			} else if (!StreamingAggregate.isSameForAllObjects(sei.getExpression())) {
+
+				return null;
+
+			}
+
+		}
+
+		Map<Object, Object> executeOnFunctions = _q.getExecuteOnFunctions();
+
+		if (executeOnFunctions != null) {
+
+			ev.executeOn = (List<AliasedExpression>) executeOnFunctions.get(Query.RESULTS);
+
+		}
+
+		if (ev.executeOn != null) {
+
+			ev.executeOnAggregates = new StreamingAggregate[ev.executeOn.size()];
+
+			for (int i = 0; i < ev.executeOnAggregates.length; i++) {
+
+				ev.executeOnAggregates[i] = StreamingAggregate.get(ev.executeOn.get(i).getExpression(), _q);
+
+				if (ev.executeOnAggregates[i] == null) {
+
+					return null;
+
+				}
+
+				found = true;
+
+			}
+
+		}
+
+		return found ? ev : null;
+
+	}
+
+	public void evaluate(final Query q) throws QueryExecutionException {
+
+		QueryResults qd = q.getQueryResults();
+
+		Timer timer = qd.getTimeEvaluator()
+				.newTimer("Total time to execute Where clause and aggregates on all objects");
+		timer.start();
+
+		Expression where = q.getWhereClause();
+
+		if (ExpressionOptimizer.isAlwaysTrue(where)) {
+
+			// Folded into true, every object matches.
+			where = null;
+
+		}
+		RowValues rowValues = q.getRowValues();
+		List<Object> allObjects = q.getAllObjects();
+
+		int count = 0;
+
+		int s = allObjects.size();
+
+		for (int i = 0; i < s; i++) {
+
+			Object o = allObjects.get(i);
+
+			q.setCurrentObject(o);
+
+			if (where == null || where.isTrue(o, q)) {
+
+				count++;
+
+				add(colAggregates, o, q);
+				add(executeOnAggregates, o, q);
+
+			}
+
+			if (rowValues != null) {
+
+				// The object is not evaluated again.
+				rowValues.remove(o);
+
+			}
+
+		}
+
+		qd.setWhereResults(null);
+
+		timer.stop();
+
+		if (executeOn != null) {
+
+			for (int i = 0; i < executeOnAggregates.length; i++) {
+
+				String alias = executeOn.get(i).getAlias();
+
+				if (alias != null) {
+
+					q.setSaveValue(alias, executeOnAggregates[i].getResult());
+
+				}
+
+			}
+
+		}
+
+		List<Object> res;
+
+		if (count == 0) {
+
+			res = Lists.newArrayList();
+
+		} else {
+
+			List<Object> row = new ArrayList<Object>(cols.size());
+
+			for (int i = 0; i < cols.size(); i++) {
+
+				if (colAggregates[i] != null) {
+
+					row.add(colAggregates[i].getResult());
+
+				} else {
+
+					row.add(((SelectItemExpression) cols.get(i)).getValue(null, q));
+
+				}
+
+			}
+
+			if (q.getWantDistinctResults()) {
+
+				res = Lists.newArrayList();
+				res.add(row);
+
+			} else {
+
+				res = new RepeatedList(row, count);
+
+			}
+
+		}
+
+		qd.setResults(res);
+
+	}
+
+	private void add(final StreamingAggregate[] _aggregates, final Object _o, final Query _q)
+			throws QueryExecutionException {
+
+		if (_aggregates == null) {
+
+			return;
+
+		}
+
+		for (int i = 0; i < _aggregates.length; i++) {
+
+			if (_aggregates[i] != null) {
+
+				_aggregates[i].add(_o, _q);
+
+			}
+
+		}
+
+	}
+
+}
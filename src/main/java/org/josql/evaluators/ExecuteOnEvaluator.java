@@ -24,7 +24,8 @@ public class ExecuteOnEvaluator implements QueryEvaluator {
 	/**
 	 * 
 	 * @param _executeOn The functions to execute
-	 * @param _objects The List of objects to execute the functions on.
+	 * @param _objects The List of objects to execute the functions on, if null the
+	 *                 results of the query at the time the functions are executed.
 	 * @param _type The type of expressions to execute.
 	 */
 	public ExecuteOnEvaluator(final Map<Object, Object> _executeOn, final List<Object> _objects, final String _type) {
@@ -80,7 +81,7 @@ public class ExecuteOnEvaluator implements QueryEvaluator {
 		}
 
 	    // Set the "all objects".
-	    query.setAllObjects(objects);
+	    query.setAllObjects(objects != null ? objects : query.getQueryResults().getResults());
 
 	    List<AliasedExpression> fs = (List<AliasedExpression>) executeOn.get(type);
 	    	     
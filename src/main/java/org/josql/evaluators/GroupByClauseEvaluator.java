@@ -1,26 +1,30 @@
 package org.josql.evaluators;
 
-import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.josql.ColumnValuesExtractor;
 import org.josql.Query;
 import org.josql.QueryResults;
 import org.josql.exceptions.QueryExecutionException;
-import org.josql.functions.CollectionFunctions;
+import org.josql.internal.DistinctList;
+import org.josql.internal.GroupAggregates;
 import org.josql.internal.GroupByExpressionComparator;
 import org.josql.internal.Grouper;
 import org.josql.internal.Limit;
 import org.josql.internal.ListExpressionComparator;
+import org.josql.internal.ParallelTasks;
+import org.josql.internal.RepeatedList;
+import org.josql.internal.RowValues;
+import org.josql.internal.SaveValueScope;
 import org.josql.utils.Timer;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 
 public class GroupByClauseEvaluator implements QueryEvaluator {
 
@@ -32,6 +36,13 @@ public class GroupByClauseEvaluator implements QueryEvaluator {
 	private Comparator groupOrderByComparator;
 	private Limit groupByLimit;
 	private Limit limit;
+
+	// The groups being processed, shared by the threads that process them.
+	private List groupKeys;
+	private Map groups;
+	private List[] groupResults;
+	private Map[] groupSaveValues;
+	private Map querySaveValues;
 	
 	public GroupByClauseEvaluator(final Grouper _grouper, final ColumnValuesExtractor _extractor) {
 		
@@ -60,101 +71,106 @@ public class GroupByClauseEvaluator implements QueryEvaluator {
         // Need to handle the fact that this will return a Map of Lists...
         try {
 
-            // Group the objects.
-            Map mres = grouper.group(qd.getResults());
+            if (q.isWantObjects() && q.getWantDistinctResults()) {
+
+                // Each object is then only put in its group once.
+                qd.setResults(DistinctList.unique(qd.getResults()));
 
-            qd.setGroupByResults(mres);
+            }
 
-            List grpBys = Lists.newArrayList(mres.keySet());
+            // When only aggregates are wanted they are worked out as the objects are grouped.
+            GroupAggregates aggs = GroupAggregates.create(q);
 
             // Convert the keys in the group by to a List.
             Map origSvs = qd.getSaveValues();
 
             Map nres = Maps.newLinkedHashMap();
 
-            int gs = grpBys.size ();
+            querySaveValues = origSvs;
 
-            // Now for each "group by" list, do:
-            // 1. Execute the functions for the GROUP_BY_RESULTS type.
-            // 2. Sort the group by results according to the ORDER BY clause.
-            // 3. Limit the group by results according to the LIMIT clause.
-            for (int i = 0; i < gs; i++) {
+            List grpBys = null;
 
-                List l = (List) grpBys.get (i);
+            if (q.isGroupByInputSorted()) {
 
-                List lr = (List) mres.get (l);
+                grpBys = processSortedGroups(q, aggs);
 
-                q.setAllObjects(lr);
-                q.setCurrentGroupByObjects(l);
+            }
 
-                // Now set the save values for the group bys.
-                if (qd.getGroupBySaveValues() == null) {
+            if (grpBys == null) {
 
-                    qd.setGroupBySaveValues(Maps.newHashMap());
+                // Group the objects.
+                Map mres = grouper.group(qd.getResults(), aggs);
 
-                }
-                
-                qd.setSaveValues(Maps.newHashMap());
+                qd.setGroupByResults(mres);
 
-                if (origSvs != null)
-                {
+                grpBys = Lists.newArrayList(mres.keySet());
 
-                    qd.getSaveValues().putAll(origSvs);
-                    
-                }
+                int gs = grpBys.size ();
 
-                qd.getGroupBySaveValues().put (l, qd.getSaveValues());
+                // Now for each "group by" list, do:
+                // 1. Execute the functions for the GROUP_BY_RESULTS type.
+                // 2. Sort the group by results according to the ORDER BY clause.
+                // 3. Limit the group by results according to the LIMIT clause.
+                groupKeys = grpBys;
+                groups = mres;
+                groupResults = new List[gs];
+                groupSaveValues = new Map[gs];
 
-                // Now execute all (any) group by results functions.
-                QueryEvaluator executeOnEvaluator = new ExecuteOnEvaluator(lr, Query.GROUP_BY_RESULTS);
-        		executeOnEvaluator.evaluate(query);
-                //q.doExecuteOn (lr, Query.GROUP_BY_RESULTS);
+                if (aggs != null) {
 
-                // Now sort these according to the order by (if any).
-                orderGroupByResult(lr);
+                    processGroupAggregates(q);
 
-                if (!q.isWantObjects())
-                {
+                } else {
 
-                    // Now collect the values...
-                    Collection res = null;
+                    List<Query> workers = q.getGroupByWorkers(Math.min(q.getGroupByThreads(), gs));
 
-                    if (!q.getWantDistinctResults()) {
+                    if (workers.isEmpty()) {
 
-                        res = Lists.newArrayList();
+                        new GroupProcessor(q, extractor, new AtomicInteger()).call();
 
                     } else {
 
-                        res = Sets.newLinkedHashSet();
+                        processGroupsInParallel(workers);
 
                     }
 
-        		    extractor.extractColumnValues(lr, res);
+                }
+
+                groups = null;
 
-                    if (q.getWantDistinctResults()) {
+            }
 
-                        lr = new ArrayList (res);
+            RowValues rowValues = q.getRowValues();
 
-                    } else {
+            if (rowValues != null) {
 
-                        lr = (List) res;
+                // The columns of all the groups have been got.
+                rowValues.clear();
 
-                    }
+            }
 
-                } else {
+            int gs = grpBys.size ();
 
-                    if (q.getWantDistinctResults()) {
+            for (int i = 0; i < gs; i++) {
 
-                        qd.setResults(((CollectionFunctions) q.getFunctionHandler (CollectionFunctions.HANDLER_ID)).unique(qd.getResults()));
+                List l = (List) grpBys.get (i);
 
-                    }
+                nres.put(l, groupResults[i]);
+
+                // Now set the save values for the group bys.
+                if (qd.getGroupBySaveValues() == null) {
+
+                    qd.setGroupBySaveValues(Maps.newHashMap());
 
                 }
 
-                nres.put(l, lr);
+                qd.getGroupBySaveValues().put (l, groupSaveValues[i]);
 
             }
 
+            groupResults = null;
+            groupSaveValues = null;
+
             // Restore the save values.
             qd.setSaveValues(origSvs);
 
@@ -258,13 +274,245 @@ public class GroupByClauseEvaluator implements QueryEvaluator {
                                    
 	}
 	
-	private void orderGroupByResult(final List lr) throws QueryExecutionException {
+	/**
+	 * Get the rows of the groups from their aggregates, each group has a row per object
+	 * as if the columns had been got for each of them.
+	 */
+	private void processGroupAggregates(final Query q) throws QueryExecutionException {
+
+		for (int i = 0; i < groupResults.length; i++) {
+
+			List l = (List) groupKeys.get(i);
+
+			SaveValueScope svs = new SaveValueScope(querySaveValues);
+
+			groupResults[i] = getAggregateRows(q, l, (GroupAggregates) groups.get(l), svs);
+
+			groupSaveValues[i] = getGroupSaveValues(svs);
+
+		}
+
+	}
+
+	/**
+	 * The save values kept for a group: its scope when something was set in it or the
+	 * query has none, the values of the query otherwise.
+	 */
+	private Map getGroupSaveValues(final SaveValueScope svs) {
+
+		return (svs.hasLocalValues() || querySaveValues == null) ? svs : querySaveValues;
+
+	}
+
+	private List getAggregateRows(final Query q, final List l, final GroupAggregates ga, final SaveValueScope svs)
+			throws QueryExecutionException {
+
+		qd.setSaveValues(svs);
+		q.setCurrentGroupByObjects(l);
+
+		List row = ga.getRow(q);
+
+		if (q.getWantDistinctResults()) {
+
+			List res = Lists.newArrayList();
+			res.add(row);
+
+			return res;
+
+		}
+
+		return new RepeatedList(row, ga.getCount());
+
+	}
+
+	/**
+	 * Process the groups of objects sorted by group key as each is complete, see
+	 * {@link Query#setGroupByInputSorted(boolean)}.
+	 * @return The group keys or null if the objects are not sorted by group key.
+	 */
+	private List processSortedGroups(final Query q, final GroupAggregates aggs) throws QueryExecutionException {
+
+		final List keys = Lists.newArrayList();
+		final List<List> results = Lists.newArrayList();
+		final List<Map> saveValues = Lists.newArrayList();
+
+		final GroupProcessor processor = new GroupProcessor(q, extractor, null);
+
+		boolean sorted = grouper.groupSorted(qd.getResults(), aggs, new Grouper.GroupHandler() {
+
+			public void handle(final List key, final Object group) throws QueryExecutionException {
+
+				SaveValueScope svs = new SaveValueScope(querySaveValues);
+
+				if (aggs != null) {
+
+					results.add(getAggregateRows(q, key, (GroupAggregates) group, svs));
+
+				} else {
+
+					results.add(processor.processGroup(key, (List) group, svs));
+
+				}
+
+				keys.add(key);
+				saveValues.add(getGroupSaveValues(svs));
+
+			}
+
+		});
+
+		if (!sorted) {
+
+			return null;
+
+		}
+
+		groupResults = results.toArray(new List[results.size()]);
+		groupSaveValues = saveValues.toArray(new Map[saveValues.size()]);
+
+		return keys;
+
+	}
+
+	/**
+	 * Process the groups with the copies of the query, each in its own thread but for the
+	 * first one that uses the calling thread.
+	 */
+	private void processGroupsInParallel(final List<Query> workers) throws QueryExecutionException {
+
+		AtomicInteger next = new AtomicInteger();
+
+		List<Callable<Object>> tasks = Lists.newArrayList();
+
+		for (Query w : workers) {
+
+			tasks.add(new GroupProcessor(w, new ColumnValuesExtractor(w, w.getColumns()), next));
+
+		}
+
+		try {
+
+			ParallelTasks.run(tasks, "process the groups");
+
+		} finally {
+
+			for (Query w : workers) {
+
+				// Don't hold on to the objects.
+				w.reset();
+
+			}
+
+		}
+
+	}
+
+	/**
+	 * Processes the groups with a query, taking the next group not yet taken until
+	 * there are none left.
+	 */
+	private class GroupProcessor implements Callable<Object> {
+
+		private Query wq;
+		private ColumnValuesExtractor wextractor;
+		private AtomicInteger next;
+
+		GroupProcessor(final Query _wq, final ColumnValuesExtractor _wextractor, final AtomicInteger _next) {
+
+			wq = _wq;
+			wextractor = _wextractor;
+			next = _next;
+
+		}
+
+		public Object call() throws QueryExecutionException {
+
+			int i;
+
+			while ((i = next.getAndIncrement()) < groupResults.length) {
+
+				List l = (List) groupKeys.get (i);
+
+				// The values set for the group are kept apart from, and hide, the
+				// values of the query, nothing is copied.
+				SaveValueScope svs = new SaveValueScope(querySaveValues);
+
+				groupResults[i] = processGroup(l, (List) groups.get (l), svs);
+
+				groupSaveValues[i] = getGroupSaveValues(svs);
+
+			}
+
+			return null;
+
+		}
+
+		List processGroup(final List l, List lr, final SaveValueScope svs) throws QueryExecutionException {
+
+			wq.setAllObjects(lr);
+			wq.setCurrentGroupByObjects(l);
+
+			wq.getQueryResults().setSaveValues(svs);
+
+			// Now execute all (any) group by results functions.
+			QueryEvaluator executeOnEvaluator = new ExecuteOnEvaluator(lr, Query.GROUP_BY_RESULTS);
+			executeOnEvaluator.evaluate(wq);
+
+			// Now sort these according to the order by (if any).
+			orderGroupByResult(wq, lr);
+
+			List objs = lr;
+
+			if (!wq.isWantObjects())
+			{
+
+				// Now collect the values...
+				List res = Lists.newArrayList();
+
+				if (wq.getWantDistinctResults()) {
+
+					res = new DistinctList(res);
+
+				}
+
+				wextractor.extractColumnValues(lr, res);
+
+				if (res instanceof DistinctList) {
+
+					res = ((DistinctList) res).getList();
+
+				}
+
+				lr = res;
+
+			}
+
+			RowValues rowValues = wq.getRowValues();
+
+			if (rowValues != null) {
+
+				// The objects of the group are not evaluated again.
+				for (int i = 0; i < objs.size(); i++) {
+
+					rowValues.remove(objs.get(i));
+
+				}
+
+			}
+
+			return lr;
+
+		}
+
+	}
+
+	private void orderGroupByResult(final Query wq, final List lr) throws QueryExecutionException {
 		
-		if ((lr.size () > 1) && (query.getOrderByComparator() != null)) {
+		if ((lr.size () > 1) && (wq.getOrderByComparator() != null)) {
 
-            Collections.sort (lr, query.getOrderByComparator());
+            Collections.sort (lr, wq.getOrderByComparator());
 
-            ListExpressionComparator lec = (ListExpressionComparator) query.getOrderByComparator();
+            ListExpressionComparator lec = (ListExpressionComparator) wq.getOrderByComparator();
 
             if (lec.getException () != null) {
 
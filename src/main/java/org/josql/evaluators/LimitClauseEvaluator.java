@@ -4,6 +4,7 @@ import org.josql.Query;
 import org.josql.QueryResults;
 import org.josql.exceptions.QueryExecutionException;
 import org.josql.internal.Limit;
+import org.josql.internal.RowValues;
 import org.josql.utils.Timer;
 
 public class LimitClauseEvaluator implements QueryEvaluator {
@@ -20,6 +21,15 @@ public class LimitClauseEvaluator implements QueryEvaluator {
 	    	
 	    	qd.setResults(limit.getSubList (qd.getResults(), q));
 
+	    	RowValues rowValues = q.getRowValues();
+
+	    	if (rowValues != null) {
+
+	    		// Only the rows kept have their columns got.
+	    		rowValues.retain(qd.getResults());
+
+	    	}
+
 		    timer.stop();
 
         }
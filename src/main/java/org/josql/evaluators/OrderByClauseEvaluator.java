@@ -2,16 +2,33 @@ package org.josql.evaluators;
 
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 
 import org.josql.Query;
 import org.josql.QueryResults;
 import org.josql.exceptions.QueryExecutionException;
 import org.josql.internal.ListExpressionComparator;
+import org.josql.internal.SelectionList;
 import org.josql.utils.Timer;
 
 public class OrderByClauseEvaluator implements QueryEvaluator {
 
 	private Timer timer;
+	private List<Object> readOnly;
+	
+	public OrderByClauseEvaluator() {
+		
+	}
+	
+	/**
+	 * @param _readOnly The list of objects the query is executed on when it must not be
+	 *                  sorted, can be null.
+	 */
+	public OrderByClauseEvaluator(final List<Object> _readOnly) {
+		
+		readOnly = _readOnly;
+		
+	}
 	
 	public void evaluate(final Query q) throws QueryExecutionException {
 		
@@ -23,10 +40,26 @@ public class OrderByClauseEvaluator implements QueryEvaluator {
 			timer = qd.getTimeEvaluator().newTimer("Total time to order results");
 			timer.start();
 
+			if (qd.getResults() == readOnly) {
+
+				// No where clause, sort a selection of all the objects instead.
+				qd.setResults(SelectionList.all(readOnly));
+
+			}
+
 		    // It should be noted here that the comparator will set the
 		    // "current object" so that it can be used in the order by
 		    // clause.
-		    Collections.sort (qd.getResults(), orderByComp);
+		    if (qd.getResults() instanceof SelectionList) {
+
+		    	// Sort the indices of the objects rather than a copy of them.
+		    	((SelectionList) qd.getResults()).sort(orderByComp);
+
+		    } else {
+
+		    	Collections.sort (qd.getResults(), orderByComp);
+
+		    }
 
 			timer.stop();
 
@@ -1,7 +1,6 @@
 package org.josql.evaluators;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.List;
 
 import org.josql.ColumnValuesExtractor;
@@ -10,11 +9,10 @@ import org.josql.QueryResults;
 import org.josql.exceptions.QueryExecutionException;
 import org.josql.expressions.NewObjectExpression;
 import org.josql.expressions.SelectItemExpression;
-import org.josql.functions.CollectionFunctions;
+import org.josql.internal.DistinctList;
 import org.josql.utils.Timer;
 
 import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
 
 public class SelectClauseEvaluator implements QueryEvaluator {
 
@@ -22,6 +20,7 @@ public class SelectClauseEvaluator implements QueryEvaluator {
 	private List cols;
 	private Timer timer;
 	private ColumnValuesExtractor extractor;
+	private List<Object> output;
 	
 	public SelectClauseEvaluator(final List _cols, final ColumnValuesExtractor _extractor) {
 		
@@ -29,6 +28,17 @@ public class SelectClauseEvaluator implements QueryEvaluator {
 		extractor = _extractor;
 	}
 	
+	/**
+	 * @param _cols The select columns.
+	 * @param _extractor Gets the column values.
+	 * @param _output The list to put the column values in, can be null.
+	 */
+	public SelectClauseEvaluator(final List _cols, final ColumnValuesExtractor _extractor, final List<Object> _output) {
+		
+		this(_cols, _extractor);
+		output = _output;
+	}
+	
 	public void evaluate(final Query q) throws QueryExecutionException {
 		
 		this.q = q;
@@ -57,34 +67,36 @@ public class SelectClauseEvaluator implements QueryEvaluator {
 		// set of objects required.
 		if ((!q.isWantObjects()) && (!retNewObjs)) {
 
-		    Collection resC;
+		    List resC;
 
-		    if (!q.getWantDistinctResults()){
-		    	
-		    	resC = Lists.newArrayList();
+		    if (output != null) {
+
+		    	output.clear();
+		    	resC = output;
 
 		    } else {
 
-		    	resC = Sets.newLinkedHashSet();
+		    	resC = Lists.newArrayList();
+
+		    }
+
+		    if (q.getWantDistinctResults()) {
+
+		    	// The duplicate rows are dropped as they are collected.
+		    	resC = new DistinctList(resC);
 
 		    }
 
 		    // Get the column values.
-//		    getColumnValues(qd.getResults(), resC);
-//		    ColumnValuesExtractor extractor = new ColumnValuesExtractor(q, cols);
 		    extractor.extractColumnValues(qd.getResults(), resC);
 
-		    qd.setResults(Lists.newArrayList(resC));
-		    
-//		    if (q.getWantDistinctResults()) {
-//
-//		    	qd.setResults(Lists.newArrayList(resC));
-//
-//		    } else {
-//
-//		    	qd.setResults((List) resC);
-//
-//		    }		    	  
+		    if (resC instanceof DistinctList) {
+
+		    	resC = ((DistinctList) resC).getList();
+
+		    }
+
+		    qd.setResults(resC);
 		    
 		    timer.stop();
 
@@ -95,7 +107,7 @@ public class SelectClauseEvaluator implements QueryEvaluator {
 		    	timer = qd.getTimeEvaluator().newTimer("Collecting unique results took");
 				timer.start();
 			    
-			    qd.setResults(((CollectionFunctions) q.getFunctionHandler (CollectionFunctions.HANDLER_ID)).unique (qd.getResults()));
+			    qd.setResults(DistinctList.unique(qd.getResults()));
 			    
 			    timer.stop();
 	
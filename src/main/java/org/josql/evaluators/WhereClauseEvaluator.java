@@ -1,11 +1,16 @@
 package org.josql.evaluators;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.RandomAccess;
 
 import org.josql.Query;
 import org.josql.QueryResults;
 import org.josql.exceptions.QueryExecutionException;
 import org.josql.expressions.Expression;
+import org.josql.internal.ExpressionOptimizer;
+import org.josql.internal.RowValues;
+import org.josql.internal.SelectionList;
 import org.josql.utils.Timer;
 
 import com.google.common.collect.Lists;
@@ -21,6 +26,13 @@ public class WhereClauseEvaluator implements QueryEvaluator {
 		
 		query = _query;
 		where = query.getWhereClause();
+
+		if (ExpressionOptimizer.isAlwaysTrue(where)) {
+
+			// Folded into true, every object matches.
+			where = null;
+
+		}
 		qd = query.getQueryResults();
 		allObjects = query.getAllObjects();
 				
@@ -34,27 +46,90 @@ public class WhereClauseEvaluator implements QueryEvaluator {
 				.newTimer("Total time to execute Where clause on all objects");
 		timer.start();
 		
-		List<Object> whereResults = Lists.newArrayList();
+		List<Object> whereResults = null;
 		
 	    if (where != null) {
 
-		    // Create the where results with "about" half the size of the input collection.
-		    // Further optimizations may be possible here if some statistics are collected
-		    // about how many objects match/fail the where clause and then increase the
-		    // capacity of the where results list as required, i.e. to cut down on the number
-		    // of array copy and allocation operations performed.  For now though half will do ;)
-	    
-		    for (Object o : allObjects) {
+		    RowValues rowValues = query.getRowValues();
+
+		    // The values of the rows that match are only kept for the clauses
+		    // that read them.
+		    boolean keepValues = query.isRowValuesUsedAfterWhere();
+
+		    if (allObjects instanceof RandomAccess) {
+
+		    	// Only keep the indices of the objects that match, the objects
+		    	// are read from the input list when needed.  The array grows as
+		    	// objects match, few may.
+		    	int s = allObjects.size();
+		    	int[] indices = new int[Math.min(s, 16)];
+		    	int size = 0;
+
+		    	for (int i = 0; i < s; i++) {
+
+		    		Object o = allObjects.get(i);
+
+		    		query.setCurrentObject(o);
+
+		    		if (where.isTrue(o, query)) {
+
+		    			if (size == indices.length) {
+
+		    				indices = Arrays.copyOf(indices, (int) Math.min(s, 2L * size));
+
+		    			}
+
+		    			indices[size++] = i;
+
+		    			if (keepValues) {
+
+		    				continue;
+
+		    			}
+
+		    		}
+
+		    		if (rowValues != null) {
+
+		    			// The other clauses won't evaluate it.
+		    			rowValues.remove(o);
+
+		    		}
+
+		    	}
+
+		    	whereResults = new SelectionList(allObjects, indices, size);
+
+		    } else {
+
+		    	whereResults = Lists.newArrayList();
+
+		    	for (Object o : allObjects) {
 		    
-		    	query.setCurrentObject(o);
+		    		query.setCurrentObject(o);
 
-		    	if (where.isTrue(o, query)) {
+		    		if (where.isTrue(o, query)) {
 		    		
-		    		whereResults.add(o);
+		    			whereResults.add(o);
+
+		    			if (keepValues) {
+
+		    				continue;
+
+		    			}
+
+		    		}
+
+		    		if (rowValues != null) {
+
+		    			// The other clauses won't evaluate it.
+		    			rowValues.remove(o);
+
+		    		}
 
 		    	}
 
-		    }	    		    
+		    }
 
 		} else {
 		
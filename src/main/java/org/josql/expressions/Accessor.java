@@ -20,6 +20,8 @@ import org.josql.Query;
 import org.josql.exceptions.QueryExecutionException;
 import org.josql.exceptions.QueryParseException;
 import org.josql.internal.Utilities;
+import org.josql.internal.MetadataCache;
+import org.josql.internal.RowValues;
 
 /**
  * Represents an "accessor" into an object.  An accessor is basically a dot separated list
@@ -34,6 +36,7 @@ public class Accessor extends ValueExpression
 
     private String acc = null;
     private Getter get = null;
+    private int slot = -1;
 
     public Class getExpectedReturnType (Query  q)
 	                                throws QueryParseException
@@ -51,8 +54,8 @@ public class Accessor extends ValueExpression
 	try
 	{
 
-	    this.get = new Getter (this.acc,
-				   q.getFromObjectClass ());
+	    this.get = MetadataCache.getGetter (this.acc,
+						q.getFromObjectClass ());
 
 	} catch (Exception e) {
 
@@ -92,6 +95,26 @@ public class Accessor extends ValueExpression
 
     }
 
+    /**
+     * Set the slot the value of this accessor is kept at for a row when it is
+     * found more than once in the query, see: {@link org.josql.internal.CommonSubExpressions}.
+     *
+     * @param slot The slot, -1 for none.
+     */
+    public void setRowValueSlot (int slot)
+    {
+
+	this.slot = slot;
+
+    }
+
+    public int getRowValueSlot ()
+    {
+
+	return this.slot;
+
+    }
+
     public boolean isTrue (Object o,
 			   Query  q)
 	                   throws QueryExecutionException
@@ -139,6 +162,42 @@ public class Accessor extends ValueExpression
 	                    throws QueryExecutionException
     {
 
+	if (this.slot > -1)
+	{
+
+	    RowValues rv = q.getRowValues ();
+
+	    if (rv != null)
+	    {
+
+		Object v = rv.get (this.slot,
+				   o);
+
+		if (v == RowValues.NOT_SET)
+		{
+
+		    v = this.getAccessorValue (o);
+
+		    rv.put (this.slot,
+			    o,
+			    v);
+
+		}
+
+		return v;
+
+	    }
+
+	}
+
+	return this.getAccessorValue (o);
+
+    }
+
+    private Object getAccessorValue (Object o)
+	                             throws QueryExecutionException
+    {
+
 	try
 	{
 
@@ -0,0 +1,592 @@
+package org.josql.expressions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.josql.Query;
+import org.josql.exceptions.QueryExecutionException;
+
+/**
+ * A chain of <code>AND</code>s or of <code>OR</code>s flattened into a single expression
+ * whose branches are reordered as the query is executed.  For each branch the number
+ * of times it is <code>true</code> and, for a sample of the evaluations, the time it takes
+ * is kept.  Every {@link #getReorderInterval() interval} evaluations the branches are
+ * sorted so that the branches that are cheap and most likely to decide the result,
+ * <code>false</code> for an <code>AND</code> and <code>true</code> for an <code>OR</code>,
+ * are evaluated first.
+ * <p>
+ * Evaluation is still lazy, see {@link AndOrExpression}.  Only the branches that
+ * have no side-effect are moved: a branch with a sub-query, a new object or a function
+ * that is not {@link org.josql.functions.Deterministic deterministic} stays where it is
+ * and the branches on either side of it are never moved across it.
+ * <p>
+ * The chains are only flattened when: {@link Query#setReorderConditions(boolean)} is set.
+ */
+public class AdaptiveAndOrExpression extends Expression
+{
+
+    public static final int DEFAULT_REORDER_INTERVAL = 1024;
+
+    // Time one evaluation out of 16.
+    private static final int SAMPLE_MASK = 15;
+
+    private boolean and = false;
+    private Branch[] branches = null;
+    private int interval = DEFAULT_REORDER_INTERVAL;
+    private long count = 0;
+
+    private AdaptiveAndOrExpression (boolean          and,
+				     List<Expression> exps)
+    {
+
+	this.and = and;
+
+	this.branches = new Branch[exps.size ()];
+
+	for (int i = 0; i < this.branches.length; i++)
+	{
+
+	    Expression e = exps.get (i);
+
+	    this.branches[i] = new Branch (e,
+					   AdaptiveAndOrExpression.isMovable (e));
+
+	}
+
+    }
+
+    /**
+     * Flatten the <code>AND</code> and <code>OR</code> chains of an inited expression.
+     *
+     * @param e The expression, can be null.
+     * @return The expression to use instead, may be the same expression.
+     */
+    public static Expression flatten (Expression e)
+    {
+
+	if (!(e instanceof AndOrExpression))
+	{
+
+	    return e;
+
+	}
+
+	AndOrExpression ao = (AndOrExpression) e;
+
+	List<Expression> exps = new ArrayList<Expression> ();
+
+	AdaptiveAndOrExpression.getTerms (ao,
+					  ao.isAnd (),
+					  exps);
+
+	for (int i = 0; i < exps.size (); i++)
+	{
+
+	    exps.set (i,
+		      AdaptiveAndOrExpression.flatten (exps.get (i)));
+
+	}
+
+	AdaptiveAndOrExpression a = new AdaptiveAndOrExpression (ao.isAnd (),
+								 exps);
+	a.setBracketed (e.isBracketed ());
+
+	return a;
+
+    }
+
+    private static void getTerms (Expression       e,
+				  boolean          and,
+				  List<Expression> terms)
+    {
+
+	if ((e instanceof AndOrExpression)
+	    &&
+	    (((AndOrExpression) e).isAnd () == and)
+	   )
+	{
+
+	    AdaptiveAndOrExpression.getTerms (((AndOrExpression) e).getLeft (),
+					      and,
+					      terms);
+	    AdaptiveAndOrExpression.getTerms (((AndOrExpression) e).getRight (),
+					      and,
+					      terms);
+
+	    return;
+
+	}
+
+	terms.add (e);
+
+    }
+
+    /**
+     * A branch can be moved if evaluating it, or not, has no side-effect.
+     *
+     * @param e The expression, can be null.
+     * @return <code>true</code> if the expression can be evaluated in another order, or not at all.
+     */
+    public static boolean isMovable (Expression e)
+    {
+
+	if ((e == null)
+	    ||
+	    (e instanceof Accessor)
+	    ||
+	    (e instanceof ConstantExpression)
+	    ||
+	    (e instanceof BooleanExpression)
+	    ||
+	    (e instanceof BindVariable)
+	    ||
+	    (e instanceof SaveValue)
+	   )
+	{
+
+	    return true;
+
+	}
+
+	if (e instanceof Function)
+	{
+
+	    Function f = (Function) e;
+
+	    if ((!f.isDeterministic ())
+		&&
+		(!f.hasFixedResult (null))
+	       )
+	    {
+
+		return false;
+
+	    }
+
+	    return AdaptiveAndOrExpression.isMovable (f.getParameters ());
+
+	}
+
+	if (e instanceof AdaptiveAndOrExpression)
+	{
+
+	    Branch[] bs = ((AdaptiveAndOrExpression) e).branches;
+
+	    for (int i = 0; i < bs.length; i++)
+	    {
+
+		if (!bs[i].movable)
+		{
+
+		    return false;
+
+		}
+
+	    }
+
+	    return true;
+
+	}
+
+	if (e instanceof BinaryExpression)
+	{
+
+	    BinaryExpression be = (BinaryExpression) e;
+
+	    boolean m = AdaptiveAndOrExpression.isMovable (be.getLeft ())
+		        &&
+		        AdaptiveAndOrExpression.isMovable (be.getRight ());
+
+	    if (e instanceof BetweenExpression)
+	    {
+
+		m = m
+		    &&
+		    AdaptiveAndOrExpression.isMovable (((BetweenExpression) e).getStart ())
+		    &&
+		    AdaptiveAndOrExpression.isMovable (((BetweenExpression) e).getEnd ());
+
+	    }
+
+	    if (e instanceof InExpression)
+	    {
+
+		m = m && AdaptiveAndOrExpression.isMovable (((InExpression) e).getItems ());
+
+	    }
+
+	    return m;
+
+	}
+
+	if (e instanceof ArithmeticExpression)
+	{
+
+	    return AdaptiveAndOrExpression.isMovable (((ArithmeticExpression) e).getLeft ())
+		   &&
+		   AdaptiveAndOrExpression.isMovable (((ArithmeticExpression) e).getRight ());
+
+	}
+
+	if (e instanceof ExpressionList)
+	{
+
+	    return AdaptiveAndOrExpression.isMovable (((ExpressionList) e).getExpressions ());
+
+	}
+
+	// Sub-queries, new objects and anything else.
+	return false;
+
+    }
+
+    private static boolean isMovable (List exps)
+    {
+
+	if (exps == null)
+	{
+
+	    return true;
+
+	}
+
+	for (int i = 0; i < exps.size (); i++)
+	{
+
+	    Object o = exps.get (i);
+
+	    if ((!(o instanceof Expression))
+		||
+		(!AdaptiveAndOrExpression.isMovable ((Expression) o))
+	       )
+	    {
+
+		return false;
+
+	    }
+
+	}
+
+	return true;
+
+    }
+
+    public boolean isAnd ()
+    {
+
+	return this.and;
+
+    }
+
+    /**
+     * @return The branches in the order they are currently evaluated.
+     */
+    public List<Expression> getBranches ()
+    {
+
+	Branch[] bs = this.branches;
+
+	List<Expression> l = new ArrayList<Expression> (bs.length);
+
+	for (int i = 0; i < bs.length; i++)
+	{
+
+	    l.add (bs[i].exp);
+
+	}
+
+	return l;
+
+    }
+
+    public int getReorderInterval ()
+    {
+
+	return this.interval;
+
+    }
+
+    /**
+     * Set the number of evaluations between two reorderings of the branches.
+     *
+     * @param i The interval.
+     */
+    public void setReorderInterval (int i)
+    {
+
+	this.interval = i;
+
+    }
+
+    public boolean isTrue (Object o,
+			   Query  q)
+	                   throws QueryExecutionException
+    {
+
+	Branch[] bs = this.branches;
+
+	boolean time = (this.count & SAMPLE_MASK) == 0;
+
+	// Nothing decided means all the branches are true for an AND, false for an OR.
+	boolean res = this.and;
+
+	for (int i = 0; i < bs.length; i++)
+	{
+
+	    Branch b = bs[i];
+
+	    boolean r = false;
+
+	    if (time)
+	    {
+
+		long s = System.nanoTime ();
+
+		r = b.exp.isTrue (o,
+				  q);
+
+		b.nanos += System.nanoTime () - s;
+		b.timed++;
+
+	    } else {
+
+		r = b.exp.isTrue (o,
+				  q);
+
+	    }
+
+	    b.evals++;
+
+	    if (r)
+	    {
+
+		b.trues++;
+
+	    }
+
+	    if (r != this.and)
+	    {
+
+		res = r;
+
+		break;
+
+	    }
+
+	}
+
+	this.count++;
+
+	if ((this.count % this.interval) == 0)
+	{
+
+	    this.reorder ();
+
+	}
+
+	return res;
+
+    }
+
+    /**
+     * Sort each run of movable branches by their expected cost.
+     */
+    private void reorder ()
+    {
+
+	Branch[] bs = this.branches.clone ();
+
+	Comparator<Branch> comp = new Comparator<Branch> ()
+	{
+
+	    public int compare (Branch b1,
+				Branch b2)
+	    {
+
+		return Double.compare (AdaptiveAndOrExpression.this.getRank (b1),
+				       AdaptiveAndOrExpression.this.getRank (b2));
+
+	    }
+
+	};
+
+	int start = 0;
+
+	while (start < bs.length)
+	{
+
+	    int end = start;
+
+	    while ((end < bs.length)
+		   &&
+		   (bs[end].movable)
+		  )
+	    {
+
+		end++;
+
+	    }
+
+	    if (end - start > 1)
+	    {
+
+		// A stable sort, ties keep the order they are in.
+		Arrays.sort (bs,
+			     start,
+			     end,
+			     comp);
+
+	    }
+
+	    start = end + 1;
+
+	}
+
+	// Older evaluations count less.
+	for (int i = 0; i < bs.length; i++)
+	{
+
+	    bs[i].decay ();
+
+	}
+
+	this.branches = bs;
+
+    }
+
+    /**
+     * The cost of a branch over the probability that it decides the result.
+     */
+    private double getRank (Branch b)
+    {
+
+	double cost = (b.timed > 0) ? ((double) b.nanos / b.timed) : 1;
+
+	double p = (b.evals > 0) ? ((double) b.trues / b.evals) : 0.5;
+
+	double decides = this.and ? (1 - p) : p;
+
+	return cost / Math.max (decides,
+				0.0001);
+
+    }
+
+    public boolean hasFixedResult (Query q)
+    {
+
+	for (int i = 0; i < this.branches.length; i++)
+	{
+
+	    if (!this.branches[i].exp.hasFixedResult (q))
+	    {
+
+		return false;
+
+	    }
+
+	}
+
+	return true;
+
+    }
+
+    public Class getExpectedReturnType (Query q)
+    {
+
+	return Boolean.class;
+
+    }
+
+    /**
+     * The branches are inited before being flattened, nothing to do.
+     *
+     * @param q The Query object.
+     */
+    public void init (Query q)
+    {
+
+    }
+
+    public Object getValue (Object o,
+			    Query  q)
+	                    throws QueryExecutionException
+    {
+
+	return Boolean.valueOf (this.isTrue (o,
+					     q));
+
+    }
+
+    public String toString ()
+    {
+
+	StringBuffer buf = new StringBuffer ();
+
+	if (this.isBracketed ())
+	{
+
+	    buf.append ("(");
+
+	}
+
+	Branch[] bs = this.branches;
+
+	for (int i = 0; i < bs.length; i++)
+	{
+
+	    if (i > 0)
+	    {
+
+		buf.append (this.and ? " AND " : " OR ");
+
+	    }
+
+	    buf.append (bs[i].exp);
+
+	}
+
+	if (this.isBracketed ())
+	{
+
+	    buf.append (")");
+
+	}
+
+	return buf.toString ();
+
+    }
+
+    private static class Branch
+    {
+
+	private Expression exp = null;
+	private boolean movable = false;
+	private long evals = 0;
+	private long trues = 0;
+	private long nanos = 0;
+	private long timed = 0;
+
+	Branch (Expression exp,
+		boolean    movable)
+	{
+
+	    this.exp = exp;
+	    this.movable = movable;
+
+	}
+
+	void decay ()
+	{
+
+	    this.evals /= 2;
+	    this.trues /= 2;
+	    this.nanos /= 2;
+	    this.timed /= 2;
+
+	}
+
+    }
+
+}
@@ -40,6 +40,7 @@ public class ArithmeticExpression extends ValueExpression
     private ValueExpression right = null;
 
     private boolean fixedResult = false;
+    private boolean numeric = false;
 
     /**
      * Return the expected return type.  This just returns the result of calling this
@@ -134,6 +135,97 @@ public class ArithmeticExpression extends ValueExpression
 
 	this.fixedResult = this.left.hasFixedResult (q) && this.right.hasFixedResult (q);
 
+	this.numeric = this.left.hasNumericValue (q) && this.right.hasNumericValue (q);
+
+    }
+
+    /**
+     * The value is a number when both sides are numbers, the expected return type is
+     * not enough since <b>+</b> gives a string when either side is not a number.
+     *
+     * @param q The Query object.
+     * @return <code>true</code> if both the LHS and RHS have numeric values.
+     */
+    public boolean hasNumericValue (Query q)
+    {
+
+	return this.left.hasNumericValue (q) && this.right.hasNumericValue (q);
+
+    }
+
+    /**
+     * Get the value of this expression as a <b>double</b>.  When both sides have numeric values
+     * they are calculated with as <b>double</b>s so that no number objects are created, otherwise
+     * this is the same as {@link #evaluate(Object,Query)}.
+     *
+     * @param o The object to perform the expression on.
+     * @param q The Query object.
+     * @return The value or <code>NaN</code>, see {@link Expression#evaluateDouble(Object,Query)}.
+     * @throws QueryExecutionException If an error occurs during processing.
+     */
+    public double evaluateDouble (Object o,
+				  Query  q)
+	                          throws QueryExecutionException
+    {
+
+	if (this.numeric)
+	{
+
+	    double d = this.evaluateNumeric (o,
+					     q);
+
+	    if (!Double.isNaN (d))
+	    {
+
+		return d;
+
+	    }
+
+	}
+
+	// A side is null (or not a number after all).
+	Object v = this.evaluateObjects (o,
+					 q);
+
+	if (v instanceof Number)
+	{
+
+	    return ((Number) v).doubleValue ();
+
+	}
+
+	return Double.NaN;
+
+    }
+
+    private double evaluateNumeric (Object o,
+				    Query  q)
+	                            throws QueryExecutionException
+    {
+
+	double ld = this.left.evaluateDouble (o,
+					      q);
+
+	if (Double.isNaN (ld))
+	{
+
+	    return ld;
+
+	}
+
+	double rd = this.right.evaluateDouble (o,
+					       q);
+
+	if (Double.isNaN (rd))
+	{
+
+	    return rd;
+
+	}
+
+	return this.calculate (ld,
+			       rd);
+
     }
 
     /**
@@ -212,6 +304,31 @@ public class ArithmeticExpression extends ValueExpression
 	                    throws QueryExecutionException
     {
 
+	if (this.numeric)
+	{
+
+	    double d = this.evaluateNumeric (o,
+					     q);
+
+	    if (!Double.isNaN (d))
+	    {
+
+		return new Double (d);
+
+	    }
+
+	}
+
+	return this.evaluateObjects (o,
+				     q);
+
+    }
+
+    private Object evaluateObjects (Object o,
+				    Query  q)
+	                            throws QueryExecutionException
+    {
+
 	Object l = this.left.getValue (o,
 				       q);
 
@@ -255,31 +372,50 @@ public class ArithmeticExpression extends ValueExpression
 	double ld = Utilities.getDouble (l);
 	double rd = Utilities.getDouble (r);
 
+	if ((this.type < ArithmeticExpression.MULTIPLY)
+	    ||
+	    (this.type > ArithmeticExpression.MODULUS)
+	   )
+	{
+
+	    return null;
+
+	}
+
+	return new Double (this.calculate (ld,
+					   rd));
+
+    }
+
+    private double calculate (double ld,
+			      double rd)
+    {
+
 	if (this.type == ArithmeticExpression.ADDITION)
 	{
 
-	    return new Double (ld + rd);
+	    return ld + rd;
 
 	}
 
 	if (this.type == ArithmeticExpression.SUBTRACT)
 	{
 
-	    return new Double (ld - rd);
+	    return ld - rd;
 
 	}
 
 	if (this.type == ArithmeticExpression.MULTIPLY)
 	{
 
-	    return new Double (ld * rd);
+	    return ld * rd;
 
 	}
 
 	if (this.type == ArithmeticExpression.MODULUS)
 	{
 
-	    return new Double (ld % rd);
+	    return ld % rd;
 
 	}
 
@@ -289,15 +425,15 @@ public class ArithmeticExpression extends ValueExpression
 	    if (rd == 0)
 	    {
 
-		return new Double (0);
+		return 0;
 
 	    }
 
-	    return new Double (ld / rd);
+	    return ld / rd;
 
 	}
 
-	return null;
+	return Double.NaN;
 
     }
 
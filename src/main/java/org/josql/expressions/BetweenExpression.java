@@ -17,6 +17,7 @@ package org.josql.expressions;
 import org.josql.Query;
 import org.josql.exceptions.QueryExecutionException;
 import org.josql.exceptions.QueryParseException;
+import org.josql.internal.NumberComparison;
 import org.josql.internal.Utilities;
 
 /**
@@ -34,6 +35,9 @@ public class BetweenExpression extends BinaryExpression
     private Object leftFRVal = null;
     private Object startFRVal = null;
     private Object endFRVal = null;
+    private int leftType = NumberComparison.NONE;
+    private int startType = NumberComparison.NONE;
+    private int endType = NumberComparison.NONE;
 
     /**
      * Inits the expression.
@@ -54,6 +58,13 @@ public class BetweenExpression extends BinaryExpression
 	this.startFR = this.start.hasFixedResult (q);
 	this.endFR = this.end.hasFixedResult (q);
 
+	this.leftType = NumberComparison.getType (this.left,
+						  q);
+	this.startType = NumberComparison.getType (this.start,
+						   q);
+	this.endType = NumberComparison.getType (this.end,
+						 q);
+
     }
 
     /**
@@ -124,6 +135,85 @@ public class BetweenExpression extends BinaryExpression
 	                   throws QueryExecutionException
     {
 
+	if ((this.leftType != NumberComparison.NONE)
+	    &&
+	    (this.startType != NumberComparison.NONE)
+	    &&
+	    (this.endType != NumberComparison.NONE)
+	    &&
+	    (!Utilities.hasObjectComparator ())
+	   )
+	{
+
+	    int sc = NumberComparison.UNKNOWN;
+	    int ec = NumberComparison.UNKNOWN;
+
+	    // Get the LHS once for both comparisons.
+	    if (this.leftType == NumberComparison.LONG)
+	    {
+
+		Object v = this.left.getValue (o,
+					       q);
+
+		if (Utilities.isIntegral (v))
+		{
+
+		    long x = ((Number) v).longValue ();
+
+		    sc = NumberComparison.compare (x,
+						   this.start,
+						   this.startType,
+						   o,
+						   q);
+		    ec = NumberComparison.compare (x,
+						   this.end,
+						   this.endType,
+						   o,
+						   q);
+
+		}
+
+	    } else {
+
+		double x = this.left.evaluateDouble (o,
+						     q);
+
+		if (!Double.isNaN (x))
+		{
+
+		    sc = NumberComparison.compare (x,
+						   this.start,
+						   this.startType,
+						   o,
+						   q);
+		    ec = NumberComparison.compare (x,
+						   this.end,
+						   this.endType,
+						   o,
+						   q);
+
+		}
+
+	    }
+
+	    if ((sc != NumberComparison.UNKNOWN)
+		&&
+		(ec != NumberComparison.UNKNOWN)
+	       )
+	    {
+
+		boolean b = (sc >= 0)
+		            &&
+		            (ec <= 0);
+
+		return b != this.not;
+
+	    }
+
+	    // A null, let the values decide.
+
+	}
+
 	Object l = null;
 
 	if (this.leftFR)
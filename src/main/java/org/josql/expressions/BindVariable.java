@@ -24,6 +24,7 @@ import org.josql.Query;
 import org.josql.exceptions.QueryExecutionException;
 import org.josql.exceptions.QueryParseException;
 import org.josql.internal.Utilities;
+import org.josql.internal.MetadataCache;
 
 /**
  * This class represents a "bind variable" used within a SQL statement.
@@ -120,6 +121,16 @@ public class BindVariable extends ValueExpression
     private boolean groupByVar = false;
     private int groupByInd = 0;
 
+    // What the variable is, resolved when inited so that the name isn't looked up for each object.
+    private static final int NAMED = 0;
+    private static final int QUERY = 1;
+    private static final int PARENT = 2;
+    private static final int CURR_OBJ = 3;
+    private static final int ALL_OBJS = 4;
+
+    private int kind = -1;
+    private int slot = -1;
+
     public boolean equals (Object o)
     {
 
@@ -348,6 +359,14 @@ public class BindVariable extends ValueExpression
 
 	}
 
+	if (!this.groupByVar)
+	{
+
+	    this.initKind (n,
+			   q);
+
+	}
+
 	// See if we already have this bind variable set...
 	this.val = q.getVariable (this.name);
 
@@ -404,6 +423,58 @@ public class BindVariable extends ValueExpression
 
     }
 
+    private void initKind (String n,
+			   Query  q)
+    {
+
+	if (n.startsWith (":"))
+	{
+
+	    n = n.substring (1);
+
+	}
+
+	if (n.equals (Query.QUERY_BIND_VAR_NAME))
+	{
+
+	    this.kind = BindVariable.QUERY;
+
+	    return;
+
+	}
+
+	if (n.equals (Query.PARENT_BIND_VAR_NAME))
+	{
+
+	    this.kind = BindVariable.PARENT;
+
+	    return;
+
+	}
+
+	if (n.equals (Query.CURR_OBJ_VAR_NAME))
+	{
+
+	    this.kind = BindVariable.CURR_OBJ;
+
+	    return;
+
+	}
+
+	if (n.equals (Query.ALL_OBJS_VAR_NAME))
+	{
+
+	    this.kind = BindVariable.ALL_OBJS;
+
+	    return;
+
+	}
+
+	this.kind = BindVariable.NAMED;
+	this.slot = q.getVariableSlot (n);
+
+    }
+
     public String getName ()
     {
 
@@ -445,8 +516,8 @@ public class BindVariable extends ValueExpression
     private void initGetter (Class c)
     {
 
-	this.get = new Getter (this.acc,
-			       c);
+	this.get = MetadataCache.getGetter (this.acc,
+					    c);
 	
     }
 
@@ -469,8 +540,34 @@ public class BindVariable extends ValueExpression
 
 	    o = q.getGroupByVariable (this.groupByInd);
 
+	} else if (this.kind == BindVariable.NAMED)
+	{
+
+	    o = q.getVariableAt (this.slot);
+
+	} else if (this.kind == BindVariable.CURR_OBJ)
+	{
+
+	    o = q.getCurrentObject ();
+
+	} else if (this.kind == BindVariable.ALL_OBJS)
+	{
+
+	    o = q.getAllObjects ();
+
+	} else if (this.kind == BindVariable.QUERY)
+	{
+
+	    o = q;
+
+	} else if (this.kind == BindVariable.PARENT)
+	{
+
+	    o = q.getParent ();
+
 	} else {
 
+	    // Not inited.
 	    o = q.getVariable (this.name);
 
 	}
@@ -24,6 +24,7 @@ public class ConstantExpression extends ValueExpression
 {
 
     private Object val = null;
+    private double dval = Double.NaN;
 
     /**
      * Get the expected return type.
@@ -64,6 +65,8 @@ public class ConstantExpression extends ValueExpression
 
 	this.val = v;
 
+	this.dval = (v instanceof Number) ? ((Number) v).doubleValue () : Double.NaN;
+
     }
 
     /**
@@ -134,6 +137,21 @@ public class ConstantExpression extends ValueExpression
 
     }
 
+    /**
+     * Get the value of this constant as a <b>double</b>, worked out when the value is set.
+     *
+     * @param o The current object, not used in this method.
+     * @param q The Query object, not used in this method.
+     * @return The constant value or <code>NaN</code> if it is not a number.
+     */
+    public double evaluateDouble (Object o,
+				  Query  q)
+    {
+
+	return this.dval;
+
+    }
+
     /**
      * Always returns <code>true</code>, well duh!
      *
@@ -17,6 +17,7 @@ package org.josql.expressions;
 import org.josql.Query;
 import org.josql.exceptions.QueryExecutionException;
 import org.josql.exceptions.QueryParseException;
+import org.josql.internal.Utilities;
 
 /**
  * The base class for all expressions.
@@ -110,6 +111,66 @@ public abstract class Expression
 				     Query  q)
 	                             throws QueryExecutionException;
 
+    /**
+     * Return whether the value of this expression is always a number (or null).  When it is
+     * the expressions that use the value can call {@link #evaluateDouble(Object,Query)} instead of
+     * {@link #getValue(Object,Query)} and compare or calculate with a <b>double</b>.  Only valid
+     * once the expression has been inited.
+     *
+     * @param q The Query object.
+     * @return <code>true</code> if the expected return type is a number.
+     */
+    public boolean hasNumericValue (Query q)
+    {
+
+	try
+	{
+
+	    Class c = this.getExpectedReturnType (q);
+
+	    return (c != null)
+		   &&
+		   (Utilities.isNumber (c));
+
+	} catch (Exception e) {
+
+	    return false;
+
+	}
+
+    }
+
+    /**
+     * Get the value for this expression as a <b>double</b>.  Sub-classes that can work out
+     * the value without creating a number object override this method.
+     * <p>
+     * <code>NaN</code> is returned when the value is <code>null</code> or is not a number, the
+     * caller should then use {@link #getValue(Object,Query)} to find out what the value is.
+     *
+     * @param o The current object that the expression should be evaluated on.
+     * @param q The Query object.
+     * @return The value of the expression or <code>NaN</code>.
+     * @throws QueryExecutionException If something goes wrong with gaining the value.
+     */
+    public double evaluateDouble (Object o,
+				  Query  q)
+	                          throws QueryExecutionException
+    {
+
+	Object v = this.getValue (o,
+				  q);
+
+	if (v instanceof Number)
+	{
+
+	    return ((Number) v).doubleValue ();
+
+	}
+
+	return Double.NaN;
+
+    }
+
     /**
      * Return a string representation of the expression, making this abstract forces
      * sub-classes to provide an implementation.
@@ -16,7 +16,9 @@ package org.josql.expressions;
 
 import java.util.List;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.SortedMap;
 import java.util.TreeMap;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
@@ -24,10 +26,15 @@ import java.lang.reflect.Modifier;
 import com.gentlyweb.utils.Getter;
 
 import org.josql.Query;
+import org.josql.internal.MetadataCache;
+import org.josql.internal.RowValues;
 import org.josql.internal.Utilities;
 import org.josql.exceptions.QueryExecutionException;
 import org.josql.exceptions.QueryParseException;
+import org.josql.functions.Deterministic;
+import org.josql.functions.FunctionRegistry;
 import org.josql.functions.NotFixedResults;
+import org.josql.functions.TypedFunction;
 
 /**
  * This class represents a Function that can be "called" in JoSQL.  
@@ -38,11 +45,28 @@ public class Function extends ValueExpression
     private String name = null;
     private List params = null;
     private Method function = null;
+    private TypedFunction typed = null;
     private Object handler = null;
     private boolean fixedResult = true;
     private Object fixedValue = null;
     private String acc = null;
     private Getter get = null;
+    private Expression[] args = null;
+    private boolean[] passExpression = null;
+
+    private int slot = -1;
+
+    private Map memo = null;
+    private long memoHits = 0;
+    private long memoMisses = 0;
+
+    /**
+     * The maximum number of results memoized by a {@link Deterministic deterministic} function.
+     */
+    public static final int MEMO_SIZE = 1024;
+
+    private static final Object[] NO_ARGS = new Object[0];
+    private static final Object NULL_RESULT = new Object ();
 
     public Getter getGetter ()
     {
@@ -82,10 +106,63 @@ public class Function extends ValueExpression
 
 	}
 
+	return this.getReturnType ();
+
+    }
+
+    private Class getReturnType ()
+    {
+
+	if (this.typed != null)
+	{
+
+	    return this.typed.getReturnType ();
+
+	}
+
 	return this.function.getReturnType ();
 
     }
 
+    /**
+     * @return The method this function is mapped to, null for a registered function
+     *         or if the function has not been inited.
+     */
+    public Method getMethod ()
+    {
+
+	return this.function;
+
+    }
+
+    /**
+     * @return The registered function this function is mapped to, null for a method
+     *         or if the function has not been inited.
+     */
+    public TypedFunction getTypedFunction ()
+    {
+
+	return this.typed;
+
+    }
+
+    /**
+     * @return The registered function or the method this function is mapped to.
+     */
+    private Object getTarget ()
+    {
+
+	if (this.typed != null)
+	{
+
+	    return this.typed;
+
+	}
+
+	return this.function;
+
+    }
+
     /**
      * This is a complex method that will initialise the function.
      * Firstly all of the "arguments" to the function are inited and then
@@ -124,7 +201,10 @@ public class Function extends ValueExpression
 	// or the built-in handlers.
         this.findMethod (q);
 
-	if (this.function == null)
+	if ((this.function == null)
+	    &&
+	    (this.typed == null)
+	   )
 	{
 
             Class[] ps = null;
@@ -156,6 +236,8 @@ public class Function extends ValueExpression
 
 	}
 
+        this.initInvocation ();
+
 	// Now see if we have an accessor for the function.
 	if (this.acc != null)
 	{
@@ -169,7 +251,7 @@ public class Function extends ValueExpression
 	// it won't have a fixed result.
 	if ((this.params != null)
             &&
-            (!NotFixedResults.class.isAssignableFrom (this.function.getDeclaringClass ()))
+            (this.typed != null ? !this.typed.isAggregate () : !NotFixedResults.class.isAssignableFrom (this.function.getDeclaringClass ()))
            )
 	{
 
@@ -194,6 +276,208 @@ public class Function extends ValueExpression
 
 	}
 
+	this.initMemo ();
+
+    }
+
+    /**
+     * A deterministic function that does not have a fixed result gets a bounded
+     * cache of its results keyed by the values of its arguments.
+     */
+    private void initMemo ()
+    {
+
+	this.memo = null;
+
+	if ((this.fixedResult)
+	    ||
+	    (this.args.length == 0)
+	    ||
+	    (!this.isDeterministic ())
+	   )
+	{
+
+	    return;
+
+	}
+
+	this.memo = new LinkedHashMap (16,
+				       0.75f,
+				       true)
+	{
+
+	    protected boolean removeEldestEntry (Map.Entry eldest)
+	    {
+
+		return this.size () > MEMO_SIZE;
+
+	    }
+
+	};
+
+    }
+
+    /**
+     * @return <code>true</code> if the result of the function only depends on the
+     *         values of its arguments, see: {@link Deterministic}.
+     */
+    public boolean isDeterministic ()
+    {
+
+	if (this.typed != null)
+	{
+
+	    return (this.typed.isDeterministic ()) && (!this.typed.isAggregate ());
+
+	}
+
+	if ((this.function == null)
+	    ||
+	    (!this.function.isAnnotationPresent (Deterministic.class))
+	   )
+	{
+
+	    return false;
+
+	}
+
+	for (int i = 0; i < this.passExpression.length; i++)
+	{
+
+	    if (this.passExpression[i])
+	    {
+
+		return false;
+
+	    }
+
+	}
+
+	return true;
+
+    }
+
+    /**
+     * A value that turns out to be <code>null</code> is got again with {@link #getValue(Object,Query)},
+     * so only a function that gives the same result each time is said to have a numeric value.
+     *
+     * @param q The Query object.
+     * @return <code>true</code> if the function is deterministic, or has a fixed result, and returns a number.
+     */
+    public boolean hasNumericValue (Query q)
+    {
+
+	return ((this.isDeterministic ())
+		||
+		(this.hasFixedResult (q))
+	       )
+	       &&
+	       (super.hasNumericValue (q));
+
+    }
+
+    /**
+     * Set the slot the value of this function is kept at for a row when it is
+     * found more than once in the query, see: {@link org.josql.internal.CommonSubExpressions}.
+     *
+     * @param slot The slot, -1 for none.
+     */
+    public void setRowValueSlot (int slot)
+    {
+
+	this.slot = slot;
+
+    }
+
+    public int getRowValueSlot ()
+    {
+
+	return this.slot;
+
+    }
+
+    /**
+     * @return <code>true</code> if the results of this function are memoized.
+     */
+    public boolean isMemoized ()
+    {
+
+	return this.memo != null;
+
+    }
+
+    /**
+     * @return The number of calls of this expression answered from the memoized results,
+     *         see {@link org.josql.QueryResults#getMemoCounts()} for the counts of the query.
+     */
+    public long getMemoHitCount ()
+    {
+
+	return this.memoHits;
+
+    }
+
+    /**
+     * @return The number of calls that had to be made, although memoized.
+     */
+    public long getMemoMissCount ()
+    {
+
+	return this.memoMisses;
+
+    }
+
+    /**
+     * Resolve once what is needed to call the method for each object: the arguments
+     * and which of them are passed as the expression itself rather than its value.
+     */
+    private void initInvocation ()
+    {
+
+	if (this.typed != null)
+	{
+
+	    int s = this.typed.getArity ();
+
+	    this.args = new Expression[s];
+	    this.passExpression = new boolean[s];
+
+	    for (int i = 0; i < s; i++)
+	    {
+
+		this.args[i] = (Expression) this.params.get (i);
+
+	    }
+
+	    return;
+
+	}
+
+	Class[] pts = this.function.getParameterTypes ();
+
+	this.args = new Expression[pts.length];
+	this.passExpression = new boolean[pts.length];
+
+	for (int i = 0; i < pts.length; i++)
+	{
+
+	    this.args[i] = (Expression) this.params.get (i);
+	    this.passExpression[i] = Expression.class.isAssignableFrom (pts[i]);
+
+	}
+
+	try
+	{
+
+	    // Skip the access checks made by each invocation.
+	    this.function.setAccessible (true);
+
+	} catch (SecurityException e) {
+
+	    // Keep the checked invocation.
+
+	}
+
     }
 
     private void initAccessor ()
@@ -201,7 +485,7 @@ public class Function extends ValueExpression
     {
 
         // We have an accessor, see what the functions return type is.
-        Class retType = this.function.getReturnType ();
+        Class retType = this.getReturnType ();
 
         // Ensure that the function DOES have a return type.
         if (Void.TYPE.isAssignableFrom (retType))
@@ -211,7 +495,7 @@ public class Function extends ValueExpression
             throw new QueryParseException ("Function: " + 
                                            this + 
                                            " maps to method: " +
-                                           this.function +
+                                           this.getTarget () +
                                            " however methods return type is \"void\" and an accessor: " +
                                            this.acc +
                                            " has been defined.");
@@ -229,15 +513,15 @@ public class Function extends ValueExpression
             try
             {
 
-                this.get = new Getter (this.acc,
-                                       retType);
+                this.get = MetadataCache.getGetter (this.acc,
+                                                    retType);
                 
             } catch (Exception e) {
 
                 throw new QueryParseException ("Function: " +
                                                this +
                                                " maps to method: " +
-                                               this.function +
+                                               this.getTarget () +
                                                " and has accessor: " +
                                                this.acc +
                                                " however no valid accessor has been found in return type: " +
@@ -259,14 +543,36 @@ public class Function extends ValueExpression
 
 	TreeMap ms = new TreeMap ();
 
+	Class[] argTypes = this.getExpectedArgTypes (q);
+
 	for (int i = 0; i < s; i++)
 	{
 
-	    Object fh = handlers.get (i);
+	    Class c = handlers.get (i).getClass ();
+
+	    // The matching only depends on the handler class and the expected
+	    // argument types, it is done once for all the queries.
+	    SortedMap cms = MetadataCache.getFunctionMethods (c,
+							      this.name,
+							      argTypes);
+
+	    if (cms == null)
+	    {
+
+		cms = new TreeMap ();
+
+		this.getMethods (c,
+				 argTypes,
+				 cms);
+
+		MetadataCache.putFunctionMethods (c,
+						  this.name,
+						  argTypes,
+						  cms);
 
-	    this.getMethods (fh.getClass (),
-			     q,
-			     ms);
+	    }
+
+	    ms.putAll (cms);
 		
 	}
 
@@ -301,6 +607,23 @@ public class Function extends ValueExpression
                              throws QueryParseException
     {
 
+        FunctionRegistry reg = q.getFunctionRegistry ();
+
+        if (reg != null)
+        {
+
+            this.typed = reg.getFunction (this.name,
+                                          (this.params != null) ? this.params.size () : 0);
+
+            if (this.typed != null)
+            {
+
+                return;
+
+            }
+
+        }
+
         List fhs = q.getFunctionHandlers ();
         
         if (fhs != null)
@@ -348,6 +671,48 @@ public class Function extends ValueExpression
 
     }
 
+    /**
+     * @param i The index of a parameter.
+     * @return <code>true</code> if the method is passed the expression of the parameter
+     *         itself rather than its value, known once inited.
+     */
+    public boolean isExpressionParameter (int i)
+    {
+
+	return (this.passExpression != null)
+	       &&
+	       (i < this.passExpression.length)
+	       &&
+	       (this.passExpression[i]);
+
+    }
+
+    /**
+     * Replace a parameter, once inited, with an expression that has the same value,
+     * see: {@link org.josql.internal.ExpressionOptimizer}.
+     *
+     * @param i The index of the parameter, it must not be an {@link #isExpressionParameter(int) expression parameter}.
+     * @param e The expression.
+     */
+    public void setParameter (int        i,
+			      Expression e)
+    {
+
+	this.params.set (i,
+			 e);
+
+	if ((this.args != null)
+	    &&
+	    (i < this.args.length)
+	   )
+	{
+
+	    this.args[i] = e;
+
+	}
+
+    }
+
     public void setName (String name)
     {
 
@@ -379,63 +744,54 @@ public class Function extends ValueExpression
 	                    throws QueryExecutionException
     {
 
-	// See if we have a fixed result.
-	if (this.fixedResult)
+	if (this.slot > -1)
 	{
 
-	    // Evaluated once...
-	    if (this.fixedValue != null)
-	    {
+	    RowValues rv = q.getRowValues ();
 
-		return this.fixedValue;
-
-	    }
+	    if (rv != null)
+	    {
 
-	}
+		Object v = rv.get (this.slot,
+				   o);
 
-	// Get the values for the parameters... if any...
-	Object[] ps = null;
+		if (v == RowValues.NOT_SET)
+		{
 
-	if (this.params != null)
-	{
+		    v = this.evaluateFunction (o,
+					       q);
 
-	    int s = this.params.size ();
+		    rv.put (this.slot,
+			    o,
+			    v);
 
-	    ps = new Object[s];
+		}
 
-	    for (int i = 0; i < s; i++)
-	    {
+		return v;
 
-		Expression exp = (Expression) this.params.get (i);
+	    }
 
-	        if (Expression.class.isAssignableFrom (this.function.getParameterTypes ()[i]))
-		{
+	}
 
-		    // Leave this one alone.
-		    ps[i] = exp;
+	return this.evaluateFunction (o,
+				      q);
 
-		} else {
+    }
 
-		    // Eval this expression.
-		    try
-		    {
+    private Object evaluateFunction (Object o,
+				     Query  q)
+	                             throws QueryExecutionException
+    {
 
-			ps[i] = exp.getValue (o,
-					      q);
+	// See if we have a fixed result.
+	if (this.fixedResult)
+	{
 
-		    } catch (Exception e) {
-			
-			throw new QueryExecutionException ("Unable to get parameter: " + 
-							   i + 
-							   " (\"" +
-							   exp.toString () + 
-							   "\") for function: " +
-							   this.name,
-							   e);
-			
-		    }
+	    // Evaluated once...
+	    if (this.fixedValue != null)
+	    {
 
-		}
+		return this.fixedValue;
 
 	    }
 
@@ -443,21 +799,24 @@ public class Function extends ValueExpression
 
 	Object v = null;
 
-	try
+	if (this.memo != null)
 	{
 
-	    v = this.function.invoke (this.handler,
-				      ps);
+	    v = this.evaluateMemoized (o,
+				       q);
 
-	} catch (Exception e) {
+	} else if (this.typed != null)
+	{
 
-	    throw new QueryExecutionException ("Unable to execute function: " + 
-					       this.name + 
-					       " (\"" +
-					       this.toString () + 
-					       "\") with values: " +
-					       Arrays.asList (ps),
-					       e);
+	    // A registered function, called directly.
+	    v = this.typed.evaluate (this.args,
+				     o,
+				     q);
+
+	} else {
+
+	    v = this.invoke (this.getArgumentValues (o,
+						     q));
 
 	}
 
@@ -477,8 +836,8 @@ public class Function extends ValueExpression
 		    try
 		    {
 
-			this.get = new Getter (this.acc,
-					       v.getClass ());
+			this.get = MetadataCache.getGetter (this.acc,
+							    v.getClass ());
 			
 		    } catch (Exception e) {
 			
@@ -526,6 +885,152 @@ public class Function extends ValueExpression
 
     }
 
+    private Object evaluateMemoized (Object o,
+				     Query  q)
+	                             throws QueryExecutionException
+    {
+
+	Object[] ps = this.getArgumentValues (o,
+					      q);
+
+	List key = Arrays.asList (ps);
+
+	Object v = null;
+
+	synchronized (this.memo)
+	{
+
+	    v = this.memo.get (key);
+
+	    if (v != null)
+	    {
+
+		this.memoHits++;
+
+		q.getQueryResults ().getMemoCounts ().record (this.name,
+							      true);
+
+		return (v == NULL_RESULT) ? null : v;
+
+	    }
+
+	    this.memoMisses++;
+
+	}
+
+	q.getQueryResults ().getMemoCounts ().record (this.name,
+						      false);
+
+	if (this.typed != null)
+	{
+
+	    v = this.typed.call (ps);
+
+	} else {
+
+	    v = this.invoke (ps);
+
+	}
+
+	synchronized (this.memo)
+	{
+
+	    this.memo.put (key,
+			   (v == null) ? NULL_RESULT : v);
+
+	}
+
+	return v;
+
+    }
+
+    /**
+     * Get the values to call the function with.
+     */
+    private Object[] getArgumentValues (Object o,
+					Query  q)
+	                                throws QueryExecutionException
+    {
+
+	// Get the values for the parameters... if any...
+	Object[] ps = NO_ARGS;
+
+	int s = this.args.length;
+
+	if (s > 0)
+	{
+
+	    ps = new Object[s];
+
+	    for (int i = 0; i < s; i++)
+	    {
+
+		Expression exp = this.args[i];
+
+	        if (this.passExpression[i])
+		{
+
+		    // Leave this one alone.
+		    ps[i] = exp;
+
+		} else {
+
+		    // Eval this expression.
+		    try
+		    {
+
+			ps[i] = exp.getValue (o,
+					      q);
+
+		    } catch (Exception e) {
+			
+			throw new QueryExecutionException ("Unable to get parameter: " + 
+							   i + 
+							   " (\"" +
+							   exp.toString () + 
+							   "\") for function: " +
+							   this.name,
+							   e);
+			
+		    }
+
+		}
+
+	    }
+
+	}
+
+	return ps;
+
+    }
+
+    /**
+     * Invoke the method this function is mapped to.
+     */
+    private Object invoke (Object[] ps)
+	                   throws QueryExecutionException
+    {
+
+	try
+	{
+
+	    return this.function.invoke (this.handler,
+					 ps);
+
+	} catch (Exception e) {
+
+	    throw new QueryExecutionException ("Unable to execute function: " + 
+					       this.name + 
+					       " (\"" +
+					       this.toString () + 
+					       "\") with values: " +
+					       Arrays.asList (ps),
+					       e);
+
+	}
+
+    }
+
     /**
      * Return whether the evaluation of this function (see: {@link #evaluate(Object,Query)})
      * will result in a <code>true</code> value.
@@ -643,9 +1148,36 @@ public class Function extends ValueExpression
 
     }
 
+    private Class[] getExpectedArgTypes (Query q)
+                                         throws QueryParseException
+    {
+
+	if (this.params == null)
+	{
+
+	    return new Class[0];
+
+	}
+
+	int s = this.params.size ();
+
+	Class[] types = new Class[s];
+
+	for (int i = 0; i < s; i++)
+	{
+
+	    Expression exp = (Expression) this.params.get (i);
+
+	    types[i] = exp.getExpectedReturnType (q);
+
+	}
+
+	return types;
+
+    }
+
     private int matchMethodArgs (Class[] methArgs,
-				 Query   q)
-                                 throws  QueryParseException
+				 Class[] argTypes)
     {
 
 	// The score here helps in argument resolution, a more specific argument
@@ -657,8 +1189,6 @@ public class Function extends ValueExpression
 	{
 
 	    Class c = methArgs[i];
-	    
-	    Expression exp = (Expression) this.params.get (i);
 
 	    // See if the arg is object, which means "I can accept any type".
 	    if (c.getClass ().getName ().equals (Object.class.getName ()))
@@ -671,7 +1201,7 @@ public class Function extends ValueExpression
 	    }
 
 	    // Now try and get the expected return type...
-	    Class expC = exp.getExpectedReturnType (q);
+	    Class expC = argTypes[i];
 
 	    if (expC == null)
 	    {
@@ -760,10 +1290,9 @@ public class Function extends ValueExpression
 
     } 
 
-    private void getMethods (Class  c,
-			     Query  q,
-			     Map    matches)
-                             throws QueryParseException
+    private void getMethods (Class   c,
+			     Class[] argTypes,
+			     Map     matches)
     {
 
 	Method[] meths = c.getMethods ();
@@ -801,12 +1330,7 @@ public class Function extends ValueExpression
 
 	    }
 
-	    if (this.params != null)
-	    {
-
-		fps = this.params.size ();
-
-	    }
+	    fps = argTypes.length;
 
 	    if (ps != fps)
 	    {
@@ -816,7 +1340,7 @@ public class Function extends ValueExpression
 	    }
 
 	    int score = this.matchMethodArgs (mpt,
-					      q);
+					      argTypes);
 
 	    if (score > 0)
 	    {
@@ -16,6 +16,8 @@ package org.josql.expressions;
 
 import org.josql.Query;
 import org.josql.exceptions.QueryExecutionException;
+import org.josql.exceptions.QueryParseException;
+import org.josql.internal.NumberComparison;
 import org.josql.internal.Utilities;
 
 /**
@@ -35,6 +37,8 @@ public class GTLTExpression extends BinaryExpression
 
     private int type = -1;
     private boolean ignoreCase = false;
+    private int leftType = NumberComparison.NONE;
+    private int rightType = NumberComparison.NONE;
 
     public int getType ()
     {
@@ -70,6 +74,31 @@ public class GTLTExpression extends BinaryExpression
 
     }
 
+    /**
+     * Inits the LHS and RHS, when they both have numeric values they are compared
+     * without creating any number objects, see {@link NumberComparison}.
+     *
+     * @param q The Query object.
+     * @throws QueryParseException If the LHS or RHS cannot be inited.
+     */
+    public void init (Query q)
+	              throws QueryParseException
+    {
+
+	super.init (q);
+
+	if (!this.ignoreCase)
+	{
+
+	    this.leftType = NumberComparison.getType (this.left,
+						      q);
+	    this.rightType = NumberComparison.getType (this.right,
+						       q);
+
+	}
+
+    }
+
     /**
      * Return whether this expression evaluates to true.  The actual comparison
      * is performed by: {@link Utilities#compare(Object,Object)} which copes with
@@ -85,6 +114,33 @@ public class GTLTExpression extends BinaryExpression
 	                   throws QueryExecutionException
     {
 
+	if ((this.leftType != NumberComparison.NONE)
+	    &&
+	    (this.rightType != NumberComparison.NONE)
+	    &&
+	    (!Utilities.hasObjectComparator ())
+	   )
+	{
+
+	    int c = NumberComparison.compare (this.left,
+					      this.leftType,
+					      this.right,
+					      this.rightType,
+					      o,
+					      q);
+
+	    if (c != NumberComparison.UNKNOWN)
+	    {
+
+		return Utilities.matches (c,
+					  this.type);
+
+	    }
+
+	    // A null, let the values decide.
+
+	}
+
 	// Get the lhs.
 	Object l = this.left.getValue (o,
 				       q);
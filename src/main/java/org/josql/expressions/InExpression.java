@@ -17,8 +17,11 @@ package org.josql.expressions;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Iterator;
+import java.util.Set;
 
 import org.josql.Query;
 import org.josql.exceptions.QueryExecutionException;
@@ -44,6 +47,12 @@ public class InExpression extends BinaryExpression
     private boolean all = false;
     private boolean ignoreCase = false;
 
+    // The constant items hashed, see: initHashLookup.
+    private Map numberItems = null;
+    private Set stringItems = null;
+    private Set numberStrings = null;
+    private boolean nullItem = false;
+
     /**
      * Initialise the IN expression.  Init the LHS and then all of the values in the brackets.
      * 
@@ -67,6 +76,154 @@ public class InExpression extends BinaryExpression
 
 	}
 
+	this.initHashLookup ();
+
+    }
+
+    /**
+     * When all the items are constants, and this is not a LIKE or ALL expression, hash
+     * them so that the LHS is looked up rather than compared to each item in turn.
+     * The lookup gives the same result as {@link Utilities#isEquals(Object,Object)}:
+     * numbers are looked up by their {@link Utilities#getNumberKey(Number) exact value},
+     * then compared, and anything else by its string value.
+     */
+    public void initHashLookup ()
+    {
+
+	this.numberItems = null;
+	this.stringItems = null;
+	this.numberStrings = null;
+	this.nullItem = false;
+
+	if ((this.doLike)
+	    ||
+	    (this.all)
+	    ||
+	    (this.ignoreCase)
+	   )
+	{
+
+	    return;
+
+	}
+
+	int s = this.items.size ();
+
+	for (int i = 0; i < s; i++)
+	{
+
+	    if (!(this.items.get (i) instanceof ConstantExpression))
+	    {
+
+		return;
+
+	    }
+
+	}
+
+	Map nums = new HashMap ();
+	Set strs = new HashSet ();
+	Set numStrs = new HashSet ();
+
+	for (int i = 0; i < s; i++)
+	{
+
+	    Object v = ((ConstantExpression) this.items.get (i)).getValue (null,
+									   null);
+
+	    if (v == null)
+	    {
+
+		this.nullItem = true;
+
+	    } else if (v instanceof Number)
+	    {
+
+		Object k = Utilities.getNumberKey ((Number) v);
+
+		List l = (List) nums.get (k);
+
+		if (l == null)
+		{
+
+		    l = new ArrayList ();
+
+		    nums.put (k,
+			      l);
+
+		}
+
+		l.add (v);
+		numStrs.add (v.toString ());
+
+	    } else {
+
+		strs.add (v.toString ());
+
+	    }
+
+	}
+
+	this.numberItems = nums;
+	this.stringItems = strs;
+	this.numberStrings = numStrs;
+
+    }
+
+    /**
+     * @return <code>true</code> if the items are hashed.
+     */
+    public boolean isHashLookup ()
+    {
+
+	return this.stringItems != null;
+
+    }
+
+    private boolean isInHashedItems (Object l)
+    {
+
+	if (l == null)
+	{
+
+	    return this.nullItem;
+
+	}
+
+	if (l instanceof Number)
+	{
+
+	    // A number is compared by value to a number and by string to anything else.
+	    List nums = (List) this.numberItems.get (Utilities.getNumberKey ((Number) l));
+
+	    if (nums != null)
+	    {
+
+		for (int i = 0; i < nums.size (); i++)
+		{
+
+		    if (Utilities.isEquals (l,
+					    nums.get (i)))
+		    {
+
+			return true;
+
+		    }
+
+		}
+
+	    }
+
+	    return this.stringItems.contains (l.toString ());
+
+	}
+
+	String v = l.toString ();
+
+	return (this.stringItems.contains (v))
+	       ||
+	       (this.numberStrings.contains (v));
+
     }
 
     public void setIgnoreCase (boolean v)
@@ -165,6 +322,16 @@ public class InExpression extends BinaryExpression
 	Object l = this.left.getValue (o,
 				       q);
 
+	if ((this.stringItems != null)
+	    &&
+	    (!Utilities.hasObjectComparator ())
+	   )
+	{
+
+	    return this.isInHashedItems (l) != this.not;
+
+	}
+
 	String v = null;
 	String wc = String.valueOf (q.getWildcardCharacter ());
 
@@ -20,6 +20,7 @@ import org.josql.Query;
 import org.josql.exceptions.QueryExecutionException;
 import org.josql.exceptions.QueryParseException;
 import org.josql.internal.Utilities;
+import org.josql.internal.MetadataCache;
 
 import com.gentlyweb.utils.Getter;
 
@@ -29,6 +30,7 @@ public class SaveValue extends ValueExpression
     private String name = null;
     private String acc = null;
     private Getter get = null;
+    private int slot = -1;
 
     @Override
 	public Class getExpectedReturnType (final Query  q)
@@ -48,8 +50,8 @@ public class SaveValue extends ValueExpression
 		try
 		{
 
-		    get = new Getter (acc,
-					   sv.getClass ());
+		    get = MetadataCache.getGetter (acc,
+						   sv.getClass ());
 
 		} catch (Exception e) {
 		    
@@ -80,7 +82,8 @@ public class SaveValue extends ValueExpression
 	public void init (final Query  q)
     {
 
-	// Nothing to do...
+	// The value is then got by slot rather than by name.
+	slot = q.getSaveValueSlot (name);
 
     }
 
@@ -103,7 +106,7 @@ public class SaveValue extends ValueExpression
 	                    throws QueryExecutionException
     {
 
-		Object v = q.getSaveValue (name);
+		Object v = (slot > -1) ? q.getSaveValueAt (slot) : q.getSaveValue (name);
 	
 		if (v == null) {
 	
@@ -131,7 +134,7 @@ public class SaveValue extends ValueExpression
 	
 		    try {
 	
-		    	get = new Getter (acc, v.getClass ());
+		    	get = MetadataCache.getGetter (acc, v.getClass ());
 	
 		    } catch (Exception e) {
 	
@@ -26,6 +26,7 @@ import org.josql.QueryResults;
 import org.josql.events.*;
 import org.josql.exceptions.QueryExecutionException;
 import org.josql.exceptions.QueryParseException;
+import org.josql.internal.MetadataCache;
 
 public class SubQueryExpression extends ValueExpression implements BindVariableChangedListener,
 						   	           SaveValueChangedListener
@@ -146,8 +147,8 @@ public class SubQueryExpression extends ValueExpression implements BindVariableC
 	    try
 	    {
 
-		this.get = new Getter (this.acc,
-				       ArrayList.class);
+		this.get = MetadataCache.getGetter (this.acc,
+						    ArrayList.class);
 		    
 	    } catch (Exception e) {
 
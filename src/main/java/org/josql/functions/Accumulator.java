@@ -0,0 +1,33 @@
+package org.josql.functions;
+
+/**
+ * An aggregate function, registered by name in a {@link FunctionRegistry}.  Its
+ * argument is evaluated against each object in context (the value of the <code>:_allobjs</code>
+ * special bind variable, i.e. the group objects when used on the GROUP BY results)
+ * and the values are accumulated in a state.
+ *
+ * @param <S> The type of the state.
+ */
+public interface Accumulator<S>
+{
+
+    /**
+     * @return A new state.
+     */
+    public S start ();
+
+    /**
+     * @param state The current state.
+     * @param v The value of the argument for an object.
+     * @return The new state, can be the same object.
+     */
+    public S add (S      state,
+		  Object v);
+
+    /**
+     * @param state The final state.
+     * @return The result of the aggregate.
+     */
+    public Object finish (S state);
+
+}
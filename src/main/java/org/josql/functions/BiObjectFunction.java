@@ -0,0 +1,17 @@
+package org.josql.functions;
+
+/**
+ * A function of two arguments, registered by name in a {@link FunctionRegistry}.
+ */
+public interface BiObjectFunction
+{
+
+    /**
+     * @param v1 The value of the first argument.
+     * @param v2 The value of the second argument.
+     * @return The result.
+     */
+    public Object apply (Object v1,
+			 Object v2);
+
+}
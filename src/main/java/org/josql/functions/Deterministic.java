@@ -0,0 +1,28 @@
+package org.josql.functions;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a function handler method whose result only depends on the values of its
+ * arguments.  Its results are then memoized by the function, keyed by the argument
+ * values, so that the method is only called once for repeated values.
+ * <p>
+ * The same result object is then returned for every row with the same arguments, or
+ * for every row when the arguments are fixed, so only mark a method whose result is
+ * immutable (a <code>String</code>, a <code>Number</code>, a <code>Boolean</code>...),
+ * not one returning a <code>java.util.Date</code> or a collection.
+ * <p>
+ * The methods taking an {@link org.josql.expressions.Expression} argument are never
+ * memoized.
+ */
+@Documented
+@Retention (RetentionPolicy.RUNTIME)
+@Target (ElementType.METHOD)
+public @interface Deterministic
+{
+
+}
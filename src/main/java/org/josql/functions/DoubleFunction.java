@@ -0,0 +1,16 @@
+package org.josql.functions;
+
+/**
+ * A numeric function of one argument, registered by name in a {@link FunctionRegistry}.
+ * The argument is converted to a double, a null argument gives a null result.
+ */
+public interface DoubleFunction
+{
+
+    /**
+     * @param v The value of the argument.
+     * @return The result.
+     */
+    public double apply (double v);
+
+}
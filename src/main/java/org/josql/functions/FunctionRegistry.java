@@ -0,0 +1,171 @@
+package org.josql.functions;
+
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+
+/**
+ * A set of functions registered by name and called directly through their
+ * interface, without the reflective method lookup and invocation of the function
+ * handlers.  The functions of a registry are looked up before the methods of the
+ * function handlers, a registry can be shared by any number of queries.
+ * <p>
+ * Usage:
+ * <pre>
+ *   FunctionRegistry reg = new FunctionRegistry ();
+ *   reg.register ("half", new DoubleFunction ()
+ *   {
+ *       public double apply (double v)
+ *       {
+ *           return v / 2;
+ *       }
+ *   });
+ *
+ *   Query q = new Query ();
+ *   q.setFunctionRegistry (reg);
+ *   q.parse ("SELECT * FROM java.io.File WHERE half(length) &gt; 1024");
+ * </pre>
+ */
+public class FunctionRegistry
+{
+
+    private Map<String, TypedFunction> functions = Maps.newConcurrentMap ();
+
+    /**
+     * Register a function of one argument.
+     *
+     * @param name The function name.
+     * @param f The function.
+     * @return The registered function, to mark it as {@link TypedFunction#setDeterministic(boolean) deterministic}.
+     */
+    public TypedFunction register (String         name,
+			  ObjectFunction f)
+    {
+
+	return this.register (new TypedFunction.Unary (name,
+						f));
+
+    }
+
+    /**
+     * Register a function of two arguments.
+     *
+     * @param name The function name.
+     * @param f The function.
+     * @return The registered function, to mark it as {@link TypedFunction#setDeterministic(boolean) deterministic}.
+     */
+    public TypedFunction register (String           name,
+			  BiObjectFunction f)
+    {
+
+	return this.register (new TypedFunction.Binary (name,
+						 f));
+
+    }
+
+    /**
+     * Register a numeric function of one argument.
+     *
+     * @param name The function name.
+     * @param f The function.
+     * @return The registered function, to mark it as {@link TypedFunction#setDeterministic(boolean) deterministic}.
+     */
+    public TypedFunction register (String         name,
+			  DoubleFunction f)
+    {
+
+	return this.register (new TypedFunction.ToDouble (name,
+						   f));
+
+    }
+
+    /**
+     * Register a boolean function of one argument.
+     *
+     * @param name The function name.
+     * @param f The function.
+     * @return The registered function, to mark it as {@link TypedFunction#setDeterministic(boolean) deterministic}.
+     */
+    public TypedFunction register (String          name,
+			  ObjectPredicate f)
+    {
+
+	return this.register (new TypedFunction.Predicate (name,
+						    f));
+
+    }
+
+    /**
+     * Register an aggregate function of one argument.
+     *
+     * @param name The function name.
+     * @param f The accumulator.
+     * @return The registered function.
+     */
+    public TypedFunction register (String      name,
+			  Accumulator f)
+    {
+
+	return this.register (new TypedFunction.Aggregate (name,
+						    f));
+
+    }
+
+    /**
+     * Register a function, it replaces a function with the same name and number
+     * of arguments.
+     *
+     * @param f The function.
+     * @return The function.
+     */
+    public TypedFunction register (TypedFunction f)
+    {
+
+	this.functions.put (FunctionRegistry.getKey (f.getName (),
+						     f.getArity ()),
+			    f);
+
+	return f;
+
+    }
+
+    /**
+     * Remove a function.
+     *
+     * @param name The function name.
+     * @param arity The number of arguments.
+     */
+    public void unregister (String name,
+			    int    arity)
+    {
+
+	this.functions.remove (FunctionRegistry.getKey (name,
+							arity));
+
+    }
+
+    /**
+     * Get a function.
+     *
+     * @param name The function name.
+     * @param arity The number of arguments.
+     * @return The function or null if there is no such function.
+     */
+    public TypedFunction getFunction (String name,
+				      int    arity)
+    {
+
+	return this.functions.get (FunctionRegistry.getKey (name,
+							    arity));
+
+    }
+
+    private static String getKey (String name,
+				  int    arity)
+    {
+
+	return name + "/" + arity;
+
+    }
+
+}
@@ -89,8 +89,8 @@ public class MiscellaneousFunctions extends AbstractFunctionHandler
 	    try
 	    {
 
-		this.q.setSaveValue (o,
-				     get.getValue (o));
+		this.q.setObjectValue (o,
+				       get.getValue (o));
 
 	    } catch (Exception e) {
 
@@ -125,9 +125,9 @@ public class MiscellaneousFunctions extends AbstractFunctionHandler
 	    try
 	    {
 
-		this.q.setSaveValue (o,
-				     exp.getValue (o,
-						   q));
+		this.q.setObjectValue (o,
+				       exp.getValue (o,
+						     q));
 
 	    } catch (Exception e) {
 
@@ -0,0 +1,15 @@
+package org.josql.functions;
+
+/**
+ * A function of one argument, registered by name in a {@link FunctionRegistry}.
+ */
+public interface ObjectFunction
+{
+
+    /**
+     * @param v The value of the argument.
+     * @return The result.
+     */
+    public Object apply (Object v);
+
+}
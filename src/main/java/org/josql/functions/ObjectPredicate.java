@@ -0,0 +1,15 @@
+package org.josql.functions;
+
+/**
+ * A boolean function of one argument, registered by name in a {@link FunctionRegistry}.
+ */
+public interface ObjectPredicate
+{
+
+    /**
+     * @param v The value of the argument.
+     * @return The result.
+     */
+    public boolean test (Object v);
+
+}
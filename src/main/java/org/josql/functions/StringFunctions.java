@@ -41,6 +41,7 @@ public class StringFunctions extends AbstractFunctionHandler
      * @throws QueryExecutionException If the match cannot be performed, or if there is no suitable
      *                                 regular expression library available to the {@link RegExpFactory}.
      */
+    @Deterministic
     public boolean regexp (Object o,
 			   String re)
 	                   throws QueryExecutionException
@@ -81,6 +82,7 @@ public class StringFunctions extends AbstractFunctionHandler
      * @throws QueryExecutionException If the match cannot be performed, or if the <b>instName</b> 
      *                                 regular expression library is not available to the {@link RegExpFactory}.
      */
+    @Deterministic
     public boolean regexp (Object o,
 			   String re,
 			   String instName)
@@ -0,0 +1,422 @@
+package org.josql.functions;
+
+import java.util.List;
+
+import org.josql.Query;
+import org.josql.exceptions.QueryExecutionException;
+import org.josql.expressions.Expression;
+import org.josql.internal.Utilities;
+
+/**
+ * A function registered in a {@link FunctionRegistry}, it is called directly through
+ * its interface instead of being found and invoked by reflection.
+ */
+public abstract class TypedFunction
+{
+
+    private String name = null;
+    private int arity = 0;
+    private Class returnType = null;
+    private boolean deterministic = false;
+
+    protected TypedFunction (String name,
+			     int    arity,
+			     Class  returnType)
+    {
+
+	this.name = name;
+	this.arity = arity;
+	this.returnType = returnType;
+
+    }
+
+    public String getName ()
+    {
+
+	return this.name;
+
+    }
+
+    /**
+     * @return The number of arguments.
+     */
+    public int getArity ()
+    {
+
+	return this.arity;
+
+    }
+
+    /**
+     * @return The type of the values returned by the function.
+     */
+    public Class getReturnType ()
+    {
+
+	return this.returnType;
+
+    }
+
+    /**
+     * @return <code>true</code> if the function aggregates the objects in context,
+     *         its result is then not fixed even for fixed arguments.
+     */
+    public boolean isAggregate ()
+    {
+
+	return false;
+
+    }
+
+    /**
+     * @return The accumulator of an aggregate, null for any other function.
+     */
+    public Accumulator getAccumulator ()
+    {
+
+	return null;
+
+    }
+
+    /**
+     * @return <code>true</code> if the result only depends on the values of the arguments,
+     *         it is then memoized by the function.
+     */
+    public boolean isDeterministic ()
+    {
+
+	return this.deterministic;
+
+    }
+
+    /**
+     * Mark the function as returning the same result for the same argument values,
+     * its results are then memoized.  Has no effect for an aggregate.  The result must be
+     * immutable since it is shared, see: {@link Deterministic}.
+     *
+     * @param v <code>true</code> if the function is deterministic.
+     * @return This function.
+     */
+    public TypedFunction setDeterministic (boolean v)
+    {
+
+	this.deterministic = v;
+
+	return this;
+
+    }
+
+    /**
+     * Call the function with the values of its arguments.
+     *
+     * @param values The values of the arguments.
+     * @return The result of the function.
+     */
+    public abstract Object call (Object[] values);
+
+    /**
+     * Call the function.
+     *
+     * @param args The argument expressions.
+     * @param o The current object.
+     * @param q The Query object.
+     * @return The result of the function.
+     * @throws QueryExecutionException If an argument cannot be evaluated or the function fails.
+     */
+    public abstract Object evaluate (Expression[] args,
+				     Object       o,
+				     Query        q)
+	                             throws       QueryExecutionException;
+
+    protected Object getArgument (Expression exp,
+				  Object     o,
+				  Query      q)
+	                          throws     QueryExecutionException
+    {
+
+	try
+	{
+
+	    return exp.getValue (o,
+				 q);
+
+	} catch (QueryExecutionException e) {
+
+	    throw e;
+
+	} catch (Exception e) {
+
+	    throw new QueryExecutionException ("Unable to get argument: \"" +
+					       exp +
+					       "\" for function: " +
+					       this.name,
+					       e);
+
+	}
+
+    }
+
+    public String toString ()
+    {
+
+	return this.name + "/" + this.arity + " (registered function)";
+
+    }
+
+    static class Unary extends TypedFunction
+    {
+
+	private ObjectFunction f = null;
+
+	Unary (String         name,
+	       ObjectFunction f)
+	{
+
+	    super (name,
+		   1,
+		   Object.class);
+
+	    this.f = f;
+
+	}
+
+	public Object evaluate (Expression[] args,
+				Object       o,
+				Query        q)
+	                        throws       QueryExecutionException
+	{
+
+	    return this.f.apply (this.getArgument (args[0],
+						   o,
+						   q));
+
+	}
+
+	public Object call (Object[] values)
+	{
+
+	    return this.f.apply (values[0]);
+
+	}
+
+    }
+
+    static class Binary extends TypedFunction
+    {
+
+	private BiObjectFunction f = null;
+
+	Binary (String           name,
+		BiObjectFunction f)
+	{
+
+	    super (name,
+		   2,
+		   Object.class);
+
+	    this.f = f;
+
+	}
+
+	public Object evaluate (Expression[] args,
+				Object       o,
+				Query        q)
+	                        throws       QueryExecutionException
+	{
+
+	    return this.f.apply (this.getArgument (args[0],
+						   o,
+						   q),
+				 this.getArgument (args[1],
+						   o,
+						   q));
+
+	}
+
+	public Object call (Object[] values)
+	{
+
+	    return this.f.apply (values[0],
+				 values[1]);
+
+	}
+
+    }
+
+    static class ToDouble extends TypedFunction
+    {
+
+	private DoubleFunction f = null;
+
+	ToDouble (String         name,
+		  DoubleFunction f)
+	{
+
+	    super (name,
+		   1,
+		   Double.class);
+
+	    this.f = f;
+
+	}
+
+	public Object evaluate (Expression[] args,
+				Object       o,
+				Query        q)
+	                        throws       QueryExecutionException
+	{
+
+	    Object v = this.getArgument (args[0],
+					 o,
+					 q);
+
+	    if (v == null)
+	    {
+
+		return null;
+
+	    }
+
+	    return Double.valueOf (this.f.apply (Utilities.getDouble (v)));
+
+	}
+
+	public Object call (Object[] values)
+	{
+
+	    if (values[0] == null)
+	    {
+
+		return null;
+
+	    }
+
+	    return Double.valueOf (this.f.apply (Utilities.getDouble (values[0])));
+
+	}
+
+    }
+
+    static class Predicate extends TypedFunction
+    {
+
+	private ObjectPredicate f = null;
+
+	Predicate (String          name,
+		   ObjectPredicate f)
+	{
+
+	    super (name,
+		   1,
+		   Boolean.class);
+
+	    this.f = f;
+
+	}
+
+	public Object evaluate (Expression[] args,
+				Object       o,
+				Query        q)
+	                        throws       QueryExecutionException
+	{
+
+	    // Boolean.valueOf does not allocate.
+	    return Boolean.valueOf (this.f.test (this.getArgument (args[0],
+								   o,
+								   q)));
+
+	}
+
+	public Object call (Object[] values)
+	{
+
+	    return Boolean.valueOf (this.f.test (values[0]));
+
+	}
+
+    }
+
+    static class Aggregate extends TypedFunction
+    {
+
+	private Accumulator f = null;
+
+	Aggregate (String      name,
+		   Accumulator f)
+	{
+
+	    super (name,
+		   1,
+		   Object.class);
+
+	    this.f = f;
+
+	}
+
+	public boolean isAggregate ()
+	{
+
+	    return true;
+
+	}
+
+	public Accumulator getAccumulator ()
+	{
+
+	    return this.f;
+
+	}
+
+	public Object evaluate (Expression[] args,
+				Object       o,
+				Query        q)
+	                        throws       QueryExecutionException
+	{
+
+	    List objs = q.getAllObjects ();
+
+	    Object currObj = q.getCurrentObject ();
+
+	    Object state = this.f.start ();
+
+	    try
+	    {
+
+		int s = (objs != null) ? objs.size () : 0;
+
+		for (int i = 0; i < s; i++)
+		{
+
+		    Object io = objs.get (i);
+
+		    q.setCurrentObject (io);
+
+		    state = this.f.add (state,
+					this.getArgument (args[0],
+							  io,
+							  q));
+
+		}
+
+	    } finally {
+
+		q.setCurrentObject (currObj);
+
+	    }
+
+	    return this.f.finish (state);
+
+	}
+
+	public Object call (Object[] values)
+	{
+
+	    throw new UnsupportedOperationException ("The aggregate: " +
+						     this +
+						     " can only be evaluated against the objects in context.");
+
+	}
+
+    }
+
+}
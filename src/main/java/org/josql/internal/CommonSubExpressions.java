@@ -0,0 +1,468 @@
+package org.josql.internal;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.josql.expressions.Accessor;
+import org.josql.expressions.AdaptiveAndOrExpression;
+import org.josql.expressions.AliasedExpression;
+import org.josql.expressions.ArithmeticExpression;
+import org.josql.expressions.BetweenExpression;
+import org.josql.expressions.BinaryExpression;
+import org.josql.expressions.ConstantExpression;
+import org.josql.expressions.Expression;
+import org.josql.expressions.ExpressionList;
+import org.josql.expressions.Function;
+import org.josql.expressions.InExpression;
+import org.josql.expressions.SelectItemExpression;
+
+/**
+ * Finds the expressions that are found more than once in the WHERE clause, the
+ * select columns and the ORDER BY of a query, such as: <code>toDate(ts, 'yyyy')</code>
+ * or <code>details.account.owner</code>, and gives them a slot so that they are
+ * evaluated once per row, see {@link RowValues}.
+ * <p>
+ * Only the expressions whose value depends on nothing but the row are shared:
+ * accessor chains and {@link org.josql.functions.Deterministic deterministic}
+ * functions of such expressions and constants.  A single method accessor is cheaper
+ * to call again than to look up so it is not shared.
+ */
+public class CommonSubExpressions
+{
+
+    private Map<String, List<Expression>> found = new LinkedHashMap<String, List<Expression>> ();
+
+    // The keys of the expressions found in the select columns or the ORDER BY.
+    private Set<String> afterWhere = new HashSet<String> ();
+    private boolean inWhere = false;
+
+    private int slots = 0;
+    private boolean usedAfterWhere = false;
+
+    private CommonSubExpressions ()
+    {
+
+    }
+
+    /**
+     * Give a slot to the expressions shared by the clauses, the expressions must
+     * have been inited.
+     *
+     * @param where The where clause, can be null.
+     * @param cols The select columns, can be null.
+     * @param orderBys The order bys, can be null.
+     * @return The slots given, see {@link #getSlotCount()} and {@link #isUsedAfterWhere()}.
+     */
+    public static CommonSubExpressions assignSlots (Expression where,
+						    List       cols,
+						    List       orderBys)
+    {
+
+	CommonSubExpressions cse = new CommonSubExpressions ();
+
+	cse.inWhere = true;
+
+	cse.walk (where);
+
+	cse.inWhere = false;
+
+	if (cols != null)
+	{
+
+	    for (int i = 0; i < cols.size (); i++)
+	    {
+
+		cse.walk ((Expression) cols.get (i));
+
+	    }
+
+	}
+
+	if (orderBys != null)
+	{
+
+	    for (int i = 0; i < orderBys.size (); i++)
+	    {
+
+		// An order by on a column index uses the column expression.
+		cse.walk (((OrderBy) orderBys.get (i)).getExpression ());
+
+	    }
+
+	}
+
+	int slot = 0;
+
+	Iterator<Map.Entry<String, List<Expression>>> it = cse.found.entrySet ().iterator ();
+
+	while (it.hasNext ())
+	{
+
+	    Map.Entry<String, List<Expression>> en = it.next ();
+
+	    List<Expression> exps = en.getValue ();
+
+	    if (exps.size () < 2)
+	    {
+
+		continue;
+
+	    }
+
+	    if (cse.afterWhere.contains (en.getKey ()))
+	    {
+
+		cse.usedAfterWhere = true;
+
+	    }
+
+	    for (int i = 0; i < exps.size (); i++)
+	    {
+
+		Expression e = exps.get (i);
+
+		if (e instanceof Accessor)
+		{
+
+		    ((Accessor) e).setRowValueSlot (slot);
+
+		} else {
+
+		    ((Function) e).setRowValueSlot (slot);
+
+		}
+
+	    }
+
+	    slot++;
+
+	}
+
+	cse.slots = slot;
+
+	return cse;
+
+    }
+
+    /**
+     * @return The number of slots given.
+     */
+    public int getSlotCount ()
+    {
+
+	return this.slots;
+
+    }
+
+    /**
+     * @return <code>true</code> if an expression with a slot is found in the select
+     *         columns or the ORDER BY, when not the values of a row are no longer
+     *         needed once the WHERE clause has been evaluated for it.
+     */
+    public boolean isUsedAfterWhere ()
+    {
+
+	return this.usedAfterWhere;
+
+    }
+
+    private void walk (Expression e)
+    {
+
+	if (e == null)
+	{
+
+	    return;
+
+	}
+
+	if ((e instanceof Accessor)
+	    ||
+	    (e instanceof Function)
+	   )
+	{
+
+	    String key = CommonSubExpressions.getKey (e);
+
+	    if ((key != null)
+		&&
+		((e instanceof Function)
+		 ||
+		 (key.indexOf ('.') > -1)
+		)
+	       )
+	    {
+
+		List<Expression> exps = this.found.get (key);
+
+		if (exps == null)
+		{
+
+		    exps = new ArrayList<Expression> ();
+
+		    this.found.put (key,
+				    exps);
+
+		}
+
+		exps.add (e);
+
+		if (!this.inWhere)
+		{
+
+		    this.afterWhere.add (key);
+
+		}
+
+	    }
+
+	}
+
+	if (e instanceof Function)
+	{
+
+	    List ps = ((Function) e).getParameters ();
+
+	    if (ps != null)
+	    {
+
+		for (int i = 0; i < ps.size (); i++)
+		{
+
+		    this.walk ((Expression) ps.get (i));
+
+		}
+
+	    }
+
+	    return;
+
+	}
+
+	if (e instanceof BinaryExpression)
+	{
+
+	    BinaryExpression be = (BinaryExpression) e;
+
+	    this.walk (be.getLeft ());
+	    this.walk (be.getRight ());
+
+	    if (e instanceof BetweenExpression)
+	    {
+
+		this.walk (((BetweenExpression) e).getStart ());
+		this.walk (((BetweenExpression) e).getEnd ());
+
+	    }
+
+	    if (e instanceof InExpression)
+	    {
+
+		this.walkAll (((InExpression) e).getItems ());
+
+	    }
+
+	    return;
+
+	}
+
+	if (e instanceof AdaptiveAndOrExpression)
+	{
+
+	    this.walkAll (((AdaptiveAndOrExpression) e).getBranches ());
+
+	    return;
+
+	}
+
+	if (e instanceof ArithmeticExpression)
+	{
+
+	    this.walk (((ArithmeticExpression) e).getLeft ());
+	    this.walk (((ArithmeticExpression) e).getRight ());
+
+	    return;
+
+	}
+
+	if (e instanceof ExpressionList)
+	{
+
+	    this.walkAll (((ExpressionList) e).getExpressions ());
+
+	    return;
+
+	}
+
+	if (e instanceof SelectItemExpression)
+	{
+
+	    this.walk (((SelectItemExpression) e).getExpression ());
+
+	    return;
+
+	}
+
+	if (e instanceof AliasedExpression)
+	{
+
+	    this.walk (((AliasedExpression) e).getExpression ());
+
+	}
+
+    }
+
+    private void walkAll (List exps)
+    {
+
+	if (exps == null)
+	{
+
+	    return;
+
+	}
+
+	for (int i = 0; i < exps.size (); i++)
+	{
+
+	    Object o = exps.get (i);
+
+	    if (o instanceof Expression)
+	    {
+
+		this.walk ((Expression) o);
+
+	    }
+
+	}
+
+    }
+
+    /**
+     * Get the structural key of an expression, the same for any two expressions
+     * that always have the same value for a row.
+     *
+     * @param e The expression.
+     * @return The key or null if the value of the expression does not only depend on the row.
+     */
+    static String getKey (Expression e)
+    {
+
+	if (e instanceof Accessor)
+	{
+
+	    return ((Accessor) e).getAccessor ();
+
+	}
+
+	if (e instanceof ConstantExpression)
+	{
+
+	    Object v = ((ConstantExpression) e).getValue (null,
+							  null);
+
+	    if (v == null)
+	    {
+
+		return "null";
+
+	    }
+
+	    return "'" + v + "'" + v.getClass ().getName ();
+
+	}
+
+	if (e instanceof ArithmeticExpression)
+	{
+
+	    ArithmeticExpression ae = (ArithmeticExpression) e;
+
+	    String l = CommonSubExpressions.getKey (ae.getLeft ());
+	    String r = CommonSubExpressions.getKey (ae.getRight ());
+
+	    if ((l == null)
+		||
+		(r == null)
+	       )
+	    {
+
+		return null;
+
+	    }
+
+	    return "(" + l + " " + ae.getType () + " " + r + ")";
+
+	}
+
+	if (e instanceof Function)
+	{
+
+	    Function f = (Function) e;
+
+	    if ((!f.isDeterministic ())
+		||
+		(f.hasFixedResult (null))
+	       )
+	    {
+
+		return null;
+
+	    }
+
+	    StringBuffer buf = new StringBuffer (f.getName ());
+	    buf.append ("(");
+
+	    List ps = f.getParameters ();
+
+	    if (ps != null)
+	    {
+
+		for (int i = 0; i < ps.size (); i++)
+		{
+
+		    String k = CommonSubExpressions.getKey ((Expression) ps.get (i));
+
+		    if (k == null)
+		    {
+
+			return null;
+
+		    }
+
+		    if (i > 0)
+		    {
+
+			buf.append (",");
+
+		    }
+
+		    buf.append (k);
+
+		}
+
+	    }
+
+	    buf.append (")");
+
+	    if (f.getAccessor () != null)
+	    {
+
+		buf.append (".");
+		buf.append (f.getAccessor ());
+
+	    }
+
+	    return buf.toString ();
+
+	}
+
+	return null;
+
+    }
+
+}
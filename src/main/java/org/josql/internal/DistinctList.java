@@ -0,0 +1,274 @@
+package org.josql.internal;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * A list that ignores the objects already added to it, it is used for the results of a
+ * <code>SELECT DISTINCT</code>.  The duplicates are dropped as the results are collected
+ * so that they don't need to be gathered in a set and then copied to a list.
+ * <p>
+ * When the objects are rows of column values, (lists), they are hashed with a
+ * {@link RowKey} that holds the hash of the row, rows with different hashes are never
+ * compared value by value.
+ * <p>
+ * Objects can only be added to the end of the list.
+ */
+public class DistinctList extends AbstractList implements RandomAccess
+{
+
+    private List list = null;
+    private Set seen = new HashSet ();
+
+    public DistinctList ()
+    {
+
+	this (new ArrayList ());
+
+    }
+
+    /**
+     * @param list The list to put the objects in, it should be empty.
+     */
+    public DistinctList (List list)
+    {
+
+	this.list = list;
+
+    }
+
+    /**
+     * @return The list the objects are put in.
+     */
+    public List getList ()
+    {
+
+	return this.list;
+
+    }
+
+    public boolean add (Object o)
+    {
+
+	if (!this.seen.add (DistinctList.getKey (o)))
+	{
+
+	    return false;
+
+	}
+
+	this.modCount++;
+
+	return this.list.add (o);
+
+    }
+
+    public Object get (int i)
+    {
+
+	return this.list.get (i);
+
+    }
+
+    public int size ()
+    {
+
+	return this.list.size ();
+
+    }
+
+    public void clear ()
+    {
+
+	this.modCount++;
+
+	this.list.clear ();
+	this.seen.clear ();
+
+    }
+
+    /**
+     * Get the distinct objects of a list, in the order they are first found.  When the
+     * list has no duplicates it is returned as is, otherwise a new list is returned.
+     *
+     * @param objs The objects.
+     * @return The distinct objects.
+     */
+    public static List unique (List objs)
+    {
+
+	int s = objs.size ();
+
+	Set seen = new HashSet ();
+
+	for (int i = 0; i < s; i++)
+	{
+
+	    if (seen.add (DistinctList.getKey (objs.get (i))))
+	    {
+
+		continue;
+
+	    }
+
+	    // The first duplicate, only now are the objects copied.
+	    List res = new ArrayList (seen.size ());
+	    res.addAll (objs.subList (0,
+				      i));
+
+	    for (int j = i + 1; j < s; j++)
+	    {
+
+		Object o = objs.get (j);
+
+		if (seen.add (DistinctList.getKey (o)))
+		{
+
+		    res.add (o);
+
+		}
+
+	    }
+
+	    return res;
+
+	}
+
+	return objs;
+
+    }
+
+    private static Object getKey (Object o)
+    {
+
+	if ((o instanceof List)
+	    &&
+	    (o instanceof RandomAccess)
+	   )
+	{
+
+	    return new RowKey ((List) o);
+
+	}
+
+	return o;
+
+    }
+
+    /**
+     * The key of a row of column values, the hash of the row is only worked out once.
+     */
+    public static class RowKey
+    {
+
+	private List row = null;
+	private int hash = 0;
+
+	/**
+	 * @param row The row, should be random access and must not be changed while the
+	 *            key is used.
+	 */
+	public RowKey (List row)
+	{
+
+	    this.row = row;
+
+	    int h = 1;
+
+	    int s = row.size ();
+
+	    for (int i = 0; i < s; i++)
+	    {
+
+		Object o = row.get (i);
+
+		h = (31 * h) + ((o == null) ? 0 : o.hashCode ());
+
+	    }
+
+	    this.hash = h;
+
+	}
+
+	public int hashCode ()
+	{
+
+	    return this.hash;
+
+	}
+
+	public boolean equals (Object o)
+	{
+
+	    if (this == o)
+	    {
+
+		return true;
+
+	    }
+
+	    if (!(o instanceof RowKey))
+	    {
+
+		return false;
+
+	    }
+
+	    RowKey k = (RowKey) o;
+
+	    if (k.hash != this.hash)
+	    {
+
+		return false;
+
+	    }
+
+	    int s = this.row.size ();
+
+	    if (k.row.size () != s)
+	    {
+
+		return false;
+
+	    }
+
+	    for (int i = 0; i < s; i++)
+	    {
+
+		Object a = this.row.get (i);
+		Object b = k.row.get (i);
+
+		if (a == null)
+		{
+
+		    if (b != null)
+		    {
+
+			return false;
+
+		    }
+
+		    continue;
+
+		}
+
+		if (!a.equals (b))
+		{
+
+		    return false;
+
+		}
+
+	    }
+
+	    return true;
+
+	}
+
+    }
+
+}
@@ -0,0 +1,768 @@
+package org.josql.internal;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.josql.Query;
+import org.josql.expressions.AdaptiveAndOrExpression;
+import org.josql.expressions.AndOrExpression;
+import org.josql.expressions.ArithmeticExpression;
+import org.josql.expressions.BetweenExpression;
+import org.josql.expressions.BinaryExpression;
+import org.josql.expressions.BooleanExpression;
+import org.josql.expressions.ConstantExpression;
+import org.josql.expressions.EqualsExpression;
+import org.josql.expressions.Expression;
+import org.josql.expressions.Function;
+import org.josql.expressions.InExpression;
+import org.josql.expressions.SubQueryExpression;
+import org.josql.expressions.ValueExpression;
+import org.josql.functions.CollectionFunctions;
+import org.josql.functions.GroupingFunctions;
+
+/**
+ * Rewrites the expressions of a query once they have been inited so that less work
+ * is done for each object:
+ * <ul>
+ *   <li>Arithmetic and conditions that only have constants are folded into a constant,
+ *       for example: <code>1 = 1</code> or <code>2 * 1024</code>.</li>
+ *   <li>{@link org.josql.functions.Deterministic Deterministic} functions with a fixed
+ *       result are folded into a constant, as are the parameters of the other functions,
+ *       for example: <code>toDate('2014', 'yyyy')</code>.</li>
+ *   <li><code>AND</code> and <code>OR</code> with a constant side are simplified,
+ *       for example: <code>x = 1 AND true</code> is <code>x = 1</code>, unless the side
+ *       dropped would have been evaluated and has a side-effect, see:
+ *       {@link AdaptiveAndOrExpression#isMovable(Expression)}.</li>
+ *   <li><code>x = a OR x = b OR ...</code> is rewritten as <code>x IN (a, b, ...)</code>,
+ *       the constants are then hashed, see: {@link InExpression#initHashLookup()}.  The
+ *       IN only evaluates <code>x</code> once so it must have no side-effect.</li>
+ *   <li>The ORDER BY of a sub-query that is only counted or searched for its
+ *       least or greatest value, without a LIMIT, is removed.</li>
+ * </ul>
+ * The other functions with a fixed result are not folded, they are already only called
+ * once and may depend on the execution.
+ */
+public class ExpressionOptimizer
+{
+
+    private Query q = null;
+    private List<String> rewrites = new ArrayList<String> ();
+
+    public ExpressionOptimizer (Query q)
+    {
+
+	this.q = q;
+
+    }
+
+    /**
+     * @return A description of each rewrite made.
+     */
+    public List<String> getRewrites ()
+    {
+
+	return this.rewrites;
+
+    }
+
+    /**
+     * Optimize an inited expression.
+     *
+     * @param e The expression, can be null.
+     * @return The expression to use instead, may be the same expression.
+     */
+    public Expression optimize (Expression e)
+    {
+
+	if (e == null)
+	{
+
+	    return null;
+
+	}
+
+	if (e instanceof Function)
+	{
+
+	    Function f = (Function) e;
+
+	    this.optimizeSubQueries (f);
+	    this.optimizeParameters (f);
+
+	    if ((f.hasFixedResult (this.q))
+		&&
+		(f.isDeterministic ())
+	       )
+	    {
+
+		return this.foldFunction (f);
+
+	    }
+
+	    return e;
+
+	}
+
+	if (e instanceof ArithmeticExpression)
+	{
+
+	    ArithmeticExpression ae = (ArithmeticExpression) e;
+
+	    ae.setLeft (this.optimizeValue (ae.getLeft ()));
+	    ae.setRight (this.optimizeValue (ae.getRight ()));
+
+	    if ((ExpressionOptimizer.isConstant (ae.getLeft ()))
+		&&
+		(ExpressionOptimizer.isConstant (ae.getRight ()))
+	       )
+	    {
+
+		return this.foldValue (ae);
+
+	    }
+
+	    return e;
+
+	}
+
+	if (e instanceof AndOrExpression)
+	{
+
+	    return this.optimizeAndOr ((AndOrExpression) e);
+
+	}
+
+	if (e instanceof BinaryExpression)
+	{
+
+	    BinaryExpression be = (BinaryExpression) e;
+
+	    be.setLeft (this.optimize (be.getLeft ()));
+
+	    boolean constant = ExpressionOptimizer.isConstant (be.getLeft ());
+
+	    if (be.getRight () != null)
+	    {
+
+		be.setRight (this.optimize (be.getRight ()));
+
+		constant = constant && ExpressionOptimizer.isConstant (be.getRight ());
+
+	    }
+
+	    if (e instanceof BetweenExpression)
+	    {
+
+		BetweenExpression bte = (BetweenExpression) e;
+
+		bte.setStart (this.optimizeValue ((ValueExpression) bte.getStart ()));
+		bte.setEnd (this.optimizeValue ((ValueExpression) bte.getEnd ()));
+
+		constant = constant
+		           &&
+		           ExpressionOptimizer.isConstant (bte.getStart ())
+		           &&
+		           ExpressionOptimizer.isConstant (bte.getEnd ());
+
+	    }
+
+	    if (e instanceof InExpression)
+	    {
+
+		InExpression ie = (InExpression) e;
+
+		List items = ie.getItems ();
+
+		for (int i = 0; i < items.size (); i++)
+		{
+
+		    Expression it = this.optimize ((Expression) items.get (i));
+
+		    items.set (i,
+			       it);
+
+		    constant = constant && ExpressionOptimizer.isConstant (it);
+
+		}
+
+		// The items may now all be constants.
+		ie.initHashLookup ();
+
+	    }
+
+	    if (constant)
+	    {
+
+		return this.foldCondition (be);
+
+	    }
+
+	    return e;
+
+	}
+
+	return e;
+
+    }
+
+    private ValueExpression optimizeValue (ValueExpression e)
+    {
+
+	Expression o = this.optimize (e);
+
+	if (o instanceof ValueExpression)
+	{
+
+	    return (ValueExpression) o;
+
+	}
+
+	return e;
+
+    }
+
+    private Expression optimizeAndOr (AndOrExpression e)
+    {
+
+	Expression l = this.optimize (e.getLeft ());
+	Expression r = this.optimize (e.getRight ());
+
+	e.setLeft (l);
+	e.setRight (r);
+
+	boolean lc = ExpressionOptimizer.isConstant (l);
+	boolean rc = ExpressionOptimizer.isConstant (r);
+
+	if ((lc)
+	    ||
+	    (rc)
+	   )
+	{
+
+	    Boolean lv = lc ? this.isTrue (l) : null;
+	    Boolean rv = rc ? this.isTrue (r) : null;
+
+	    // The side that decides the result whatever the other side is.
+	    Boolean decides = e.isAnd () ? Boolean.FALSE : Boolean.TRUE;
+
+	    // The left side is always evaluated, it can only be dropped when that
+	    // has no side-effect.
+	    if ((decides.equals (lv))
+		||
+		((decides.equals (rv))
+		 &&
+		 (AdaptiveAndOrExpression.isMovable (l))
+		)
+	       )
+	    {
+
+		return this.rewrite (e,
+				     ExpressionOptimizer.createBoolean (decides));
+
+	    }
+
+	    if (decides.equals (rv))
+	    {
+
+		// The left side has a side-effect, it is kept.
+		return e;
+
+	    }
+
+	    // A constant side that does not decide the result can be dropped, as
+	    // long as the other side still gives a boolean value.
+	    if ((lv != null)
+		&&
+		(ExpressionOptimizer.isCondition (r))
+	       )
+	    {
+
+		return this.rewrite (e,
+				     r);
+
+	    }
+
+	    if ((rv != null)
+		&&
+		(ExpressionOptimizer.isCondition (l))
+	       )
+	    {
+
+		return this.rewrite (e,
+				     l);
+
+	    }
+
+	    return e;
+
+	}
+
+	if (!e.isAnd ())
+	{
+
+	    Expression in = this.createIn (e);
+
+	    if (in != null)
+	    {
+
+		return this.rewrite (e,
+				     in);
+
+	    }
+
+	}
+
+	return e;
+
+    }
+
+    /**
+     * Rewrite an OR chain of equals on the same expression as an IN.
+     */
+    private Expression createIn (AndOrExpression e)
+    {
+
+	List<Expression> eqs = new ArrayList<Expression> ();
+
+	ExpressionOptimizer.getOrTerms (e,
+					eqs);
+
+	Expression x = null;
+	String key = null;
+
+	InExpression in = new InExpression ();
+
+	for (int i = 0; i < eqs.size (); i++)
+	{
+
+	    Expression t = eqs.get (i);
+
+	    Expression v = null;
+	    List cs = new ArrayList ();
+
+	    if ((t instanceof InExpression)
+		&&
+		(((InExpression) t).isHashLookup ())
+		&&
+		(!((InExpression) t).isNot ())
+	       )
+	    {
+
+		// An OR of equals already rewritten.
+		v = ((InExpression) t).getLeft ();
+		cs.addAll (((InExpression) t).getItems ());
+
+	    } else if (t instanceof EqualsExpression)
+	    {
+
+		EqualsExpression ee = (EqualsExpression) t;
+
+		if ((ee.isNot ())
+		    ||
+		    (ee.isIgnoreCase ())
+		   )
+		{
+
+		    return null;
+
+		}
+
+		v = ee.getLeft ();
+		Expression c = ee.getRight ();
+
+		if (v instanceof ConstantExpression)
+		{
+
+		    v = ee.getRight ();
+		    c = ee.getLeft ();
+
+		}
+
+		if (!(c instanceof ConstantExpression))
+		{
+
+		    return null;
+
+		}
+
+		cs.add (c);
+
+	    } else {
+
+		return null;
+
+	    }
+
+	    if (ExpressionOptimizer.isConstant (v))
+	    {
+
+		return null;
+
+	    }
+
+	    if (x == null)
+	    {
+
+		// An equals on a collection compares each of its items, an IN does not.
+		if (!this.isScalar (v))
+		{
+
+		    return null;
+
+		}
+
+		// The IN evaluates the expression once instead of once per equals.
+		if (!AdaptiveAndOrExpression.isMovable (v))
+		{
+
+		    return null;
+
+		}
+
+		x = v;
+		key = v.getClass ().getName () + ":" + v.toString ();
+
+	    } else {
+
+		if (!key.equals (v.getClass ().getName () + ":" + v.toString ()))
+		{
+
+		    return null;
+
+		}
+
+	    }
+
+	    for (int j = 0; j < cs.size (); j++)
+	    {
+
+		in.addItem ((Expression) cs.get (j));
+
+	    }
+
+	}
+
+	in.setLeft (x);
+	in.initHashLookup ();
+
+	return in;
+
+    }
+
+    private static void getOrTerms (Expression       e,
+				    List<Expression> terms)
+    {
+
+	if ((e instanceof AndOrExpression)
+	    &&
+	    (!((AndOrExpression) e).isAnd ())
+	   )
+	{
+
+	    ExpressionOptimizer.getOrTerms (((AndOrExpression) e).getLeft (),
+					    terms);
+	    ExpressionOptimizer.getOrTerms (((AndOrExpression) e).getRight (),
+					    terms);
+
+	    return;
+
+	}
+
+	terms.add (e);
+
+    }
+
+    private boolean isScalar (Expression e)
+    {
+
+	Class c = null;
+
+	try
+	{
+
+	    c = e.getExpectedReturnType (this.q);
+
+	} catch (Exception ex) {
+
+	    return false;
+
+	}
+
+	if (c == null)
+	{
+
+	    return false;
+
+	}
+
+	return (!c.isAssignableFrom (Collection.class))
+	       &&
+	       (!Collection.class.isAssignableFrom (c))
+	       &&
+	       (!c.isAssignableFrom (Map.class))
+	       &&
+	       (!Map.class.isAssignableFrom (c));
+
+    }
+
+    /**
+     * Remove the ORDER BY of the sub-queries whose results are only counted or
+     * searched for their least or greatest value.
+     */
+    private void optimizeSubQueries (Function f)
+    {
+
+	Method m = f.getMethod ();
+
+	List ps = f.getParameters ();
+
+	if ((m == null)
+	    ||
+	    (ps == null)
+	    ||
+	    (ps.size () == 0)
+	    ||
+	    (!(ps.get (0) instanceof SubQueryExpression))
+	   )
+	{
+
+	    return;
+
+	}
+
+	Class c = m.getDeclaringClass ();
+
+	String n = m.getName ();
+
+	if (!(((c == CollectionFunctions.class)
+	       &&
+	       (n.equals ("count"))
+	      )
+	      ||
+	      ((c == GroupingFunctions.class)
+	       &&
+	       ((n.equals ("min"))
+		||
+		(n.equals ("max"))
+	       )
+	      )
+	     )
+	   )
+	{
+
+	    return;
+
+	}
+
+	SubQueryExpression sq = (SubQueryExpression) ps.get (0);
+
+	Query sub = sq.getQuery ();
+
+	if ((sq.getAccessor () != null)
+	    ||
+	    (sub.getLimit () != null)
+	    ||
+	    (!sub.removeOrderBys ())
+	   )
+	{
+
+	    return;
+
+	}
+
+	this.rewrites.add ("Removed the ORDER BY of sub-query: " + sub + " in: " + f);
+
+    }
+
+    /**
+     * Fold the parameters whose value is passed to the function.
+     */
+    private void optimizeParameters (Function f)
+    {
+
+	List ps = f.getParameters ();
+
+	if (ps == null)
+	{
+
+	    return;
+
+	}
+
+	for (int i = 0; i < ps.size (); i++)
+	{
+
+	    // The function may look at the expression itself.
+	    if (f.isExpressionParameter (i))
+	    {
+
+		continue;
+
+	    }
+
+	    Expression p = (Expression) ps.get (i);
+
+	    Expression o = this.optimize (p);
+
+	    if (o != p)
+	    {
+
+		f.setParameter (i,
+				o);
+
+	    }
+
+	}
+
+    }
+
+    private Expression foldFunction (Function f)
+    {
+
+	try
+	{
+
+	    Object v = f.getValue (null,
+				   this.q);
+
+	    if (v == null)
+	    {
+
+		// The function does not keep a null result either.
+		return f;
+
+	    }
+
+	    ConstantExpression c = new ConstantExpression ();
+	    c.setValue (v);
+
+	    return this.rewrite (f,
+				 c);
+
+	} catch (Exception ex) {
+
+	    // Leave it to fail when executed.
+	    return f;
+
+	}
+
+    }
+
+    private Expression foldValue (ValueExpression e)
+    {
+
+	try
+	{
+
+	    ConstantExpression c = new ConstantExpression ();
+	    c.setValue (e.getValue (null,
+				    this.q));
+
+	    return this.rewrite (e,
+				 c);
+
+	} catch (Exception ex) {
+
+	    // Leave it to fail when executed.
+	    return e;
+
+	}
+
+    }
+
+    private Expression foldCondition (BinaryExpression e)
+    {
+
+	try
+	{
+
+	    return this.rewrite (e,
+				 ExpressionOptimizer.createBoolean (Boolean.valueOf (e.isTrue (null,
+											       this.q))));
+
+	} catch (Exception ex) {
+
+	    // Leave it to fail when executed.
+	    return e;
+
+	}
+
+    }
+
+    private Boolean isTrue (Expression e)
+    {
+
+	try
+	{
+
+	    return Boolean.valueOf (e.isTrue (null,
+					      this.q));
+
+	} catch (Exception ex) {
+
+	    return null;
+
+	}
+
+    }
+
+    private Expression rewrite (Expression from,
+				Expression to)
+    {
+
+	this.rewrites.add (from + " => " + to);
+
+	return to;
+
+    }
+
+    private static BooleanExpression createBoolean (Boolean v)
+    {
+
+	BooleanExpression b = new BooleanExpression ();
+	b.setValue (v);
+
+	return b;
+
+    }
+
+    /**
+     * @param e The expression, can be null.
+     * @return <code>true</code> if the expression has been folded into <code>true</code>,
+     *         as a WHERE clause it then matches all the objects.
+     */
+    public static boolean isAlwaysTrue (Expression e)
+    {
+
+	return (e instanceof BooleanExpression)
+	       &&
+	       (((BooleanExpression) e).isTrue (null,
+						null));
+
+    }
+
+    private static boolean isConstant (Expression e)
+    {
+
+	return (e instanceof ConstantExpression)
+	       ||
+	       (e instanceof BooleanExpression);
+
+    }
+
+    /**
+     * @return <code>true</code> if the value of the expression is always a boolean.
+     */
+    private static boolean isCondition (Expression e)
+    {
+
+	return (e instanceof BinaryExpression)
+	       ||
+	       (e instanceof BooleanExpression);
+
+    }
+
+}
@@ -0,0 +1,470 @@
+package org.josql.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.josql.Query;
+import org.josql.exceptions.QueryExecutionException;
+import org.josql.expressions.AliasedExpression;
+import org.josql.expressions.Expression;
+import org.josql.expressions.SelectItemExpression;
+
+/**
+ * The aggregates of a group, for a query whose columns and EXECUTE ON GROUP_BY_RESULTS
+ * functions only hold aggregates, such as: <code>SELECT worker, sum(time) FROM ...
+ * GROUP BY worker</code>.  The objects of the group are folded into the aggregates as
+ * they are grouped and are not kept, see {@link Grouper#group(List,GroupAggregates)}.
+ * <p>
+ * A column can be:
+ * <ul>
+ *   <li>an aggregate, see {@link StreamingAggregate},</li>
+ *   <li>a GROUP BY expression, its value is got from the first object of the group,</li>
+ *   <li>the same for all the objects, see {@link StreamingAggregate#isSameForAllObjects(Expression)}.</li>
+ * </ul>
+ */
+public class GroupAggregates
+{
+
+    private static final int AGGREGATE = 0;
+    private static final int GROUP_VALUE = 1;
+    private static final int FIXED = 2;
+
+    private List cols = null;
+    private int[] kinds = null;
+    private StreamingAggregate[] colAggs = null;
+    private List executeOn = null;
+    private StreamingAggregate[] executeOnAggs = null;
+
+    private int count = 0;
+    private Object first = null;
+
+    private GroupAggregates ()
+    {
+
+    }
+
+    /**
+     * Get the aggregates of a group for an inited query with a GROUP BY clause, the
+     * aggregates returned have no object added and are copied for each group.
+     *
+     * @param q The query.
+     * @return The aggregates or null if the query needs the objects of the groups.
+     */
+    public static GroupAggregates create (Query q)
+    {
+
+	List cols = q.getColumns ();
+
+	if ((q.isWantObjects ())
+	    ||
+	    (cols == null)
+	    ||
+	    (cols.size () == 0)
+	    ||
+	    (q.getGrouper () == null)
+	    ||
+	    // The objects are sorted before the aggregates are got.
+	    (q.getOrderByComparator () != null)
+	   )
+	{
+
+	    return null;
+
+	}
+
+	GroupAggregates ga = new GroupAggregates ();
+	ga.cols = cols;
+	ga.kinds = new int[cols.size ()];
+	ga.colAggs = new StreamingAggregate[cols.size ()];
+
+	List grpBys = q.getGrouper ().getExpressions ();
+
+	for (int i = 0; i < cols.size (); i++)
+	{
+
+	    SelectItemExpression sei = (SelectItemExpression) cols.get (i);
+
+	    if (sei.isAddItemsFromCollectionOrMap ())
+	    {
+
+		return null;
+
+	    }
+
+	    Expression e = sei.getExpression ();
+
+	    ga.colAggs[i] = StreamingAggregate.get (e,
+						    q);
+
+	    if (ga.colAggs[i] != null)
+	    {
+
+		ga.kinds[i] = GroupAggregates.AGGREGATE;
+
+	    } else if (GroupAggregates.isGroupValue (e,
+						     grpBys)) {
+
+		ga.kinds[i] = GroupAggregates.GROUP_VALUE;
+
+	    } else if (StreamingAggregate.isSameForAllObjects (e)) {
+
+		ga.kinds[i] = GroupAggregates.FIXED;
+
+	    } else {
+
+		return null;
+
+	    }
+
+	}
+
+	Map executeOn = q.getExecuteOnFunctions ();
+
+	if (executeOn != null)
+	{
+
+	    ga.executeOn = (List) executeOn.get (Query.GROUP_BY_RESULTS);
+
+	}
+
+	if (ga.executeOn != null)
+	{
+
+	    ga.executeOnAggs = new StreamingAggregate[ga.executeOn.size ()];
+
+	    for (int i = 0; i < ga.executeOnAggs.length; i++)
+	    {
+
+		ga.executeOnAggs[i] = StreamingAggregate.get (((AliasedExpression) ga.executeOn.get (i)).getExpression (),
+							      q);
+
+		if (ga.executeOnAggs[i] == null)
+		{
+
+		    return null;
+
+		}
+
+	    }
+
+	}
+
+	return ga;
+
+    }
+
+    private static boolean isGroupValue (Expression e,
+					 List       grpBys)
+    {
+
+	String k = CommonSubExpressions.getKey (e);
+
+	if (k == null)
+	{
+
+	    return false;
+
+	}
+
+	for (int i = 0; i < grpBys.size (); i++)
+	{
+
+	    if (k.equals (CommonSubExpressions.getKey ((Expression) grpBys.get (i))))
+	    {
+
+		return true;
+
+	    }
+
+	}
+
+	return false;
+
+    }
+
+    /**
+     * @return New aggregates for a group, with no object added.
+     */
+    public GroupAggregates newGroup ()
+    {
+
+	GroupAggregates ga = new GroupAggregates ();
+	ga.cols = this.cols;
+	ga.kinds = this.kinds;
+	ga.executeOn = this.executeOn;
+	ga.colAggs = GroupAggregates.copy (this.colAggs);
+	ga.executeOnAggs = GroupAggregates.copy (this.executeOnAggs);
+
+	return ga;
+
+    }
+
+    private static StreamingAggregate[] copy (StreamingAggregate[] aggs)
+    {
+
+	if (aggs == null)
+	{
+
+	    return null;
+
+	}
+
+	StreamingAggregate[] c = new StreamingAggregate[aggs.length];
+
+	for (int i = 0; i < aggs.length; i++)
+	{
+
+	    if (aggs[i] != null)
+	    {
+
+		c[i] = aggs[i].copy ();
+
+	    }
+
+	}
+
+	return c;
+
+    }
+
+    /**
+     * @return <code>true</code> if the aggregates of groups can be {@link #merge(GroupAggregates) merged}.
+     */
+    public boolean isMergeable ()
+    {
+
+	return (GroupAggregates.isMergeable (this.colAggs))
+	       &&
+	       (GroupAggregates.isMergeable (this.executeOnAggs));
+
+    }
+
+    private static boolean isMergeable (StreamingAggregate[] aggs)
+    {
+
+	if (aggs == null)
+	{
+
+	    return true;
+
+	}
+
+	for (int i = 0; i < aggs.length; i++)
+	{
+
+	    if ((aggs[i] != null)
+		&&
+		(!aggs[i].isMergeable ())
+	       )
+	    {
+
+		return false;
+
+	    }
+
+	}
+
+	return true;
+
+    }
+
+    /**
+     * Add an object of the group.
+     *
+     * @param o The object.
+     * @param q The Query object, the current object should be set to the object.
+     * @throws QueryExecutionException If an aggregate cannot be worked out.
+     */
+    public void add (Object o,
+		     Query  q)
+	             throws QueryExecutionException
+    {
+
+	if (this.count == 0)
+	{
+
+	    this.first = o;
+
+	}
+
+	this.count++;
+
+	GroupAggregates.add (this.colAggs,
+			     o,
+			     q);
+	GroupAggregates.add (this.executeOnAggs,
+			     o,
+			     q);
+
+    }
+
+    private static void add (StreamingAggregate[] aggs,
+			     Object               o,
+			     Query                q)
+	                     throws               QueryExecutionException
+    {
+
+	if (aggs == null)
+	{
+
+	    return;
+
+	}
+
+	for (int i = 0; i < aggs.length; i++)
+	{
+
+	    if (aggs[i] != null)
+	    {
+
+		aggs[i].add (o,
+			     q);
+
+	    }
+
+	}
+
+    }
+
+    /**
+     * Merge the aggregates of the objects of the group that follow the objects of these.
+     *
+     * @param ga The aggregates of the following objects.
+     */
+    public void merge (GroupAggregates ga)
+    {
+
+	if (ga.count == 0)
+	{
+
+	    return;
+
+	}
+
+	if (this.count == 0)
+	{
+
+	    this.first = ga.first;
+
+	}
+
+	this.count += ga.count;
+
+	GroupAggregates.merge (this.colAggs,
+			       ga.colAggs);
+	GroupAggregates.merge (this.executeOnAggs,
+			       ga.executeOnAggs);
+
+    }
+
+    private static void merge (StreamingAggregate[] aggs,
+			       StreamingAggregate[] others)
+    {
+
+	if (aggs == null)
+	{
+
+	    return;
+
+	}
+
+	for (int i = 0; i < aggs.length; i++)
+	{
+
+	    if (aggs[i] != null)
+	    {
+
+		aggs[i].merge (others[i]);
+
+	    }
+
+	}
+
+    }
+
+    /**
+     * @return The number of objects in the group.
+     */
+    public int getCount ()
+    {
+
+	return this.count;
+
+    }
+
+    /**
+     * Set the save values of the EXECUTE ON GROUP_BY_RESULTS functions and get the
+     * values of the columns for the group.
+     *
+     * @param q The Query object, its save values should be the ones of the group.
+     * @return The values of the columns.
+     * @throws QueryExecutionException If the value of a column cannot be got.
+     */
+    public List getRow (Query q)
+	                throws QueryExecutionException
+    {
+
+	if (this.executeOn != null)
+	{
+
+	    for (int i = 0; i < this.executeOnAggs.length; i++)
+	    {
+
+		String alias = ((AliasedExpression) this.executeOn.get (i)).getAlias ();
+
+		if (alias != null)
+		{
+
+		    q.setSaveValue (alias,
+				    this.executeOnAggs[i].getResult ());
+
+		}
+
+	    }
+
+	}
+
+	List row = new ArrayList (this.cols.size ());
+
+	for (int i = 0; i < this.kinds.length; i++)
+	{
+
+	    SelectItemExpression sei = (SelectItemExpression) this.cols.get (i);
+
+	    if (this.kinds[i] == GroupAggregates.AGGREGATE)
+	    {
+
+		row.add (this.colAggs[i].getResult ());
+
+		continue;
+
+	    }
+
+	    Object o = (this.kinds[i] == GroupAggregates.GROUP_VALUE) ? this.first : null;
+
+	    q.setCurrentObject (o);
+
+	    try
+	    {
+
+		row.add (sei.getValue (o,
+				       q));
+
+	    } catch (Exception e) {
+
+		throw new QueryExecutionException ("Unable to get value for column: " +
+						   i +
+						   " for: " +
+						   sei,
+						   e);
+
+	    }
+
+	}
+
+	return row;
+
+    }
+
+}
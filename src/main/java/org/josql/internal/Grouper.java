@@ -15,15 +15,21 @@
 package org.josql.internal;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
 import org.josql.Query;
 import org.josql.exceptions.QueryExecutionException;
+import org.josql.exceptions.QueryParseException;
 import org.josql.expressions.Expression;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 public class Grouper 
 {
@@ -32,6 +38,14 @@ public class Grouper
     private Query q = null;
     private int cs = -1;
 
+    // Set at init when the only GROUP BY expression returns an integral number or an
+    // enum, the groups are then found without a list key for each object.
+    private Class keyClass = null;
+    private int enumSize = -1;
+
+    // Fewer objects than this for each thread and they are grouped in one thread.
+    private static final int MIN_OBJECTS_PER_THREAD = 512;
+
     public Grouper (final Query q)
     {
 
@@ -54,79 +68,642 @@ public class Grouper
 
     }
 
+    /**
+     * Choose how the groups are found once the expressions are inited.
+     */
+    public void init () {
+
+    	keyClass = null;
+    	enumSize = -1;
+
+    	if (cs != 1) {
+
+    		return;
+
+    	}
+
+    	Class c = null;
+
+    	try {
+
+    		c = ((Expression) cols.get (0)).getExpectedReturnType (q);
+
+    	} catch (QueryParseException e) {
+
+    		// The objects are grouped by list keys.
+
+    	}
+
+    	if (c == null) {
+
+    		return;
+
+    	}
+
+    	if (c.isEnum ()) {
+
+    		keyClass = c;
+    		enumSize = c.getEnumConstants ().length;
+
+    		return;
+
+    	}
+
+    	if ((c == int.class) || (c == Integer.class)) {
+
+    		keyClass = Integer.class;
+
+    	} else if ((c == long.class) || (c == Long.class)) {
+
+    		keyClass = Long.class;
+
+    	} else if ((c == short.class) || (c == Short.class)) {
+
+    		keyClass = Short.class;
+
+    	} else if ((c == byte.class) || (c == Byte.class)) {
+
+    		keyClass = Byte.class;
+
+    	}
+
+    }
+
+    /**
+     * Group the objects by the values of the expressions, see {@link #group(List,GroupAggregates)}.
+     */
     @SuppressWarnings({ "unchecked", "rawtypes" })
 	public Map group (final List   objs) throws QueryExecutionException {
 
-    	Map retVals = Maps.newHashMap();
+    	return group (objs, null);
 
-    	int s = objs.size (); 
-    	
-	
-		for (int j = 0; j < s; j++)
+    }
+
+    /**
+     * Group the objects by the values of the expressions.  The groups are in the order
+     * of their first object in the list and the objects of a group are in the order
+     * they are in the list.
+     * <p>
+     * When the query has more than one {@link Query#setGroupByThreads(int) thread} and
+     * there are enough objects, each thread groups its own run of the objects, the groups
+     * of the runs are then merged, each thread merging the groups whose key hashes to it.
+     *
+     * @param objs The objects.
+     * @param aggs The aggregates of a group, see {@link GroupAggregates#create(Query)},
+     *             or null to keep the objects of the groups.
+     * @return A map of the group key, as a list of values, to the objects in the group
+     *         or, when <code>aggs</code> is not null, the aggregates of the group.
+     * @throws QueryExecutionException If a group by value or aggregate cannot be got.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+	public Map group (final List            objs,
+			  final GroupAggregates aggs) throws QueryExecutionException {
+
+    	List<Query> workers = Collections.emptyList ();
+
+    	if ((aggs == null) || (aggs.isMergeable ())) {
+
+    		workers = q.getGroupByWorkers (Math.min (q.getGroupByThreads (),
+    							 objs.size () / Grouper.MIN_OBJECTS_PER_THREAD));
+
+    	}
+
+    	if (!workers.isEmpty ()) {
+
+    		return groupInParallel (objs, aggs, workers);
+
+    	}
+
+    	List[] parts = groupRange (objs, 0, objs.size (), aggs, 1);
+
+    	Map retVals = Maps.newLinkedHashMap ();
+
+    	for (Object o : parts[0]) {
+
+    		Group g = (Group) o;
+
+    		retVals.put (g.key, g.getValue ());
+
+    	}
+
+    	return retVals;
+
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+	private Map groupInParallel (final List            objs,
+				     final GroupAggregates aggs,
+				     final List<Query>     workers) throws QueryExecutionException {
+
+    	final int n = workers.size ();
+    	final int s = objs.size ();
+
+    	final List[][] runParts = new List[n][];
+    	final List[] merged = new List[n];
+
+    	List<Callable<Object>> tasks = Lists.newArrayList ();
+
+    	try {
+
+    		for (int i = 0; i < n; i++) {
+
+    			final int r = i;
+    			final Query w = workers.get (i);
+    			final int from = (int) ((long) s * i / n);
+    			final int to = (int) ((long) s * (i + 1) / n);
+
+    			w.setAllObjects (objs);
+    			w.getQueryResults ().setSaveValues (q.getQueryResults ().getSaveValues ());
+
+    			final GroupAggregates proto = (aggs == null) ? null : GroupAggregates.create (w);
+
+    			tasks.add (new Callable<Object> () {
+
+    				public Object call () throws QueryExecutionException {
+
+    					runParts[r] = w.getGrouper ().groupRange (objs, from, to, proto, n);
+
+    					return null;
+
+    				}
+
+    			});
+
+    		}
+
+    		ParallelTasks.run (tasks, "group the objects");
+
+    		tasks = Lists.newArrayList ();
+
+    		for (int i = 0; i < n; i++) {
+
+    			final int p = i;
+
+    			tasks.add (new Callable<Object> () {
+
+    				public Object call () {
+
+    					Map m = Maps.newHashMap ();
+
+    					// The runs are merged in order, so are the objects of a group.
+    					for (int r = 0; r < n; r++) {
+
+    						for (Object o : runParts[r][p]) {
+
+    							Group g = (Group) o;
+
+    							Group e = (Group) m.get (g.key);
+
+    							if (e == null) {
+
+    								if (aggs == null) {
+
+    									m.put (g.key, g);
+
+    									continue;
+
+    								}
+
+    								// The aggregates of the query are the ones the
+    								// rows are got from.
+    								e = new Group (g.key, g.first, aggs);
+
+    								m.put (g.key, e);
+
+    							}
+
+    							e.merge (g);
+
+    						}
+
+    					}
+
+    					merged[p] = Lists.newArrayList (m.values ());
+
+    					return null;
+
+    				}
+
+    			});
+
+    		}
+
+    		ParallelTasks.run (tasks, "merge the groups");
+
+    	} finally {
+
+    		for (Query w : workers) {
+
+    			// Don't hold on to the objects.
+    			w.reset ();
+
+    		}
+
+    	}
+
+    	List all = Lists.newArrayList ();
+
+    	for (int i = 0; i < n; i++) {
+
+    		all.addAll (merged[i]);
+
+    	}
+
+    	Collections.sort (all, new Comparator () {
+
+    		public int compare (Object o1, Object o2) {
+
+    			int f1 = ((Group) o1).first;
+    			int f2 = ((Group) o2).first;
+
+    			return (f1 < f2) ? -1 : ((f1 == f2) ? 0 : 1);
+
+    		}
+
+    	});
+
+    	Map retVals = Maps.newLinkedHashMap ();
+
+    	for (int i = 0; i < all.size (); i++) {
+
+    		Group g = (Group) all.get (i);
+
+    		retVals.put (g.key, g.getValue ());
+
+    	}
+
+    	return retVals;
+
+    }
+
+    /**
+     * Group a run of the objects, the groups are split by the hash of their key.
+     *
+     * @return For each part, the {@link Group groups} in the order they are found.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+	private List[] groupRange (final List            objs,
+				   final int             from,
+				   final int             to,
+				   final GroupAggregates aggs,
+				   final int             parts) throws QueryExecutionException {
+
+    	List[] res = new List[parts];
+
+    	for (int i = 0; i < parts; i++) {
+
+    		res[i] = Lists.newArrayList ();
+
+    	}
+
+    	Map byKey = Maps.newHashMap ();
+    	LongKeyMap byNumber = null;
+    	Group[] byOrdinal = null;
+
+    	if (enumSize > -1) {
+
+    		byOrdinal = new Group[enumSize];
+
+    	} else if (keyClass != null) {
+
+    		byNumber = new LongKeyMap ();
+
+    	}
+
+		for (int j = from; j < to; j++)
 		{
 	
 		    Object o = objs.get(j);
 	
 		    q.setCurrentObject(o);
-	
-		    List l = Lists.newArrayList();
-	
-		    // Get the values...
-		    for (int i = 0; i < cs; i++) {
-	
-		    	Expression exp = (Expression) cols.get (i);
-	
-				try {
-					
-					Object value = exp.getValue (o, q);
-					
-					if (value != null) {
-						
-						l.add(value);
-						
-					}
-		
-				} catch (Exception e) {
-		
-				    throw new QueryExecutionException ("Unable to get group by value for expression: " +
-								       exp,
-								       e);
-		
-				}
-	
-		    }
 
-		    if (l.isEmpty()) {
-		    	
-		    	continue;
-		    	
-		    }
-		    
-		    List v = null;
-		    
-		    for(Object ls : retVals.keySet()) {
-
-		    	if (l.equals(ls)) {
-		    		
-		    		v = (List) retVals.get(ls);
-		    		break;
+		    List l = null;
+
+		    if (keyClass != null) {
+
+		    	Object value = getValue ((Expression) cols.get (0), o);
+
+		    	if (value == null) {
+
+		    		continue;
+
+		    	}
+
+		    	Group g = null;
+
+		    	if (byOrdinal != null) {
+
+		    		if (keyClass.isInstance (value)) {
+
+		    			int ord = ((Enum) value).ordinal ();
+
+		    			g = byOrdinal[ord];
+
+		    			if (g == null) {
+
+		    				g = addGroup (Lists.newArrayList (value), j, aggs, res);
+
+		    				byOrdinal[ord] = g;
+
+		    			}
+
+		    		}
+
+		    	} else if (value.getClass () == keyClass) {
+
+		    		long k = ((Number) value).longValue ();
+
+		    		g = (Group) byNumber.get (k);
+
+		    		if (g == null) {
+
+		    			g = addGroup (Lists.newArrayList (value), j, aggs, res);
+
+		    			byNumber.put (k, g);
+
+		    		}
+
+		    	}
+
+		    	if (g != null) {
+
+		    		g.add (o, q);
+
+		    		continue;
+
+		    	}
+
+		    	// Not of the type expected, the list keys keep the values apart.
+		    	l = Lists.newArrayList (value);
+
+		    } else {
+
+		    	l = getKey (o);
+
+		    	if (l.isEmpty()) {
+
+		    		continue;
+
 		    	}
-		    	
+
 		    }
+
+		    Group g = (Group) byKey.get (l);
 	
-		    if (v == null) {
+		    if (g == null) {
 	
-		    	v = Lists.newArrayList();
+		    	g = addGroup (l, j, aggs, res);
 	
-		    	retVals.put (l, v);
+		    	byKey.put (l, g);
 	
 		    }
 	
-		    v.add (o);
+		    g.add (o, q);
 	
 		}		
 		
-		return retVals;
+		return res;
+
+    }
+
+    /**
+     * Takes the groups of {@link Grouper#groupSorted(List,GroupAggregates,GroupHandler)}
+     * one at a time.
+     */
+    public interface GroupHandler {
+
+    	/**
+    	 * @param key The group key.
+    	 * @param group The objects in the group or its aggregates.
+    	 * @throws QueryExecutionException If the group cannot be processed.
+    	 */
+    	void handle (List key, Object group) throws QueryExecutionException;
+
+    }
+
+    /**
+     * Group objects that are sorted by the values of the expressions.  A group is given
+     * to the handler as soon as the next object has another key, nothing is kept of it
+     * afterwards.
+     *
+     * @param objs The objects.
+     * @param aggs The aggregates of a group, or null to keep the objects of the group,
+     *             see {@link #group(List,GroupAggregates)}.
+     * @param handler Takes each group once complete.
+     * @return <code>false</code> if a key came back after its group was given to the
+     *         handler, the objects are not sorted and the groups handled are partial.
+     * @throws QueryExecutionException If a group by value or aggregate cannot be got or
+     *                                 the handler fails.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+	public boolean groupSorted (final List            objs,
+				    final GroupAggregates aggs,
+				    final GroupHandler    handler) throws QueryExecutionException {
+
+    	// Only the keys are kept, to find out that the objects are not sorted.
+    	Set done = Sets.newHashSet ();
+
+    	Group g = null;
+
+    	int s = objs.size ();
+
+    	for (int j = 0; j < s; j++) {
+
+    		Object o = objs.get (j);
+
+    		q.setCurrentObject (o);
+
+    		List l = null;
+
+    		if (cs == 1) {
+
+    			Object value = getValue ((Expression) cols.get (0), o);
+
+    			if (value == null) {
+
+    				continue;
+
+    			}
+
+    			if ((g != null) && (value.equals (g.key.get (0)))) {
+
+    				g.add (o, q);
+
+    				continue;
+
+    			}
+
+    			l = Lists.newArrayList (value);
+
+    		} else {
+
+    			l = getKey (o);
+
+    			if (l.isEmpty ()) {
+
+    				continue;
+
+    			}
+
+    			if ((g != null) && (l.equals (g.key))) {
+
+    				g.add (o, q);
+
+    				continue;
+
+    			}
+
+    		}
+
+    		if (g != null) {
+
+    			handler.handle (g.key, g.getValue ());
+
+    		}
+
+    		if (!done.add (l)) {
+
+    			return false;
+
+    		}
+
+    		g = new Group (l, j, aggs);
+
+    		g.add (o, q);
+
+    	}
+
+    	if (g != null) {
+
+    		handler.handle (g.key, g.getValue ());
+
+    	}
+
+    	return true;
+
+    }
+
+    /**
+     * @return The values of the expressions for the object, but for the null ones.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+	private List getKey (final Object o) throws QueryExecutionException {
+
+    	List l = Lists.newArrayList ();
+
+    	// Get the values...
+    	for (int i = 0; i < cs; i++) {
+
+    		Object value = getValue ((Expression) cols.get (i), o);
+
+    		if (value != null) {
+
+    			l.add (value);
+
+    		}
+
+    	}
+
+    	return l;
+
+    }
+
+    private Group addGroup (final List            key,
+			    final int             first,
+			    final GroupAggregates aggs,
+			    final List[]          parts) {
+
+    	Group g = new Group (key, first, aggs);
+
+    	parts[(parts.length == 1) ? 0 : (key.hashCode () & Integer.MAX_VALUE) % parts.length].add (g);
+
+    	return g;
+
+    }
+
+    private Object getValue (final Expression exp,
+			     final Object     o) throws QueryExecutionException {
+
+    	try {
+
+    		return exp.getValue (o, q);
+
+    	} catch (Exception e) {
+
+    		throw new QueryExecutionException ("Unable to get group by value for expression: " +
+    						   exp,
+    						   e);
+
+    	}
+
+    }
+
+    /**
+     * A group: its key, the index of its first object and either its objects or its
+     * aggregates.
+     */
+    private static class Group {
+
+    	private List key;
+    	private int first;
+    	private List objects;
+    	private GroupAggregates aggs;
+
+    	Group (final List key, final int first, final GroupAggregates proto) {
+
+    		this.key = key;
+    		this.first = first;
+
+    		if (proto == null) {
+
+    			objects = Lists.newArrayList ();
+
+    		} else {
+
+    			aggs = proto.newGroup ();
+
+    		}
+
+    	}
+
+    	@SuppressWarnings({ "unchecked" })
+		void add (final Object o, final Query q) throws QueryExecutionException {
+
+    		if (objects != null) {
+
+    			objects.add (o);
+
+    		} else {
+
+    			aggs.add (o, q);
+
+    		}
+
+    	}
+
+    	/**
+    	 * Merge the group of the objects that follow the objects of this one.
+    	 */
+    	@SuppressWarnings({ "unchecked" })
+		void merge (final Group g) {
+
+    		if (objects != null) {
+
+    			objects.addAll (g.objects);
+
+    		} else {
+
+    			aggs.merge (g.aggs);
+
+    		}
+
+    	}
+
+    	Object getValue () {
+
+    		return (objects != null) ? objects : aggs;
+
+    	}
 
     }
 
@@ -92,6 +92,84 @@ public class ListExpressionComparator implements Comparator
 
 	    Item it = (Item) this.items.get (i);
 
+	    int c = 0;
+
+	    int t = it.getNumberType (this.q);
+
+	    if ((t != NumberComparison.NONE)
+		&&
+		(!Utilities.hasObjectComparator ())
+	       )
+	    {
+
+		this.q.setCurrentObject (o1);
+
+		c = NumberComparison.UNKNOWN;
+
+		if (t == NumberComparison.LONG)
+		{
+
+		    Object v = it.exp.getValue (o1,
+						this.q);
+
+		    if (Utilities.isIntegral (v))
+		    {
+
+			this.q.setCurrentObject (o2);
+
+			c = NumberComparison.compare (((Number) v).longValue (),
+						      it.exp,
+						      t,
+						      o2,
+						      this.q);
+
+		    }
+
+		} else {
+
+		    double d = it.exp.evaluateDouble (o1,
+						      this.q);
+
+		    if (!Double.isNaN (d))
+		    {
+
+			this.q.setCurrentObject (o2);
+
+			c = NumberComparison.compare (d,
+						      it.exp,
+						      t,
+						      o2,
+						      this.q);
+
+		    }
+
+		}
+
+		if (c != NumberComparison.UNKNOWN)
+		{
+
+		    if (c == 0)
+		    {
+
+			continue;
+
+		    }
+
+		    if (it.dir == 1)
+		    {
+
+			c = -1 * c;
+
+		    }
+
+		    return c;
+
+		}
+
+		// A null, let the values decide.
+
+	    }
+
 	    this.q.setCurrentObject (o1);
 
 	    Object eo1 = it.exp.getValue (o1,
@@ -103,8 +181,8 @@ public class ListExpressionComparator implements Comparator
 					  this.q);
 
 	    // Compare them...
-	    int c = Utilities.compare (eo1,
-				       eo2);
+	    c = Utilities.compare (eo1,
+				   eo2);
 
 	    if (c == 0)
 	    {
@@ -322,6 +400,26 @@ public class ListExpressionComparator implements Comparator
 
 	public int dir = 0;
 	public Expression exp = null;
+	private int numberType = -1;
+
+	/**
+	 * How the values of the expression are compared, see {@link NumberComparison}, found
+	 * on first use since the expression may not have been inited when it is added.
+	 */
+	int getNumberType (Query q)
+	{
+
+	    if (this.numberType < 0)
+	    {
+
+		this.numberType = NumberComparison.getType (this.exp,
+							    q);
+
+	    }
+
+	    return this.numberType;
+
+	}
 
     }
 
@@ -0,0 +1,129 @@
+package org.josql.internal;
+
+/**
+ * A map of <code>long</code> keys to objects, held in open addressed arrays so that
+ * a lookup neither boxes the key nor creates an entry.  It is what {@link Grouper}
+ * finds the groups in when the GROUP BY is a single integral expression.
+ */
+public class LongKeyMap
+{
+
+    private long[] keys = null;
+    private Object[] values = null;
+    private int size = 0;
+
+    public LongKeyMap ()
+    {
+
+	this.keys = new long[16];
+	this.values = new Object[16];
+
+    }
+
+    /**
+     * Get the value of a key.
+     *
+     * @param k The key.
+     * @return The value or null if the key has none.
+     */
+    public Object get (long k)
+    {
+
+	int m = this.keys.length - 1;
+
+	for (int i = LongKeyMap.hash (k) & m; this.values[i] != null; i = (i + 1) & m)
+	{
+
+	    if (this.keys[i] == k)
+	    {
+
+		return this.values[i];
+
+	    }
+
+	}
+
+	return null;
+
+    }
+
+    /**
+     * Set the value of a key that has none.
+     *
+     * @param k The key.
+     * @param v The value, not null.
+     */
+    public void put (long   k,
+		     Object v)
+    {
+
+	// Keep at least half of the slots free.
+	if ((this.size + 1) * 2 > this.keys.length)
+	{
+
+	    long[] oks = this.keys;
+	    Object[] ovs = this.values;
+
+	    this.keys = new long[oks.length * 2];
+	    this.values = new Object[oks.length * 2];
+
+	    for (int i = 0; i < oks.length; i++)
+	    {
+
+		if (ovs[i] != null)
+		{
+
+		    this.insert (oks[i],
+				 ovs[i]);
+
+		}
+
+	    }
+
+	}
+
+	this.insert (k,
+		     v);
+
+	this.size++;
+
+    }
+
+    public int size ()
+    {
+
+	return this.size;
+
+    }
+
+    private void insert (long   k,
+			 Object v)
+    {
+
+	int m = this.keys.length - 1;
+
+	int i = LongKeyMap.hash (k) & m;
+
+	while (this.values[i] != null)
+	{
+
+	    i = (i + 1) & m;
+
+	}
+
+	this.keys[i] = k;
+	this.values[i] = v;
+
+    }
+
+    private static int hash (long k)
+    {
+
+	// Spread consecutive keys, such as hours or ids, over the table.
+	long h = k * 0x9E3779B97F4A7C15L;
+
+	return (int) (h ^ (h >>> 32));
+
+    }
+
+}
@@ -0,0 +1,198 @@
+package org.josql.internal;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+import com.gentlyweb.utils.Getter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+
+/**
+ * A process wide cache of the reflection metadata resolved when a query is inited:
+ * the accessor chains of the {@link Getter}s and the methods matched by the functions.
+ * <p>
+ * The metadata is held per class, the classes are weakly referenced and their
+ * metadata softly referenced so that the cache does not prevent a class loader
+ * from being unloaded. A {@link Getter} is immutable once built so it can be
+ * shared by all the queries.
+ */
+public class MetadataCache
+{
+
+    private static final Cache<Class, ConcurrentMap<Object, Object>> classes = CacheBuilder.newBuilder ()
+	.weakKeys ()
+	.softValues ()
+	.build ();
+
+    private MetadataCache ()
+    {
+
+    }
+
+    /**
+     * Get the getter for an accessor of a class, it is only built the first time.
+     *
+     * @param acc The accessor.
+     * @param c The class.
+     * @return The getter.
+     * @throws IllegalArgumentException If the accessor cannot be resolved.
+     */
+    public static Getter getGetter (final String acc,
+				    final Class  c)
+	                            throws IllegalArgumentException
+    {
+
+	if (c == null)
+	{
+
+	    // Let the getter report it.
+	    return new Getter (acc,
+			       c);
+
+	}
+
+	ConcurrentMap<Object, Object> meta = MetadataCache.getMetadata (c);
+
+	Getter g = (Getter) meta.get (acc);
+
+	if (g == null)
+	{
+
+	    g = new Getter (acc,
+			    c);
+
+	    meta.put (acc,
+		      g);
+
+	}
+
+	return g;
+
+    }
+
+    /**
+     * Get the methods of a function handler class that have been matched for a function
+     * name and the expected types of its arguments.
+     *
+     * @param c The function handler class.
+     * @param name The function name.
+     * @param argTypes The expected types of the arguments.
+     * @return The matched methods by score, null if they have not been matched yet.
+     */
+    public static SortedMap<Integer, Method> getFunctionMethods (final Class   c,
+								 final String  name,
+								 final Class[] argTypes)
+    {
+
+	return (SortedMap<Integer, Method>) MetadataCache.getMetadata (c).get (new FunctionKey (name,
+												 argTypes));
+
+    }
+
+    /**
+     * Set the methods of a function handler class that match a function name and the
+     * expected types of its arguments.
+     *
+     * @param c The function handler class.
+     * @param name The function name.
+     * @param argTypes The expected types of the arguments.
+     * @param methods The matched methods by score.
+     */
+    public static void putFunctionMethods (final Class                     c,
+					   final String                    name,
+					   final Class[]                   argTypes,
+					   final SortedMap<Integer, Method> methods)
+    {
+
+	MetadataCache.getMetadata (c).put (new FunctionKey (name,
+							    argTypes.clone ()),
+					   Collections.unmodifiableSortedMap (methods));
+
+    }
+
+    /**
+     * Remove all the cached metadata.
+     */
+    public static void clear ()
+    {
+
+	classes.invalidateAll ();
+
+    }
+
+    private static ConcurrentMap<Object, Object> getMetadata (final Class c)
+    {
+
+	try
+	{
+
+	    return classes.get (c,
+				new Callable<ConcurrentMap<Object, Object>> ()
+				{
+
+				    public ConcurrentMap<Object, Object> call ()
+				    {
+
+					return Maps.newConcurrentMap ();
+
+				    }
+
+				});
+
+	} catch (ExecutionException e) {
+
+	    // Can't happen, the map creation does not throw.
+	    throw new IllegalStateException (e);
+
+	}
+
+    }
+
+    private static class FunctionKey
+    {
+
+	private final String name;
+	private final Class[] argTypes;
+
+	FunctionKey (final String  name,
+		     final Class[] argTypes)
+	{
+
+	    this.name = name;
+	    this.argTypes = argTypes;
+
+	}
+
+	public int hashCode ()
+	{
+
+	    return this.name.hashCode () * 31 + Arrays.hashCode (this.argTypes);
+
+	}
+
+	public boolean equals (final Object o)
+	{
+
+	    if (!(o instanceof FunctionKey))
+	    {
+
+		return false;
+
+	    }
+
+	    FunctionKey k = (FunctionKey) o;
+
+	    return this.name.equals (k.name) && Arrays.equals (this.argTypes,
+							      k.argTypes);
+
+	}
+
+    }
+
+}
@@ -0,0 +1,106 @@
+package org.josql.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Gives names, of bind variables or save values, an integer slot so that their
+ * values can be held in an array rather than be looked up by name for every object.
+ * The slots are given when the expressions that use the names are inited.  Names are not
+ * case sensitive.
+ */
+public class NameSlots
+{
+
+    private Map<String, Integer> slots = new HashMap<String, Integer> ();
+    private List<String> names = new ArrayList<String> ();
+
+    /**
+     * Get the slot for a name, a new slot is given if the name does not have one yet.
+     *
+     * @param name The name.
+     * @return The slot.
+     */
+    public int getSlot (String name)
+    {
+
+	String n = name.toLowerCase ();
+
+	Integer s = this.slots.get (n);
+
+	if (s == null)
+	{
+
+	    s = Integer.valueOf (this.names.size ());
+
+	    this.slots.put (n,
+			    s);
+	    this.names.add (n);
+
+	}
+
+	return s.intValue ();
+
+    }
+
+    /**
+     * Find the slot for a lower case name.
+     *
+     * @param name The name, already in lower case.
+     * @return The slot or -1 if the name does not have one.
+     */
+    public int findSlot (String name)
+    {
+
+	Integer s = this.slots.get (name);
+
+	if (s == null)
+	{
+
+	    return -1;
+
+	}
+
+	return s.intValue ();
+
+    }
+
+    public int size ()
+    {
+
+	return this.names.size ();
+
+    }
+
+    /**
+     * Get the values of all the slots from a map of lower case names to values.
+     *
+     * @param m The map, can be null.
+     * @return The values, indexed by slot.
+     */
+    public Object[] getValues (Map m)
+    {
+
+	Object[] vals = new Object[this.names.size ()];
+
+	if (m == null)
+	{
+
+	    return vals;
+
+	}
+
+	for (int i = 0; i < vals.length; i++)
+	{
+
+	    vals[i] = m.get (this.names.get (i));
+
+	}
+
+	return vals;
+
+    }
+
+}
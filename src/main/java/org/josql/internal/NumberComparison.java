@@ -0,0 +1,270 @@
+package org.josql.internal;
+
+import org.josql.Query;
+import org.josql.exceptions.QueryExecutionException;
+import org.josql.expressions.ArithmeticExpression;
+import org.josql.expressions.Expression;
+
+/**
+ * Compares the values of numeric expressions without creating any number objects.
+ * How the values of an expression are got is decided once, when the expression is
+ * inited, from its expected return type, see {@link #getType(Expression,Query)}:
+ * <ul>
+ *   <li>{@link #LONG} - the values are integers, longs, shorts or bytes and are
+ *       compared as <b>long</b>s, so that large longs are not rounded.</li>
+ *   <li>{@link #DOUBLE} - the values are doubles or floats, or the result of arithmetic,
+ *       and are got with {@link Expression#evaluateDouble(Object,Query)}.</li>
+ *   <li>{@link #NONE} - anything else, the values are compared with
+ *       {@link Utilities#compare(Object,Object)}.</li>
+ * </ul>
+ * A <b>long</b> and a <b>double</b> are compared exactly, see
+ * {@link Utilities#compareLongDouble(long,double)}.  When a value turns out to be
+ * <code>null</code>, or not of the expected type, {@link #UNKNOWN} is returned and the
+ * caller should compare the values themselves.
+ */
+public class NumberComparison
+{
+
+    public static final int NONE = 0;
+    public static final int LONG = 1;
+    public static final int DOUBLE = 2;
+
+    /**
+     * Returned when the values cannot be compared here.
+     */
+    public static final int UNKNOWN = Integer.MIN_VALUE;
+
+    private NumberComparison ()
+    {
+
+    }
+
+    /**
+     * Get the way the values of an inited expression should be compared.
+     *
+     * @param e The expression.
+     * @param q The Query object.
+     * @return One of: {@link #NONE}, {@link #LONG} or {@link #DOUBLE}.
+     */
+    public static int getType (Expression e,
+			       Query      q)
+    {
+
+	if (!e.hasNumericValue (q))
+	{
+
+	    return NumberComparison.NONE;
+
+	}
+
+	// All arithmetic is done with doubles.
+	if (e instanceof ArithmeticExpression)
+	{
+
+	    return NumberComparison.DOUBLE;
+
+	}
+
+	Class c = null;
+
+	try
+	{
+
+	    c = e.getExpectedReturnType (q);
+
+	} catch (Exception ex) {
+
+	    return NumberComparison.NONE;
+
+	}
+
+	if (Utilities.isIntegral (c))
+	{
+
+	    return NumberComparison.LONG;
+
+	}
+
+	if ((c == Double.TYPE)
+	    ||
+	    (c == Float.TYPE)
+	    ||
+	    (c == Double.class)
+	    ||
+	    (c == Float.class)
+	   )
+	{
+
+	    return NumberComparison.DOUBLE;
+
+	}
+
+	return NumberComparison.NONE;
+
+    }
+
+    /**
+     * Compare the values of two expressions for an object.
+     *
+     * @param l The LHS.
+     * @param lt The type of the LHS, not {@link #NONE}.
+     * @param r The RHS.
+     * @param rt The type of the RHS, not {@link #NONE}.
+     * @param o The current object.
+     * @param q The Query object.
+     * @return The result of the comparison or {@link #UNKNOWN}.
+     * @throws QueryExecutionException If a value cannot be got.
+     */
+    public static int compare (Expression l,
+			       int        lt,
+			       Expression r,
+			       int        rt,
+			       Object     o,
+			       Query      q)
+	                       throws QueryExecutionException
+    {
+
+	if (lt == NumberComparison.LONG)
+	{
+
+	    Object v = l.getValue (o,
+				   q);
+
+	    if (!Utilities.isIntegral (v))
+	    {
+
+		return NumberComparison.UNKNOWN;
+
+	    }
+
+	    return NumberComparison.compare (((Number) v).longValue (),
+					     r,
+					     rt,
+					     o,
+					     q);
+
+	}
+
+	double d = l.evaluateDouble (o,
+				     q);
+
+	if (Double.isNaN (d))
+	{
+
+	    return NumberComparison.UNKNOWN;
+
+	}
+
+	return NumberComparison.compare (d,
+					 r,
+					 rt,
+					 o,
+					 q);
+
+    }
+
+    /**
+     * Compare a <b>long</b> to the value of an expression.
+     *
+     * @param x The long.
+     * @param r The expression.
+     * @param rt The type of the expression, not {@link #NONE}.
+     * @param o The current object.
+     * @param q The Query object.
+     * @return The result of the comparison or {@link #UNKNOWN}.
+     * @throws QueryExecutionException If the value cannot be got.
+     */
+    public static int compare (long       x,
+			       Expression r,
+			       int        rt,
+			       Object     o,
+			       Query      q)
+	                       throws QueryExecutionException
+    {
+
+	if (rt == NumberComparison.LONG)
+	{
+
+	    Object v = r.getValue (o,
+				   q);
+
+	    if (!Utilities.isIntegral (v))
+	    {
+
+		return NumberComparison.UNKNOWN;
+
+	    }
+
+	    return Utilities.compareLongs (x,
+					   ((Number) v).longValue ());
+
+	}
+
+	double d = r.evaluateDouble (o,
+				     q);
+
+	if (Double.isNaN (d))
+	{
+
+	    return NumberComparison.UNKNOWN;
+
+	}
+
+	return Utilities.compareLongDouble (x,
+					    d);
+
+    }
+
+    /**
+     * Compare a <b>double</b> to the value of an expression.
+     *
+     * @param x The double, not <code>NaN</code>.
+     * @param r The expression.
+     * @param rt The type of the expression, not {@link #NONE}.
+     * @param o The current object.
+     * @param q The Query object.
+     * @return The result of the comparison or {@link #UNKNOWN}.
+     * @throws QueryExecutionException If the value cannot be got.
+     */
+    public static int compare (double     x,
+			       Expression r,
+			       int        rt,
+			       Object     o,
+			       Query      q)
+	                       throws QueryExecutionException
+    {
+
+	if (rt == NumberComparison.LONG)
+	{
+
+	    Object v = r.getValue (o,
+				   q);
+
+	    if (!Utilities.isIntegral (v))
+	    {
+
+		return NumberComparison.UNKNOWN;
+
+	    }
+
+	    return -Utilities.compareLongDouble (((Number) v).longValue (),
+						 x);
+
+	}
+
+	double d = r.evaluateDouble (o,
+				     q);
+
+	if (Double.isNaN (d))
+	{
+
+	    return NumberComparison.UNKNOWN;
+
+	}
+
+	return Double.compare (x,
+			       d);
+
+    }
+
+}
@@ -0,0 +1,137 @@
+package org.josql.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.josql.exceptions.QueryExecutionException;
+
+/**
+ * Runs the parts of a query execution that are shared by more than one thread, see
+ * {@link org.josql.Query#setGroupByThreads(int)}.  The threads are daemon threads of
+ * a pool shared by all the queries, they are only created when needed.
+ */
+public class ParallelTasks
+{
+
+    private static ExecutorService pool = null;
+
+    private ParallelTasks ()
+    {
+
+    }
+
+    private static synchronized ExecutorService getPool ()
+    {
+
+	if (ParallelTasks.pool == null)
+	{
+
+	    ParallelTasks.pool = Executors.newCachedThreadPool (new ThreadFactory ()
+	    {
+
+		public Thread newThread (Runnable r)
+		{
+
+		    Thread t = new Thread (r,
+					   "josql-group-by");
+		    t.setDaemon (true);
+
+		    return t;
+
+		}
+
+	    });
+
+	}
+
+	return ParallelTasks.pool;
+
+    }
+
+    /**
+     * Run tasks, the first with the calling thread and the others with the pool, and
+     * wait for all of them to end.
+     *
+     * @param tasks The tasks.
+     * @param desc What the tasks do, for the exception message.
+     * @throws QueryExecutionException The exception of the first task that failed.
+     */
+    public static void run (List<Callable<Object>> tasks,
+			    String                 desc)
+	                    throws                 QueryExecutionException
+    {
+
+	List<Future<Object>> futures = new ArrayList<Future<Object>> ();
+
+	for (int i = 1; i < tasks.size (); i++)
+	{
+
+	    futures.add (ParallelTasks.getPool ().submit (tasks.get (i)));
+
+	}
+
+	Throwable ex = null;
+
+	try
+	{
+
+	    tasks.get (0).call ();
+
+	} catch (Exception e) {
+
+	    ex = e;
+
+	}
+
+	for (int i = 0; i < futures.size (); i++)
+	{
+
+	    try
+	    {
+
+		futures.get (i).get ();
+
+	    } catch (ExecutionException e) {
+
+		if (ex == null)
+		{
+
+		    ex = e.getCause ();
+
+		}
+
+	    } catch (InterruptedException e) {
+
+		Thread.currentThread ().interrupt ();
+
+		throw new QueryExecutionException ("Interrupted while waiting to " + desc,
+						   e);
+
+	    }
+
+	}
+
+	if (ex instanceof QueryExecutionException)
+	{
+
+	    throw (QueryExecutionException) ex;
+
+	}
+
+	if (ex != null)
+	{
+
+	    throw new QueryExecutionException ("Unable to " + desc,
+					       ex);
+
+	}
+
+    }
+
+}
@@ -0,0 +1,127 @@
+package org.josql.internal;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A list of the same object a number of times, without holding the object that
+ * many times.  It is what a query whose columns only hold aggregates returns: a row
+ * per object that matches the WHERE clause, all of them the same.
+ * <p>
+ * The first time the list is changed the objects are copied to an <code>ArrayList</code>
+ * that is then used instead.
+ */
+public class RepeatedList extends AbstractList implements RandomAccess
+{
+
+    private Object object = null;
+    private int size = 0;
+    private List copy = null;
+
+    /**
+     * @param object The object.
+     * @param size The number of times the object is in the list.
+     */
+    public RepeatedList (Object object,
+			 int    size)
+    {
+
+	this.object = object;
+	this.size = size;
+
+    }
+
+    public Object get (int i)
+    {
+
+	if (this.copy != null)
+	{
+
+	    return this.copy.get (i);
+
+	}
+
+	if ((i < 0)
+	    ||
+	    (i >= this.size)
+	   )
+	{
+
+	    throw new IndexOutOfBoundsException ("Index: " + i + ", size: " + this.size);
+
+	}
+
+	return this.object;
+
+    }
+
+    public int size ()
+    {
+
+	if (this.copy != null)
+	{
+
+	    return this.copy.size ();
+
+	}
+
+	return this.size;
+
+    }
+
+    public Object set (int    i,
+		       Object o)
+    {
+
+	return this.getCopy ().set (i,
+				    o);
+
+    }
+
+    public void add (int    i,
+		     Object o)
+    {
+
+	this.modCount++;
+
+	this.getCopy ().add (i,
+			     o);
+
+    }
+
+    public Object remove (int i)
+    {
+
+	this.modCount++;
+
+	return this.getCopy ().remove (i);
+
+    }
+
+    private List getCopy ()
+    {
+
+	if (this.copy == null)
+	{
+
+	    List l = new ArrayList (this.size);
+
+	    for (int i = 0; i < this.size; i++)
+	    {
+
+		l.add (this.object);
+
+	    }
+
+	    this.copy = l;
+	    this.object = null;
+
+	}
+
+	return this.copy;
+
+    }
+
+}
@@ -0,0 +1,223 @@
+package org.josql.internal;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The values of the expressions shared by the clauses of a query, kept per row
+ * for the time of an execution.  The rows are held by identity, an expression
+ * gets a slot from {@link CommonSubExpressions} and reads and writes its value
+ * for a row at that slot.
+ * <p>
+ * The values of a row are only kept while a later clause can read them:
+ * <ul>
+ *   <li>the WHERE clause drops them for the rows that do not match, and for all
+ *       the rows when no select column or ORDER BY shares an expression with it,</li>
+ *   <li>the LIMIT clause keeps them for the rows it keeps only,</li>
+ *   <li>a group drops them for its rows once its columns have been got,</li>
+ *   <li>all are dropped at the end of the execution.</li>
+ * </ul>
+ * So at most the rows that match the WHERE clause have values, and only until they
+ * are ordered and their columns are got.
+ */
+public class RowValues
+{
+
+    /**
+     * The value returned for a slot that has not been set for a row.
+     */
+    public static final Object NOT_SET = new Object ();
+
+    private int size = 0;
+    private Map rows = new IdentityHashMap ();
+
+    // The clauses evaluate the expressions of a row one after the other, the
+    // values of the last row used save the lookup.
+    private Object lastRow = null;
+    private Object[] lastValues = null;
+
+    public RowValues (int size)
+    {
+
+	this.size = size;
+
+    }
+
+    public int getSize ()
+    {
+
+	return this.size;
+
+    }
+
+    /**
+     * Get the value of a slot for a row.
+     *
+     * @param slot The slot.
+     * @param row The row.
+     * @return The value or {@link #NOT_SET} if it has not been set yet.
+     */
+    public Object get (int    slot,
+		       Object row)
+    {
+
+	Object[] vals = this.getValues (row,
+					false);
+
+	if (vals == null)
+	{
+
+	    return NOT_SET;
+
+	}
+
+	return vals[slot];
+
+    }
+
+    /**
+     * Set the value of a slot for a row.
+     *
+     * @param slot The slot.
+     * @param row The row.
+     * @param v The value.
+     */
+    public void put (int    slot,
+		     Object row,
+		     Object v)
+    {
+
+	this.getValues (row,
+			true)[slot] = v;
+
+    }
+
+    /**
+     * Drop the values of a row, used for the rows that will not be evaluated anymore.
+     *
+     * @param row The row.
+     */
+    public void remove (Object row)
+    {
+
+	this.rows.remove (row);
+
+	if (this.lastRow == row)
+	{
+
+	    this.lastRow = null;
+	    this.lastValues = null;
+
+	}
+
+    }
+
+    /**
+     * Drop the values of the rows that are not in a list, used once a clause has
+     * limited the rows.
+     *
+     * @param rows The rows that will be evaluated again.
+     */
+    public void retain (List rows)
+    {
+
+	if (rows.size () >= this.rows.size ())
+	{
+
+	    return;
+
+	}
+
+	Map kept = new IdentityHashMap ();
+
+	for (int i = 0; i < rows.size (); i++)
+	{
+
+	    Object row = rows.get (i);
+
+	    Object vals = this.rows.get (row);
+
+	    if (vals != null)
+	    {
+
+		kept.put (row,
+			  vals);
+
+	    }
+
+	}
+
+	this.rows = kept;
+	this.lastRow = null;
+	this.lastValues = null;
+
+    }
+
+    /**
+     * @return The number of rows with values.
+     */
+    public int getRowCount ()
+    {
+
+	return this.rows.size ();
+
+    }
+
+    public void clear ()
+    {
+
+	this.rows.clear ();
+	this.lastRow = null;
+	this.lastValues = null;
+
+    }
+
+    private Object[] getValues (Object  row,
+				boolean create)
+    {
+
+	if ((this.lastValues != null)
+	    &&
+	    (this.lastRow == row)
+	   )
+	{
+
+	    return this.lastValues;
+
+	}
+
+	Object[] vals = (Object[]) this.rows.get (row);
+
+	if (vals == null)
+	{
+
+	    if (!create)
+	    {
+
+		return null;
+
+	    }
+
+	    vals = new Object[this.size];
+
+	    for (int i = 0; i < this.size; i++)
+	    {
+
+		vals[i] = NOT_SET;
+
+	    }
+
+	    this.rows.put (row,
+			   vals);
+
+	}
+
+	this.lastRow = row;
+	this.lastValues = vals;
+
+	return vals;
+
+    }
+
+}
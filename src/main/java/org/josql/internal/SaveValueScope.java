@@ -0,0 +1,160 @@
+package org.josql.internal;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The save values of a group, laid over the save values of the query.  A value set in
+ * the group is kept in the scope, any other value is got from the save values of the
+ * query, which are never copied or changed.  Nothing is allocated until a value is set.
+ * <p>
+ * Only the values set in the scope can be removed.
+ */
+public class SaveValueScope extends AbstractMap
+{
+
+    private Map parent = null;
+    private Map local = null;
+
+    /**
+     * @param parent The save values of the query, can be null.
+     */
+    public SaveValueScope (Map parent)
+    {
+
+	this.parent = parent;
+
+    }
+
+    /**
+     * @return <code>true</code> if a value has been set in this scope.
+     */
+    public boolean hasLocalValues ()
+    {
+
+	return (this.local != null)
+	       &&
+	       (this.local.size () > 0);
+
+    }
+
+    public Object get (Object k)
+    {
+
+	if ((this.local != null)
+	    &&
+	    (this.local.containsKey (k))
+	   )
+	{
+
+	    return this.local.get (k);
+
+	}
+
+	if (this.parent == null)
+	{
+
+	    return null;
+
+	}
+
+	return this.parent.get (k);
+
+    }
+
+    public boolean containsKey (Object k)
+    {
+
+	return ((this.local != null)
+		&&
+		(this.local.containsKey (k))
+	       )
+	       ||
+	       ((this.parent != null)
+		&&
+		(this.parent.containsKey (k))
+	       );
+
+    }
+
+    /**
+     * Set a value in this scope.
+     *
+     * @param k The key.
+     * @param v The value.
+     * @return The value the key had before, possibly from the parent.
+     */
+    public Object put (Object k,
+		       Object v)
+    {
+
+	Object old = this.get (k);
+
+	if (this.local == null)
+	{
+
+	    this.local = new HashMap ();
+
+	}
+
+	this.local.put (k,
+			v);
+
+	return old;
+
+    }
+
+    public Object remove (Object k)
+    {
+
+	if (this.local == null)
+	{
+
+	    return null;
+
+	}
+
+	return this.local.remove (k);
+
+    }
+
+    public void clear ()
+    {
+
+	this.local = null;
+
+    }
+
+    /**
+     * A copy of the values of the parent and of this scope, changes to it are not
+     * reflected in the scope.
+     *
+     * @return The entries.
+     */
+    public Set entrySet ()
+    {
+
+	Map m = new HashMap ();
+
+	if (this.parent != null)
+	{
+
+	    m.putAll (this.parent);
+
+	}
+
+	if (this.local != null)
+	{
+
+	    m.putAll (this.local);
+
+	}
+
+	return Collections.unmodifiableMap (m).entrySet ();
+
+    }
+
+}
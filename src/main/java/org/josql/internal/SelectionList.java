@@ -0,0 +1,266 @@
+package org.josql.internal;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A list of the objects selected from a list, held as the indices of the objects
+ * rather than as a copy of them.  It is what the WHERE clause returns when only some
+ * of the objects match.
+ * <p>
+ * The list can be sorted, see: {@link #sort(Comparator)}, without copying the objects.
+ * The first time it is changed in any other way the selected objects are copied to
+ * an <code>ArrayList</code> that is then used instead of the indices.
+ */
+public class SelectionList extends AbstractList implements RandomAccess
+{
+
+    private List source = null;
+    private int[] indices = null;
+    private int size = 0;
+    private List copy = null;
+
+    /**
+     * @param source The list the objects are selected from, should be random access.
+     * @param indices The indices of the selected objects in the source, the array is
+     *                not copied.
+     * @param size The number of indices used.
+     */
+    public SelectionList (List  source,
+			  int[] indices,
+			  int   size)
+    {
+
+	this.source = source;
+	this.size = size;
+
+	if (size < (indices.length / 4))
+	{
+
+	    // Don't hold on to a mostly unused array.
+	    indices = Arrays.copyOf (indices,
+				     size);
+
+	}
+
+	this.indices = indices;
+
+    }
+
+    /**
+     * Get a selection of all the objects of a list, in order.
+     *
+     * @param source The list, should be random access.
+     * @return The selection.
+     */
+    public static SelectionList all (List source)
+    {
+
+	int[] indices = new int[source.size ()];
+
+	for (int i = 0; i < indices.length; i++)
+	{
+
+	    indices[i] = i;
+
+	}
+
+	return new SelectionList (source,
+				  indices,
+				  indices.length);
+
+    }
+
+    public Object get (int i)
+    {
+
+	if (this.copy != null)
+	{
+
+	    return this.copy.get (i);
+
+	}
+
+	if (i >= this.size)
+	{
+
+	    throw new IndexOutOfBoundsException ("Index: " + i + ", size: " + this.size);
+
+	}
+
+	return this.source.get (this.indices[i]);
+
+    }
+
+    public int size ()
+    {
+
+	if (this.copy != null)
+	{
+
+	    return this.copy.size ();
+
+	}
+
+	return this.size;
+
+    }
+
+    public Object set (int    i,
+		       Object o)
+    {
+
+	return this.getCopy ().set (i,
+				    o);
+
+    }
+
+    public void add (int    i,
+		     Object o)
+    {
+
+	this.modCount++;
+
+	this.getCopy ().add (i,
+			     o);
+
+    }
+
+    public Object remove (int i)
+    {
+
+	this.modCount++;
+
+	return this.getCopy ().remove (i);
+
+    }
+
+    /**
+     * Sort the selected objects, the sort is stable.
+     *
+     * @param c The comparator.
+     */
+    public void sort (Comparator c)
+    {
+
+	this.modCount++;
+
+	if (this.copy != null)
+	{
+
+	    java.util.Collections.sort (this.copy,
+					c);
+
+	    return;
+
+	}
+
+	int[] tmp = new int[this.size];
+
+	this.mergeSort (this.indices,
+			tmp,
+			0,
+			this.size,
+			c);
+
+    }
+
+    private void mergeSort (int[]      a,
+			    int[]      tmp,
+			    int        from,
+			    int        to,
+			    Comparator c)
+    {
+
+	if (to - from < 2)
+	{
+
+	    return;
+
+	}
+
+	int mid = (from + to) >>> 1;
+
+	this.mergeSort (a,
+			tmp,
+			from,
+			mid,
+			c);
+	this.mergeSort (a,
+			tmp,
+			mid,
+			to,
+			c);
+
+	// Already in order.
+	if (c.compare (this.source.get (a[mid - 1]),
+		       this.source.get (a[mid])) <= 0)
+	{
+
+	    return;
+
+	}
+
+	System.arraycopy (a,
+			  from,
+			  tmp,
+			  from,
+			  to - from);
+
+	int i = from;
+	int j = mid;
+
+	for (int k = from; k < to; k++)
+	{
+
+	    if ((j >= to)
+		||
+		((i < mid)
+		 &&
+		 (c.compare (this.source.get (tmp[i]),
+			     this.source.get (tmp[j])) <= 0)
+		)
+	       )
+	    {
+
+		a[k] = tmp[i++];
+
+	    } else {
+
+		a[k] = tmp[j++];
+
+	    }
+
+	}
+
+    }
+
+    private List getCopy ()
+    {
+
+	if (this.copy == null)
+	{
+
+	    List l = new ArrayList (this.size);
+
+	    for (int i = 0; i < this.size; i++)
+	    {
+
+		l.add (this.source.get (this.indices[i]));
+
+	    }
+
+	    this.copy = l;
+	    this.indices = null;
+
+	}
+
+	return this.copy;
+
+    }
+
+}
@@ -0,0 +1,639 @@
+package org.josql.internal;
+
+import java.lang.reflect.Method;
+import java.util.List;
+
+import org.josql.Query;
+import org.josql.exceptions.QueryExecutionException;
+import org.josql.expressions.AdaptiveAndOrExpression;
+import org.josql.expressions.BetweenExpression;
+import org.josql.expressions.BinaryExpression;
+import org.josql.expressions.BindVariable;
+import org.josql.expressions.BooleanExpression;
+import org.josql.expressions.ConstantExpression;
+import org.josql.expressions.Expression;
+import org.josql.expressions.Function;
+import org.josql.expressions.InExpression;
+import org.josql.expressions.SaveValue;
+import org.josql.functions.Accumulator;
+import org.josql.functions.CollectionFunctions;
+import org.josql.functions.GroupingFunctions;
+import org.josql.functions.TypedFunction;
+
+/**
+ * An aggregate function whose value is worked out one object at a time, so that it
+ * can be folded in while the WHERE clause is evaluated rather than over a list of
+ * the results afterwards.  The aggregates that can be streamed are:
+ * <ul>
+ *   <li><code>sum</code>, <code>avg</code>, <code>min</code>, <code>least</code>, <code>max</code> and
+ *       <code>greatest</code> from {@link GroupingFunctions},</li>
+ *   <li><code>count</code> from {@link CollectionFunctions},</li>
+ *   <li>an {@link Accumulator} registered in a {@link org.josql.functions.FunctionRegistry}.</li>
+ * </ul>
+ * The built-in functions must be given either just the expression or
+ * <code>:_allobjs</code> and the expression, and the value of the expression must
+ * only depend on the object: accessors, constants, arithmetic, deterministic functions
+ * and conditions of these.
+ * <p>
+ * The values returned are the same as those of the functions.  The aggregates of
+ * consecutive runs of objects can be {@link #merge(StreamingAggregate) merged}, but for
+ * an {@link Accumulator}.
+ */
+public class StreamingAggregate
+{
+
+    private static final int SUM = 0;
+    private static final int AVG = 1;
+    private static final int COUNT = 2;
+    private static final int ACCUMULATOR = 3;
+    private static final int MIN = 4;
+    private static final int MAX = 5;
+
+    private int kind = 0;
+    private Expression exp = null;
+    private Accumulator acc = null;
+
+    private double total = 0;
+    private int count = 0;
+    private Object state = null;
+    private Object value = null;
+    private boolean nullFound = false;
+    private int added = 0;
+
+    private StreamingAggregate (int         kind,
+				Expression  exp,
+				Accumulator acc)
+    {
+
+	this.kind = kind;
+	this.exp = exp;
+	this.acc = acc;
+
+	if (acc != null)
+	{
+
+	    this.state = acc.start ();
+
+	}
+
+    }
+
+    /**
+     * Get the streamed form of an inited expression.
+     *
+     * @param e The expression.
+     * @param q The Query object.
+     * @return A new aggregate, with no objects added, or null if the expression
+     *         cannot be streamed.
+     */
+    public static StreamingAggregate get (Expression e,
+					  Query      q)
+    {
+
+	if (!(e instanceof Function))
+	{
+
+	    return null;
+
+	}
+
+	Function f = (Function) e;
+
+	List ps = f.getParameters ();
+
+	if ((f.getAccessor () != null)
+	    ||
+	    (ps == null)
+	   )
+	{
+
+	    return null;
+
+	}
+
+	TypedFunction tf = f.getTypedFunction ();
+
+	if (tf != null)
+	{
+
+	    if ((tf.getAccumulator () == null)
+		||
+		(ps.size () != 1)
+		||
+		(!StreamingAggregate.isRowValue ((Expression) ps.get (0)))
+	       )
+	    {
+
+		return null;
+
+	    }
+
+	    return new StreamingAggregate (StreamingAggregate.ACCUMULATOR,
+					   (Expression) ps.get (0),
+					   tf.getAccumulator ());
+
+	}
+
+	Method m = f.getMethod ();
+
+	if (m == null)
+	{
+
+	    return null;
+
+	}
+
+	int kind = -1;
+
+	if (m.getDeclaringClass () == GroupingFunctions.class)
+	{
+
+	    if (m.getName ().equals ("sum"))
+	    {
+
+		kind = StreamingAggregate.SUM;
+
+	    }
+
+	    if (m.getName ().equals ("avg"))
+	    {
+
+		kind = StreamingAggregate.AVG;
+
+	    }
+
+	    // A comparator of its own might not order nulls first.
+	    if (!Utilities.hasObjectComparator ())
+	    {
+
+		if ((m.getName ().equals ("min"))
+		    ||
+		    (m.getName ().equals ("least"))
+		   )
+		{
+
+		    kind = StreamingAggregate.MIN;
+
+		}
+
+		if ((m.getName ().equals ("max"))
+		    ||
+		    (m.getName ().equals ("greatest"))
+		   )
+		{
+
+		    kind = StreamingAggregate.MAX;
+
+		}
+
+	    }
+
+	}
+
+	if ((m.getDeclaringClass () == CollectionFunctions.class)
+	    &&
+	    (m.getName ().equals ("count"))
+	   )
+	{
+
+	    kind = StreamingAggregate.COUNT;
+
+	}
+
+	Class[] pts = m.getParameterTypes ();
+
+	if ((kind < 0)
+	    ||
+	    (pts.length == 0)
+	    ||
+	    (pts.length > 2)
+	    ||
+	    (pts[pts.length - 1] != Expression.class)
+	   )
+	{
+
+	    return null;
+
+	}
+
+	if (pts.length == 2)
+	{
+
+	    // The objects must be the ones in context.
+	    Object o = ps.get (0);
+
+	    if ((!(o instanceof BindVariable))
+		||
+		(!Query.ALL_OBJS_VAR_NAME.equalsIgnoreCase (((BindVariable) o).getName ()))
+		||
+		(((BindVariable) o).getAccessor () != null)
+	       )
+	    {
+
+		return null;
+
+	    }
+
+	}
+
+	Expression exp = (Expression) ps.get (pts.length - 1);
+
+	if (!StreamingAggregate.isRowValue (exp))
+	{
+
+	    return null;
+
+	}
+
+	if (kind == StreamingAggregate.SUM)
+	{
+
+	    // Let the function report an expression that can't return a number.
+	    try
+	    {
+
+		Class c = exp.getExpectedReturnType (q);
+
+		if ((c != Object.class)
+		    &&
+		    (!Utilities.isNumber (c))
+		   )
+		{
+
+		    return null;
+
+		}
+
+	    } catch (Exception ex) {
+
+		return null;
+
+	    }
+
+	}
+
+	return new StreamingAggregate (kind,
+				       exp,
+				       null);
+
+    }
+
+    /**
+     * @return A new aggregate of the same function and expression, with no objects added.
+     */
+    public StreamingAggregate copy ()
+    {
+
+	return new StreamingAggregate (this.kind,
+				       this.exp,
+				       this.acc);
+
+    }
+
+    /**
+     * @return <code>true</code> if the aggregate can be {@link #merge(StreamingAggregate) merged}.
+     */
+    public boolean isMergeable ()
+    {
+
+	return this.kind != StreamingAggregate.ACCUMULATOR;
+
+    }
+
+    /**
+     * Merge the aggregate of the objects that follow the objects of this aggregate,
+     * this aggregate then has the value it would have had if they had been added to it.
+     *
+     * @param a The aggregate of the following objects, a copy of this one.
+     */
+    public void merge (StreamingAggregate a)
+    {
+
+	if (a.added == 0)
+	{
+
+	    return;
+
+	}
+
+	this.added += a.added;
+	this.count += a.count;
+	this.total += a.total;
+
+	if ((this.kind == StreamingAggregate.MIN)
+	    &&
+	    (a.nullFound)
+	   )
+	{
+
+	    // The least value is looked for again after a null, see: GroupingFunctions.least.
+	    this.value = a.value;
+	    this.nullFound = true;
+
+	    return;
+
+	}
+
+	if ((this.kind == StreamingAggregate.MIN)
+	    ||
+	    (this.kind == StreamingAggregate.MAX)
+	   )
+	{
+
+	    this.fold (a.value);
+
+	}
+
+    }
+
+    private void fold (Object v)
+    {
+
+	if (this.value == null)
+	{
+
+	    this.value = v;
+
+	    return;
+
+	}
+
+	int c = Utilities.compare (v,
+				   this.value);
+
+	if ((this.kind == StreamingAggregate.MIN) ? (c < 0) : (c > 0))
+	{
+
+	    this.value = v;
+
+	}
+
+    }
+
+    /**
+     * @param e The expression.
+     * @return <code>true</code> if the value of the expression is the same for all the
+     *         objects: a constant, a save value or a named bind variable.
+     */
+    public static boolean isSameForAllObjects (Expression e)
+    {
+
+	if ((e instanceof ConstantExpression)
+	    ||
+	    (e instanceof SaveValue)
+	   )
+	{
+
+	    return true;
+
+	}
+
+	return (e instanceof BindVariable)
+	       &&
+	       (!((BindVariable) e).getName ().startsWith (BindVariable.SPECIAL_NAME_PREFIX));
+
+    }
+
+    /**
+     * @param e The expression.
+     * @return <code>true</code> if the value of the expression only depends on the
+     *         current object.
+     */
+    private static boolean isRowValue (Expression e)
+    {
+
+	if ((e == null)
+	    ||
+	    (e instanceof BooleanExpression)
+	    ||
+	    (CommonSubExpressions.getKey (e) != null)
+	   )
+	{
+
+	    return true;
+
+	}
+
+	if (e instanceof AdaptiveAndOrExpression)
+	{
+
+	    return StreamingAggregate.areRowValues (((AdaptiveAndOrExpression) e).getBranches ());
+
+	}
+
+	if (!(e instanceof BinaryExpression))
+	{
+
+	    return false;
+
+	}
+
+	BinaryExpression be = (BinaryExpression) e;
+
+	if ((!StreamingAggregate.isRowValue (be.getLeft ()))
+	    ||
+	    (!StreamingAggregate.isRowValue (be.getRight ()))
+	   )
+	{
+
+	    return false;
+
+	}
+
+	if (e instanceof BetweenExpression)
+	{
+
+	    return (StreamingAggregate.isRowValue (((BetweenExpression) e).getStart ()))
+		   &&
+		   (StreamingAggregate.isRowValue (((BetweenExpression) e).getEnd ()));
+
+	}
+
+	if (e instanceof InExpression)
+	{
+
+	    return StreamingAggregate.areRowValues (((InExpression) e).getItems ());
+
+	}
+
+	return true;
+
+    }
+
+    private static boolean areRowValues (List exps)
+    {
+
+	if (exps == null)
+	{
+
+	    return true;
+
+	}
+
+	for (int i = 0; i < exps.size (); i++)
+	{
+
+	    Object o = exps.get (i);
+
+	    if ((o instanceof Expression)
+		&&
+		(!StreamingAggregate.isRowValue ((Expression) o))
+	       )
+	    {
+
+		return false;
+
+	    }
+
+	}
+
+	return true;
+
+    }
+
+    /**
+     * Add an object to the aggregate.
+     *
+     * @param o The object.
+     * @param q The Query object, the current object should be set to the object.
+     * @throws QueryExecutionException If the value of the expression cannot be got or
+     *                                 is not of the right type.
+     */
+    public void add (Object o,
+		     Query  q)
+	             throws QueryExecutionException
+    {
+
+	this.added++;
+
+	if (this.kind == StreamingAggregate.COUNT)
+	{
+
+	    if (this.exp.isTrue (o,
+				 q))
+	    {
+
+		this.count++;
+
+	    }
+
+	    return;
+
+	}
+
+	Object v = this.exp.getValue (o,
+				      q);
+
+	if (this.kind == StreamingAggregate.ACCUMULATOR)
+	{
+
+	    this.state = this.acc.add (this.state,
+				       v);
+
+	    return;
+
+	}
+
+	if ((this.kind == StreamingAggregate.MIN)
+	    ||
+	    (this.kind == StreamingAggregate.MAX)
+	   )
+	{
+
+	    if (v == null)
+	    {
+
+		this.nullFound = true;
+
+	    }
+
+	    this.fold (v);
+
+	    return;
+
+	}
+
+	this.count++;
+
+	if (v == null)
+	{
+
+	    if (this.kind == StreamingAggregate.SUM)
+	    {
+
+		// Assume it's zero.
+		return;
+
+	    }
+
+	    throw new QueryExecutionException ("Unable to get value from expression: " +
+					       this.exp +
+					       " for item: " +
+					       (this.added - 1) +
+					       " from the list of objects.");
+
+	}
+
+	if (!(v instanceof Number))
+	{
+
+	    throw new QueryExecutionException ("Expected expression: " +
+					       this.exp +
+					       " to return a number (sub-class of: " +
+					       Number.class.getName () +
+					       ") but returns instance of: " +
+					       v.getClass ().getName () +
+					       " for item: " +
+					       (this.added - 1));
+
+	}
+
+	this.total += ((Number) v).doubleValue ();
+
+    }
+
+    /**
+     * @return The value of the aggregate for the objects added.
+     */
+    public Object getResult ()
+    {
+
+	if (this.kind == StreamingAggregate.COUNT)
+	{
+
+	    return Integer.valueOf (this.count);
+
+	}
+
+	if (this.kind == StreamingAggregate.ACCUMULATOR)
+	{
+
+	    return this.acc.finish (this.state);
+
+	}
+
+	if ((this.kind == StreamingAggregate.MIN)
+	    ||
+	    (this.kind == StreamingAggregate.MAX)
+	   )
+	{
+
+	    return this.value;
+
+	}
+
+	if ((this.kind == StreamingAggregate.AVG)
+	    &&
+	    (this.count > 0)
+	   )
+	{
+
+	    return Double.valueOf (this.total / this.count);
+
+	}
+
+	return Double.valueOf (this.total);
+
+    }
+
+}
@@ -14,6 +14,9 @@
  */
 package org.josql.internal;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
 import java.util.*;
 
 import java.lang.reflect.Method;
@@ -152,6 +155,16 @@ public class Utilities
         
     }
 
+    /**
+     * @return <code>true</code> if a comparator has been set to compare the objects.
+     */
+    public static boolean hasObjectComparator ()
+    {
+
+        return Utilities.objComp != null;
+
+    }
+
     public static Class getObjectClass (Class c)
     {
 
@@ -632,6 +645,50 @@ public class Utilities
 
     }
 
+    /**
+     * Return whether the result of a comparison matches the type of a
+     * {@link org.josql.expressions.GTLTExpression}.
+     *
+     * @param c The result of the comparison.
+     * @param type One of: {@link #GT}, {@link #GTE}, {@link #LT}, {@link #LTE}.
+     * @return <code>true</code> if the comparison matches.
+     */
+    public static boolean matches (int c,
+				   int type)
+    {
+
+	if (type == Utilities.GT)
+	{
+
+	    return c > 0;
+
+	}
+
+	if (type == Utilities.GTE)
+	{
+
+	    return c >= 0;
+
+	}
+
+	if (type == Utilities.LT)
+	{
+
+	    return c < 0;
+
+	}
+
+	if (type == Utilities.LTE)
+	{
+
+	    return c <= 0;
+
+	}
+
+	return c == 0;
+
+    }
+
     private static boolean compare2 (Object  l,
 				     Object  r,
 				     int     type,
@@ -780,7 +837,8 @@ public class Utilities
 	   )
 	{
 
-	    return Utilities.getDoubleObject (o1).compareTo (Utilities.getDoubleObject (o2));
+	    return Utilities.compareNumbers ((Number) o1,
+					     (Number) o2);
 
 	}
 
@@ -804,6 +862,312 @@ public class Utilities
 
     }
 
+    /**
+     * Compare two numbers exactly and without creating any objects for the common types.
+     * Integers, longs, shorts and bytes are compared as <b>long</b>s, a <b>long</b> and a
+     * <b>double</b> are compared exactly and a <code>BigDecimal</code> or <code>BigInteger</code>
+     * is compared as a <code>BigDecimal</code>.  Anything else is compared as a <b>double</b>,
+     * in the same way as: {@link Double#compareTo(Double)}.
+     *
+     * @param n1 The first number.
+     * @param n2 The second number.
+     * @return The result of the comparison.
+     */
+    public static int compareNumbers (Number n1,
+				      Number n2)
+    {
+
+	boolean l1 = Utilities.isIntegral (n1);
+	boolean l2 = Utilities.isIntegral (n2);
+
+	if ((l1)
+	    &&
+	    (l2)
+	   )
+	{
+
+	    return Utilities.compareLongs (n1.longValue (),
+					   n2.longValue ());
+
+	}
+
+	if ((n1 instanceof BigDecimal)
+	    ||
+	    (n1 instanceof BigInteger)
+	    ||
+	    (n2 instanceof BigDecimal)
+	    ||
+	    (n2 instanceof BigInteger)
+	   )
+	{
+
+	    BigDecimal b1 = Utilities.toBigDecimal (n1);
+	    BigDecimal b2 = Utilities.toBigDecimal (n2);
+
+	    if ((b1 != null)
+		&&
+		(b2 != null)
+	       )
+	    {
+
+		return b1.compareTo (b2);
+
+	    }
+
+	    // NaN or infinity.
+	    return Double.compare (n1.doubleValue (),
+				   n2.doubleValue ());
+
+	}
+
+	if (l1)
+	{
+
+	    return Utilities.compareLongDouble (n1.longValue (),
+						n2.doubleValue ());
+
+	}
+
+	if (l2)
+	{
+
+	    return -Utilities.compareLongDouble (n2.longValue (),
+						 n1.doubleValue ());
+
+	}
+
+	return Double.compare (n1.doubleValue (),
+			       n2.doubleValue ());
+
+    }
+
+    /**
+     * Get a key for a number such that numbers that {@link #compareNumbers(Number,Number) compare}
+     * equal have equal keys: a <code>Long</code> for an integral value that fits in a
+     * <b>long</b>, the exact value without trailing zeros as a <code>BigDecimal</code> for
+     * any other finite value and a <code>Double</code> for <code>NaN</code> and infinity.
+     * Numbers with equal keys may still not compare equal, such as <code>0.0</code> and
+     * <code>-0.0</code>.
+     *
+     * @param n The number.
+     * @return The key.
+     */
+    public static Object getNumberKey (Number n)
+    {
+
+	if (Utilities.isIntegral (n))
+	{
+
+	    return Long.valueOf (n.longValue ());
+
+	}
+
+	BigDecimal b = null;
+
+	if ((n instanceof BigDecimal)
+	    ||
+	    (n instanceof BigInteger)
+	   )
+	{
+
+	    b = Utilities.toBigDecimal (n);
+
+	} else {
+
+	    double d = n.doubleValue ();
+
+	    if ((Double.isNaN (d))
+		||
+		(Double.isInfinite (d))
+	       )
+	    {
+
+		return Double.valueOf (d);
+
+	    }
+
+	    if ((d == Math.floor (d))
+		&&
+		(d >= -9.223372036854775808E18)
+		&&
+		(d < 9.223372036854775808E18)
+	       )
+	    {
+
+		return Long.valueOf ((long) d);
+
+	    }
+
+	    b = new BigDecimal (d);
+
+	}
+
+	if (b.signum () == 0)
+	{
+
+	    return Long.valueOf (0);
+
+	}
+
+	b = b.stripTrailingZeros ();
+
+	if ((b.scale () <= 0)
+	    &&
+	    (b.toBigInteger ().bitLength () < 64)
+	   )
+	{
+
+	    return Long.valueOf (b.longValue ());
+
+	}
+
+	return b;
+
+    }
+
+    public static int compareLongs (long l1,
+				    long l2)
+    {
+
+	return (l1 < l2) ? -1 : ((l1 == l2) ? 0 : 1);
+
+    }
+
+    /**
+     * Compare a <b>long</b> to a <b>double</b> exactly, a <b>long</b> that is too large to be
+     * represented as a <b>double</b> is not rounded.  <code>NaN</code> is greater than any
+     * <b>long</b>, as for: {@link Double#compare(double,double)}.
+     *
+     * @param l The long.
+     * @param d The double.
+     * @return The result of the comparison.
+     */
+    public static int compareLongDouble (long   l,
+					 double d)
+    {
+
+	if (Double.isNaN (d))
+	{
+
+	    return -1;
+
+	}
+
+	// 2^63, the first double greater than any long.
+	if (d >= 9.223372036854775808E18)
+	{
+
+	    return -1;
+
+	}
+
+	if (d < -9.223372036854775808E18)
+	{
+
+	    return 1;
+
+	}
+
+	long dl = (long) d;
+
+	if (l != dl)
+	{
+
+	    return Utilities.compareLongs (l,
+					   dl);
+
+	}
+
+	// Same integral part, the fraction decides.
+	double f = d - dl;
+
+	return (f > 0) ? -1 : ((f < 0) ? 1 : 0);
+
+    }
+
+    /**
+     * @param o The object.
+     * @return <code>true</code> if the object is an integer, long, short or byte.
+     */
+    public static boolean isIntegral (Object o)
+    {
+
+	return (o instanceof Integer)
+	       ||
+	       (o instanceof Long)
+	       ||
+	       (o instanceof Short)
+	       ||
+	       (o instanceof Byte);
+
+    }
+
+    /**
+     * @param c The class.
+     * @return <code>true</code> if the class is int, long, short, byte or one of their
+     *         object classes.
+     */
+    public static boolean isIntegral (Class c)
+    {
+
+	return (c == Integer.TYPE)
+	       ||
+	       (c == Long.TYPE)
+	       ||
+	       (c == Short.TYPE)
+	       ||
+	       (c == Byte.TYPE)
+	       ||
+	       (c == Integer.class)
+	       ||
+	       (c == Long.class)
+	       ||
+	       (c == Short.class)
+	       ||
+	       (c == Byte.class);
+
+    }
+
+    private static BigDecimal toBigDecimal (Number n)
+    {
+
+	if (n instanceof BigDecimal)
+	{
+
+	    return (BigDecimal) n;
+
+	}
+
+	if (n instanceof BigInteger)
+	{
+
+	    return new BigDecimal ((BigInteger) n);
+
+	}
+
+	if (Utilities.isIntegral (n))
+	{
+
+	    return BigDecimal.valueOf (n.longValue ());
+
+	}
+
+	double d = n.doubleValue ();
+
+	if ((Double.isNaN (d))
+	    ||
+	    (Double.isInfinite (d))
+	   )
+	{
+
+	    return null;
+
+	}
+
+	return new BigDecimal (d);
+
+    }
+
     public static boolean isGTEquals (Object o1,
 				      Object o2)
     {
@@ -854,14 +1218,18 @@ public class Utilities
     public static boolean isNumber (Object o)
     {
 
-	if (o == null)
-	{
-
-	    return false;
-
-	}
-
-	return Utilities.pCNames.containsKey (o.getClass ().getName ());
+	// The number classes are final, no need to look up the class name.
+	return (o instanceof Double)
+	       ||
+	       (o instanceof Integer)
+	       ||
+	       (o instanceof Long)
+	       ||
+	       (o instanceof Float)
+	       ||
+	       (o instanceof Short)
+	       ||
+	       (o instanceof Byte);
 
     }
 
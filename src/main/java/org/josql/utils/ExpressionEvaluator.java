@@ -18,6 +18,7 @@ import java.util.List;
 import java.util.ArrayList;
 
 import org.josql.Query;
+import org.josql.QueryPlanCache;
 import org.josql.exceptions.QueryExecutionException;
 import org.josql.exceptions.QueryParseException;
 import org.josql.expressions.Expression;
@@ -91,7 +92,8 @@ public class ExpressionEvaluator
             
         }
         
-        q.parse ("SELECT * FROM " + cl.getName () + " WHERE " + exp);
+        q.parse (ExpressionEvaluator.getQueryText (exp,
+                                                   cl));
         
         this.q = q;
         
@@ -99,6 +101,40 @@ public class ExpressionEvaluator
         
     }
 
+    private ExpressionEvaluator (Query q)
+    {
+
+        this.q = q;
+
+        this.where = q.getWhereClause ();
+
+    }
+
+    private static String getQueryText (String exp,
+                                        Class  cl)
+    {
+
+        return "SELECT * FROM " + cl.getName () + " WHERE " + exp;
+
+    }
+
+    /**
+     * Get an evaluator for the static methods, its query comes from the
+     * {@link QueryPlanCache} so that the same expression is only parsed once.
+     * The query must be released once the expression has been evaluated.
+     */
+    private static ExpressionEvaluator acquire (String exp,
+                                                Class  cl)
+                                                throws QueryParseException
+    {
+
+        return new ExpressionEvaluator (QueryPlanCache.getInstance ().acquire (ExpressionEvaluator.getQueryText (exp,
+                                                                                                                 cl),
+                                                                               cl,
+                                                                               null));
+
+    }
+
     /**
      * Get the query associated with the expression, use this to setup
      * bind variables, function handlers and so on, which of course must
@@ -212,10 +248,19 @@ public class ExpressionEvaluator
         
        }
        
-       ExpressionEvaluator ee = new ExpressionEvaluator (exp,
-                                                         o.getClass ());
+       ExpressionEvaluator ee = ExpressionEvaluator.acquire (exp,
+                                                             o.getClass ());
        
-       return ee.isTrue (o);
+       try
+       {
+
+           return ee.isTrue (o);
+
+       } finally {
+
+           QueryPlanCache.getInstance ().release (ee.q);
+
+       }
         
     }
     
@@ -280,10 +325,19 @@ public class ExpressionEvaluator
             
         }
         
-        ExpressionEvaluator ee = new ExpressionEvaluator (exp,
-                                                          c);
+        ExpressionEvaluator ee = ExpressionEvaluator.acquire (exp,
+                                                              c);
         
-        return ee.getValues (l);
+        try
+        {
+
+            return ee.getValues (l);
+
+        } finally {
+
+            QueryPlanCache.getInstance ().release (ee.q);
+
+        }
         
     }
     
@@ -311,10 +365,19 @@ public class ExpressionEvaluator
         
        }
         
-        ExpressionEvaluator ee = new ExpressionEvaluator (exp,
-                                                          o.getClass ());
+        ExpressionEvaluator ee = ExpressionEvaluator.acquire (exp,
+                                                              o.getClass ());
         
-        return ee.getValue (o);
+        try
+        {
+
+            return ee.getValue (o);
+
+        } finally {
+
+            QueryPlanCache.getInstance ().release (ee.q);
+
+        }
         
     }
     
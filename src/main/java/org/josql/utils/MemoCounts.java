@@ -0,0 +1,92 @@
+package org.josql.utils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.Maps;
+
+/**
+ * The hits and misses of the memoized functions of a query, summed per function name
+ * whatever the clause the function is called from, see:
+ * {@link org.josql.expressions.Function#isMemoized()}.
+ */
+public class MemoCounts {
+
+	private ConcurrentMap<String, AtomicLong[]> counts;
+	
+	public MemoCounts() {
+		counts = Maps.newConcurrentMap();
+	}
+	
+	public void record(final String _name, final boolean _hit) {
+		
+		AtomicLong[] c = counts.get(_name);
+		
+		if (c == null) {
+			
+			AtomicLong[] n = new AtomicLong[] {new AtomicLong(), new AtomicLong()};
+			
+			c = counts.putIfAbsent(_name, n);
+			
+			if (c == null) {
+				c = n;
+			}
+			
+		}
+		
+		c[_hit ? 0 : 1].incrementAndGet();
+		
+	}
+	
+	/**
+	 * @param _name The function name.
+	 * @return The number of calls answered from the memoized results.
+	 */
+	public long getHitCount(final String _name) {
+		return get(_name, 0);
+	}
+	
+	/**
+	 * @param _name The function name.
+	 * @return The number of calls that had to be made, although memoized.
+	 */
+	public long getMissCount(final String _name) {
+		return get(_name, 1);
+	}
+	
+	/**
+	 * @return The number of hits by function name.
+	 */
+	public Map<String, Long> getHits() {
+		return getMap(0);
+	}
+	
+	/**
+	 * @return The number of misses by function name.
+	 */
+	public Map<String, Long> getMisses() {
+		return getMap(1);
+	}
+	
+	private long get(final String _name, final int _i) {
+		
+		AtomicLong[] c = counts.get(_name);
+		
+		return (c == null) ? 0 : c[_i].get();
+		
+	}
+	
+	private Map<String, Long> getMap(final int _i) {
+		
+		Map<String, Long> m = Maps.newTreeMap();
+		
+		for (Map.Entry<String, AtomicLong[]> en : counts.entrySet()) {
+			m.put(en.getKey(), en.getValue()[_i].get());
+		}
+		
+		return m;
+		
+	}
+	
+}
@@ -1,18 +1,48 @@
 package net.sf.josql;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import org.josql.Query;
 import org.josql.QueryResults;
 import org.josql.Result;
 import org.josql.exceptions.QueryExecutionException;
 import org.josql.exceptions.QueryParseException;
+import org.josql.expressions.Accessor;
+import org.josql.expressions.AdaptiveAndOrExpression;
+import org.josql.expressions.AndOrExpression;
+import org.josql.expressions.BinaryExpression;
+import org.josql.expressions.BooleanExpression;
+import org.josql.expressions.ConstantExpression;
+import org.josql.expressions.Expression;
+import org.josql.expressions.InExpression;
+import org.josql.expressions.SelectItemExpression;
+import org.josql.filters.DefaultObjectFilter;
+import org.josql.functions.Accumulator;
+import org.josql.functions.BiObjectFunction;
+import org.josql.functions.DoubleFunction;
+import org.josql.functions.FunctionRegistry;
+import org.josql.functions.ObjectFunction;
+import org.josql.functions.ObjectPredicate;
+import org.josql.internal.DistinctList;
+import org.josql.internal.SaveValueScope;
+import org.josql.internal.SelectionList;
+import org.josql.internal.Utilities;
+import org.josql.utils.ExpressionEvaluator;
+import org.josql.utils.MemoCounts;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -272,6 +302,802 @@ public class AppTest {
 		
 	}
 	
+	@Test
+	public void testAccessorMetadataIsShared() throws QueryParseException {
+		
+		Query q1 = new Query();
+		q1.parse("SELECT worker FROM net.sf.josql.Work WHERE time > 3");
+		
+		Query q2 = new Query();
+		q2.parse("SELECT superviser FROM net.sf.josql.Work WHERE time < 8");
+		
+		Accessor a1 = (Accessor) ((BinaryExpression) q1.getWhereClause()).getLeft();
+		Accessor a2 = (Accessor) ((BinaryExpression) q2.getWhereClause()).getLeft();
+		
+		assertSame(a1.getGetter(), a2.getGetter());
+		
+	}
+	
+	@Test
+	public void testRegisteredFunctions() throws QueryParseException, QueryExecutionException {
+		
+		FunctionRegistry registry = new FunctionRegistry();
+		registry.register("half", new DoubleFunction() {
+			public double apply(final double _v) {
+				return _v / 2;
+			}
+		});
+		registry.register("isSylvain", new ObjectPredicate() {
+			public boolean test(final Object _v) {
+				return _v == persons.get("sylvain");
+			}
+		});
+		registry.register("total", new Accumulator<double[]>() {
+			public double[] start() {
+				return new double[1];
+			}
+			public double[] add(final double[] _state, final Object _v) {
+				_state[0] += ((Number) _v).doubleValue();
+				return _state;
+			}
+			public Object finish(final double[] _state) {
+				return _state[0];
+			}
+		});
+		
+		Query q = new Query();
+		q.setFunctionRegistry(registry);
+		q.parse("SELECT worker, @total_time "
+				+ "FROM net.sf.josql.Work "
+				+ "WHERE half(time) > 2 AND isSylvain(superviser) "
+				+ "GROUP BY worker "
+				+ "EXECUTE ON GROUP_BY_RESULTS total(time) AS total_time");
+		
+		List<Result> results = q.execute(works).asList();
+		
+		@SuppressWarnings("unchecked")
+		List<?> expectedResults = Lists.newArrayList(
+				Lists.newArrayList(persons.get("jeremie"), 8.0),
+				Lists.newArrayList(persons.get("sebastien"), 5.0)
+		);
+		
+		assertEquals(2, results.size());
+		for (Result row : results) {
+			assertTrue(expectedResults.contains(row.getList()));
+		}
+		
+	}
+	
+	@Test
+	public void testDeterministicFunctionIsMemoized() throws QueryParseException, QueryExecutionException {
+		
+		final int[] calls = new int[1];
+		
+		FunctionRegistry registry = new FunctionRegistry();
+		registry.register("surname", new ObjectFunction() {
+			public Object apply(final Object _v) {
+				calls[0]++;
+				return ((Person) _v).getName();
+			}
+		}).setDeterministic(true);
+		
+		Query q = new Query();
+		q.setFunctionRegistry(registry);
+		q.parse("SELECT * FROM net.sf.josql.Work WHERE surname(superviser) = 'leroy'");
+		
+		assertEquals(3, q.execute(works).getResults().size());
+		// All the works have the same superviser.
+		assertEquals(1, calls[0]);
+		
+	}
+	
+	@Test
+	public void testMutableResultsAreNotShared() throws QueryParseException, QueryExecutionException {
+		
+		Query q = new Query();
+		q.parse("SELECT toDate(:_currobj, 'dd/MM/yyyy') FROM java.lang.String");
+		
+		List results = q.execute(Lists.newArrayList("01/01/2020", "01/01/2020")).getResults();
+		Date first = (Date) ((List) results.get(0)).get(0);
+		Date second = (Date) ((List) results.get(1)).get(0);
+		
+		// Changing the date of a row must not change the date of another one.
+		assertEquals(first, second);
+		assertNotSame(first, second);
+		
+	}
+	
+	@Test
+	public void testMemoCountsArePerQuery() throws QueryParseException, QueryExecutionException {
+		
+		FunctionRegistry registry = new FunctionRegistry();
+		registry.register("surname", new ObjectFunction() {
+			public Object apply(final Object _v) {
+				return ((Person) _v).getName();
+			}
+		}).setDeterministic(true);
+		
+		Query q = new Query();
+		q.setFunctionRegistry(registry);
+		q.parse("SELECT surname(superviser) FROM net.sf.josql.Work WHERE surname(worker) != 'nobody'");
+		
+		MemoCounts counts = q.execute(works).getMemoCounts();
+		
+		// The where clause misses the two workers, the column misses the superviser.
+		assertEquals(3, counts.getHitCount("surname"));
+		assertEquals(3, counts.getMissCount("surname"));
+		assertEquals(Long.valueOf(3), counts.getMisses().get("surname"));
+		
+		// The copies of the query that process the groups count as the query.
+		q = new Query();
+		q.setFunctionRegistry(registry);
+		q.setGroupByThreads(2);
+		q.parse("SELECT surname(superviser) FROM net.sf.josql.Work GROUP BY surname(worker)");
+		
+		counts = q.execute(works).getMemoCounts();
+		
+		assertEquals(6, counts.getHitCount("surname") + counts.getMissCount("surname"));
+		
+	}
+	
+	@Test
+	public void testSharedExpressionsAreEvaluatedOncePerRow() throws QueryParseException, QueryExecutionException {
+		
+		FunctionRegistry registry = new FunctionRegistry();
+		registry.register("surname", new ObjectFunction() {
+			public Object apply(final Object _v) {
+				return ((Person) _v).getName();
+			}
+		}).setDeterministic(true);
+		
+		Query q = new Query();
+		q.setFunctionRegistry(registry);
+		q.parse("SELECT surname(worker), worker.firstName FROM net.sf.josql.Work "
+				+ "WHERE surname(worker) != 'carreau' AND worker.firstName = 'jeremie' "
+				+ "ORDER BY surname(worker)");
+		
+		assertEquals(2, q.getRowValueSlotCount());
+		
+		List<Result> results = q.execute(works).asList();
+		
+		assertEquals(2, results.size());
+		assertEquals(Lists.newArrayList("guidoux", "jeremie"), results.get(0).getList());
+		
+		// The select column reuses the values computed by the where clause.
+		org.josql.expressions.Function where = (org.josql.expressions.Function)
+				((BinaryExpression) ((BinaryExpression) q.getWhereClause()).getLeft()).getLeft();
+		org.josql.expressions.Function column = (org.josql.expressions.Function)
+				((SelectItemExpression) q.getColumns().get(0)).getExpression();
+		assertEquals(3, where.getMemoHitCount() + where.getMemoMissCount());
+		assertEquals(0, column.getMemoHitCount() + column.getMemoMissCount());
+		
+	}
+	
+	@Test
+	public void testSharedExpressionIsCalledOncePerRow() throws QueryParseException, QueryExecutionException {
+		
+		final int[] calls = new int[1];
+		final Query[] current = new Query[1];
+		
+		FunctionRegistry registry = new FunctionRegistry();
+		registry.register("label", new ObjectFunction() {
+			public Object apply(final Object _v) {
+				calls[0]++;
+				return "w" + _v;
+			}
+		}).setDeterministic(true);
+		// The number of rows with values when the columns are got.
+		registry.register("kept", new ObjectFunction() {
+			public Object apply(final Object _v) {
+				return current[0].getRowValues().getRowCount();
+			}
+		});
+		
+		Query q = newQuery(registry, current);
+		q.parse("SELECT label(time), kept(time) FROM net.sf.josql.Work "
+				+ "WHERE label(time) != 'w5' ORDER BY label(time)");
+		
+		assertTrue(q.isRowValuesUsedAfterWhere());
+		
+		List<Result> results = q.execute(works).asList();
+		
+		// Each time differs so each of the three clauses would call it for each row.
+		assertEquals(works.size(), calls[0]);
+		assertEquals(Lists.newArrayList("w2", 2), results.get(0).getList());
+		assertEquals(Lists.newArrayList("w8", 2), results.get(1).getList());
+		
+		// Only the rows kept by the limit have values.
+		calls[0] = 0;
+		q = newQuery(registry, current);
+		q.parse("SELECT label(time), kept(time) FROM net.sf.josql.Work "
+				+ "WHERE label(time) != 'w5' ORDER BY label(time) LIMIT 1, 1");
+		
+		results = q.execute(works).asList();
+		
+		assertEquals(works.size(), calls[0]);
+		assertEquals(1, results.size());
+		assertEquals(Lists.newArrayList("w2", 1), results.get(0).getList());
+		
+		// Nothing reads the values once the where clause is done.
+		calls[0] = 0;
+		q = newQuery(registry, current);
+		q.parse("SELECT time, kept(time) FROM net.sf.josql.Work "
+				+ "WHERE label(time) != 'w5' AND label(time) != 'w3'");
+		
+		assertEquals(1, q.getRowValueSlotCount());
+		assertTrue(!q.isRowValuesUsedAfterWhere());
+		
+		results = q.execute(works).asList();
+		
+		assertEquals(2, results.size());
+		assertEquals(0, results.get(0).getList().get(1));
+		assertEquals(works.size(), calls[0]);
+		
+	}
+	
+	private Query newQuery(final FunctionRegistry _registry, final Query[] _current) {
+		
+		Query q = new Query();
+		q.setFunctionRegistry(_registry);
+		_current[0] = q;
+		
+		return q;
+		
+	}
+	
+	@Test
+	public void testOptimizedWhereClause() throws QueryParseException, QueryExecutionException {
+		
+		Query q = new Query();
+		q.parse("SELECT * FROM net.sf.josql.Work "
+				+ "WHERE 1 = 1 AND (time = 8 OR time = 5 OR time = 7) AND 2 * 2 = 4");
+		
+		// The constant conditions are gone and the equals are a hashed IN.
+		assertTrue(q.getWhereClause() instanceof InExpression);
+		assertTrue(((InExpression) q.getWhereClause()).isHashLookup());
+		assertTrue(q.explain().contains("rewritten"));
+		
+		assertEquals(2, q.execute(works).getResults().size());
+		
+	}
+	
+	@Test
+	public void testWhereClauseFoldedIntoTrue() throws QueryParseException, QueryExecutionException {
+		
+		// The where clause is still there for the callers that evaluate it themselves.
+		assertTrue(ExpressionEvaluator.isTrue("1 = 1", "x"));
+		assertTrue(ExpressionEvaluator.isTrue("2 > 1 OR length = 7", "x"));
+		
+		assertTrue(new DefaultObjectFilter("1 = 1", String.class).accept("x"));
+		assertTrue(new DefaultObjectFilter("length > 0 OR 1 = 1", String.class).accept("x"));
+		
+		Query q = new Query();
+		q.parse("SELECT * FROM net.sf.josql.Work WHERE 2 > 1 OR time = 7");
+		
+		assertTrue(q.getWhereClause() instanceof BooleanExpression);
+		assertEquals(works.size(), q.execute(works).getResults().size());
+		
+	}
+	
+	/**
+	 * A function handler whose function gives a new value each time it is called.
+	 */
+	public static class Counter {
+		
+		private int calls;
+		
+		public int next(final Object _o) {
+			return ++calls;
+		}
+		
+	}
+	
+	@Test
+	public void testFixedFunctionsAreFolded() throws QueryParseException, QueryExecutionException {
+		
+		final int[] calls = new int[1];
+		
+		FunctionRegistry registry = new FunctionRegistry();
+		registry.register("upper", new ObjectFunction() {
+			public Object apply(final Object _v) {
+				return _v.toString().toUpperCase();
+			}
+		}).setDeterministic(true);
+		registry.register("touch", new BiObjectFunction() {
+			public Object apply(final Object _v1, final Object _v2) {
+				calls[0]++;
+				return Boolean.TRUE;
+			}
+		});
+		
+		Query q = new Query();
+		q.setFunctionRegistry(registry);
+		q.parse("SELECT * FROM net.sf.josql.Work WHERE upper(worker.name) = upper(upper('guidoux'))");
+		
+		assertTrue(((BinaryExpression) q.getWhereClause()).getRight() instanceof ConstantExpression);
+		assertEquals(2, q.execute(works).getResults().size());
+		
+		// The parameters of a function that is not folded are.
+		q = new Query();
+		q.setFunctionRegistry(registry);
+		q.parse("SELECT * FROM net.sf.josql.Work WHERE touch(time, upper('a')) AND 1 = 2");
+		
+		AndOrExpression where = (AndOrExpression) q.getWhereClause();
+		org.josql.expressions.Function touch = (org.josql.expressions.Function) where.getLeft();
+		assertTrue(touch.getParameters().get(1) instanceof ConstantExpression);
+		
+		// The left side is evaluated for each object, it is not dropped.
+		assertEquals(0, q.execute(works).getResults().size());
+		assertEquals(works.size(), calls[0]);
+		
+		// An OR of equals on a function that is not deterministic is not an IN, the
+		// function is called for each equals.
+		Counter counter = new Counter();
+		
+		q = new Query();
+		q.addFunctionHandler(counter);
+		q.parse("SELECT * FROM net.sf.josql.Work WHERE next(:_currobj) = 2 OR next(:_currobj) = 4");
+		
+		assertTrue(q.getWhereClause() instanceof AndOrExpression);
+		assertEquals(Lists.newArrayList(works.get(1)), q.execute(works).getResults());
+		assertEquals(2 * works.size(), counter.calls);
+		
+		// The right side is never evaluated.
+		calls[0] = 0;
+		q = new Query();
+		q.setFunctionRegistry(registry);
+		q.parse("SELECT * FROM net.sf.josql.Work WHERE 1 = 2 AND touch(time, 'a')");
+		
+		assertTrue(q.getWhereClause() instanceof BooleanExpression);
+		assertEquals(0, q.execute(works).getResults().size());
+		assertEquals(0, calls[0]);
+		
+	}
+	
+	@Test
+	public void testConditionsAreReordered() throws QueryParseException, QueryExecutionException {
+		
+		List<Work> objs = Lists.newArrayList();
+		for (int i = 0; i < 1000; i++) {
+			objs.addAll(works);
+		}
+		
+		Query q = new Query();
+		q.setReorderConditions(true);
+		q.parse("SELECT * FROM net.sf.josql.Work WHERE time > 0 AND superviser.name = 'nobody' AND time < 100");
+		
+		AdaptiveAndOrExpression where = (AdaptiveAndOrExpression) q.getWhereClause();
+		assertEquals(3, where.getBranches().size());
+		
+		assertEquals(0, q.execute(objs).getResults().size());
+		
+		// The condition that is always false is now evaluated first.
+		assertTrue(where.getBranches().get(0).toString().startsWith("superviser.name"));
+		
+	}
+	
+	@Test
+	public void testWhereResultsAreASelection() throws QueryParseException, QueryExecutionException {
+		
+		List<Work> objs = Lists.newArrayList(works);
+		
+		Query q = new Query();
+		q.parse("SELECT time FROM net.sf.josql.Work WHERE time > 2 ORDER BY time LIMIT 1, 1");
+		
+		QueryResults qr = q.execute(objs);
+		
+		assertTrue(qr.getWhereResults() instanceof SelectionList);
+		assertEquals(5, ((List) qr.getResults().get(0)).get(0));
+		
+		// The where results are sorted, the input list is left as it is.
+		assertSame(works.get(1), qr.getWhereResults().get(0));
+		assertSame(works.get(0), qr.getWhereResults().get(1));
+		assertEquals(works, objs);
+		
+	}
+	
+	@Test
+	public void testExecuteReadOnly() throws QueryParseException, QueryExecutionException {
+		
+		List<Work> objs = Lists.newArrayList(works);
+		List<Object> output = Lists.newArrayList();
+		
+		Query q = new Query();
+		q.parse("SELECT time FROM net.sf.josql.Work ORDER BY time");
+		
+		QueryResults qr = q.executeReadOnly(objs, output);
+		
+		// The results are in the output list and the input list is not sorted.
+		assertSame(output, qr.getResults());
+		assertEquals(3, output.size());
+		assertEquals(2, ((List) output.get(0)).get(0));
+		assertEquals(works, objs);
+		
+		q = new Query();
+		q.parse("SELECT * FROM net.sf.josql.Work WHERE time > 2");
+		q.executeReadOnly(objs, output);
+		assertEquals(2, output.size());
+		assertSame(works.get(0), output.get(0));
+		
+		// Without an output list the results are a view of the list of objects.
+		List<Work> source = Lists.newArrayList(works);
+		List view = q.executeReadOnly(source).getResults();
+		Work replaced = source.set(0, new Work(persons.get("sylvain"), null, 1));
+		
+		assertEquals(2, view.size());
+		assertSame(source.get(0), view.get(0));
+		
+		// The output list is a copy.
+		source.set(0, replaced);
+		q.executeReadOnly(source, output);
+		source.set(0, new Work(persons.get("sylvain"), null, 1));
+		assertSame(replaced, output.get(0));
+		
+	}
+	
+	@Test
+	public void testNumericComparisons() throws QueryParseException, QueryExecutionException {
+		
+		Query q = new Query();
+		q.parse("SELECT time FROM net.sf.josql.Work WHERE time * 2 > 9 AND time BETWEEN 1 AND 8 ORDER BY time DESC");
+		
+		Expression arith = ((BinaryExpression) ((BinaryExpression) q.getWhereClause()).getLeft()).getLeft();
+		assertTrue(arith.hasNumericValue(q));
+		assertEquals(16.0, arith.evaluateDouble(works.get(0), q), 0);
+		
+		List res = q.execute(works).getResults();
+		assertEquals(2, res.size());
+		assertEquals(8, ((List) res.get(0)).get(0));
+		assertEquals(5, ((List) res.get(1)).get(0));
+		
+		// A null is not greater than anything.
+		q = new Query();
+		q.parse("SELECT * FROM net.sf.josql.Work WHERE :t > 1");
+		q.setVariable("t", null);
+		assertEquals(0, q.execute(works).getResults().size());
+		
+	}
+	
+	@Test
+	public void testExactNumberComparisons() {
+		
+		assertEquals(1, Utilities.compare(Long.MAX_VALUE, Long.MAX_VALUE - 1));
+		assertEquals(-1, Utilities.compare(Long.MAX_VALUE - 1, (double) Long.MAX_VALUE));
+		assertEquals(0, Utilities.compare(5, 5.0d));
+		assertEquals(-1, Utilities.compare(5, 5.5d));
+		assertEquals(1, Utilities.compare(new BigDecimal("1.00000000000000000001"), 1));
+		assertEquals(0, Utilities.compare(new BigInteger("12"), 12.0d));
+		
+	}
+	
+	@Test
+	public void testHashedInIsExact() throws QueryParseException, QueryExecutionException {
+		
+		long big = 1L << 53;
+		List<Long> objs = Lists.newArrayList(big, big + 1, 3L, 10L);
+		
+		Query q = new Query();
+		q.parse("SELECT * FROM java.lang.Long WHERE longValue IN (9007199254740992, 10.0, 2.5)");
+		assertTrue(((InExpression) q.getWhereClause()).isHashLookup());
+		assertEquals(Lists.newArrayList(big, 10L), q.execute(objs).getResults());
+		
+		// The same as the equals it is rewritten from, the literals are doubles and
+		// 2^53 + 1 is not equal to any.
+		q = new Query();
+		q.parse("SELECT * FROM java.lang.Long WHERE longValue = 9007199254740993 OR longValue = 3");
+		assertTrue(((InExpression) q.getWhereClause()).isHashLookup());
+		assertEquals(Lists.newArrayList(big, 3L), q.execute(objs).getResults());
+		
+		assertEquals(Utilities.getNumberKey(10L), Utilities.getNumberKey(new BigDecimal("10.000")));
+		assertEquals(Utilities.getNumberKey(2.5d), Utilities.getNumberKey(new BigDecimal("2.50")));
+		
+	}
+	
+	@Test
+	public void testBindVariablesAndSaveValuesBySlot() throws QueryParseException, QueryExecutionException {
+		
+		Query q = new Query();
+		q.parse("SELECT * FROM net.sf.josql.Work WHERE time > :Min AND :_currobj = :_currobj");
+		
+		q.setVariable("min", 4);
+		assertEquals(2, q.execute(works).getResults().size());
+		
+		// The value is changed after the variable has been inited.
+		q.setVariable(":MIN", 6);
+		assertEquals(1, q.execute(works).getResults().size());
+		assertEquals(6, q.getVariable("min"));
+		
+		q = new Query();
+		q.parse("SELECT * FROM net.sf.josql.Work WHERE time < @Max");
+		q.setSaveValue("max", 6);
+		assertEquals(2, q.execute(works).getResults().size());
+		
+	}
+	
+	@Test
+	public void testGroupSaveValuesAreScoped() throws QueryParseException, QueryExecutionException {
+		
+		Query q = new Query();
+		q.parse("SELECT worker, @total_time, @unit "
+				+ "FROM net.sf.josql.Work "
+				+ "GROUP BY worker "
+				+ "EXECUTE ON GROUP_BY_RESULTS sum(time) AS total_time");
+		q.setSaveValue("unit", "h");
+		
+		QueryResults result = q.execute(works);
+		
+		for (Result row : result.asList()) {
+			assertEquals("h", row.getList().get(2));
+		}
+		
+		// The group values are not copied into, or set in, the query save values.
+		Map group = q.getGroupBySaveValues(Lists.newArrayList(persons.get("sebastien")));
+		assertTrue(group instanceof SaveValueScope);
+		assertEquals(5.0, group.get("total_time"));
+		assertEquals("h", group.get("unit"));
+		assertEquals(1, result.getSaveValues().size());
+		
+		// Without any save values a group still has a map of them.
+		q = new Query();
+		q.parse("SELECT worker FROM net.sf.josql.Work GROUP BY worker");
+		result = q.execute(works);
+		assertTrue(result.getGroupBySaveValues(Lists.newArrayList(persons.get("sebastien"))).isEmpty());
+		
+	}
+	
+	@Test
+	public void testDistinct() throws QueryParseException, QueryExecutionException {
+		
+		Query q = new Query();
+		q.parse("SELECT DISTINCT worker, superviser FROM net.sf.josql.Work");
+		
+		List res = q.execute(works).getResults();
+		assertEquals(2, res.size());
+		assertEquals(Lists.newArrayList(persons.get("jeremie"), persons.get("sylvain")), res.get(0));
+		
+		List<Work> dups = Lists.newArrayList(works);
+		dups.addAll(works);
+		
+		q = new Query();
+		q.parse("SELECT DISTINCT * FROM net.sf.josql.Work");
+		res = q.execute(dups).getResults();
+		assertEquals(works, res);
+		
+		// Without duplicates nothing is copied.
+		assertSame(works, DistinctList.unique(works));
+		
+		q = new Query();
+		q.parse("SELECT DISTINCT superviser FROM net.sf.josql.Work GROUP BY worker");
+		QueryResults result = q.execute(works);
+		assertEquals(1, ((List) result.getGroupByResults().get(Lists.newArrayList(persons.get("jeremie")))).size());
+		
+	}
+	
+	@Test
+	public void testAggregatesAreStreamed() throws QueryParseException, QueryExecutionException {
+		
+		FunctionRegistry registry = new FunctionRegistry();
+		registry.register("maxTime", new Accumulator<int[]>() {
+			public int[] start() {
+				return new int[1];
+			}
+			public int[] add(final int[] _state, final Object _v) {
+				_state[0] = Math.max(_state[0], (Integer) _v);
+				return _state;
+			}
+			public Object finish(final int[] _state) {
+				return _state[0];
+			}
+		});
+		
+		Query q = new Query();
+		q.setFunctionRegistry(registry);
+		q.parse("SELECT sum(time), avg(:_allobjs, time), count(time > 6), maxTime(time), 'h' "
+				+ "FROM net.sf.josql.Work "
+				+ "WHERE time > 3 "
+				+ "EXECUTE ON RESULTS sum(:_allobjs, time) AS total");
+		
+		QueryResults result = q.execute(works);
+		
+		// A row per matching object, as without streaming, but the objects are not kept.
+		assertEquals(2, result.getResults().size());
+		assertEquals(Lists.newArrayList(13.0, 6.5, 1, 8, "h"), result.getResults().get(1));
+		assertEquals(13.0, result.getSaveValue("total"));
+		assertEquals(null, result.getWhereResults());
+		
+		q = new Query();
+		q.parse("SELECT DISTINCT count(:_allobjs, time > 1) FROM net.sf.josql.Work WHERE time > 9");
+		assertEquals(0, q.execute(works).getResults().size());
+		
+		// The results are needed by the columns, they are kept.
+		q = new Query();
+		q.parse("SELECT time, @total FROM net.sf.josql.Work WHERE time > 3 "
+				+ "EXECUTE ON RESULTS sum(time) AS total");
+		
+		result = q.execute(works);
+		assertEquals(2, result.getWhereResults().size());
+		assertEquals(Lists.newArrayList(5, 13.0), result.getResults().get(1));
+		
+	}
+	
+	@Test
+	public void testGroupsProcessedInParallel() throws QueryParseException, QueryExecutionException {
+		
+		List<Work> many = Lists.newArrayList();
+		for (int i = 0; i < 2000; i++) {
+			many.add(new Work(new Person("p" + (i % 300), "w"), persons.get("sylvain"), i % 17));
+		}
+		
+		String sql = "SELECT worker.name, @total_time, count(:_allobjs, time > 8) "
+				+ "FROM net.sf.josql.Work "
+				+ "WHERE time > :min "
+				+ "GROUP BY worker.name "
+				+ "ORDER BY time DESC "
+				+ "EXECUTE ON GROUP_BY_RESULTS sum(time) AS total_time";
+		
+		Query sequential = new Query();
+		sequential.parse(sql);
+		sequential.setVariable("min", 3);
+		QueryResults expected = sequential.execute(many);
+		
+		Query parallel = new Query();
+		parallel.setGroupByThreads(4);
+		parallel.parse(sql);
+		parallel.setVariable("min", 3);
+		
+		// The copies of the query are reused by the next execution.
+		for (int n = 0; n < 2; n++) {
+			
+			QueryResults result = parallel.execute(many);
+			
+			assertEquals(300, result.getResults().size());
+			assertEquals(expected.getResults(), result.getResults());
+			assertEquals(Lists.newArrayList(expected.getGroupByResults().values()),
+					Lists.newArrayList(result.getGroupByResults().values()));
+			
+			List key = (List) result.getResults().get(7);
+			assertEquals(expected.getGroupBySaveValues(key).get("total_time"),
+					result.getGroupBySaveValues(key).get("total_time"));
+			
+		}
+		
+	}
+	
+	@Test
+	public void testGroupAggregatesMergedInParallel() throws QueryParseException, QueryExecutionException {
+		
+		List<Work> many = Lists.newArrayList();
+		for (int i = 0; i < 5000; i++) {
+			many.add(new Work(new Person("p" + ((i * 7) % 250), "w"), persons.get("sylvain"), i % 23));
+		}
+		
+		String sql = "SELECT worker.name, sum(time), avg(time), count(:_allobjs, time > 8), min(time), max(time), @most "
+				+ "FROM net.sf.josql.Work "
+				+ "WHERE time > :min "
+				+ "GROUP BY worker.name "
+				+ "EXECUTE ON GROUP_BY_RESULTS max(time) AS most";
+		
+		// Sorting the objects of the groups makes them go through the usual evaluation.
+		Query objects = new Query();
+		objects.parse(sql.replace("EXECUTE ON", "ORDER BY time DESC EXECUTE ON"));
+		objects.setVariable("min", 3);
+		QueryResults expected = objects.execute(many);
+		
+		Query parallel = new Query();
+		parallel.setGroupByThreads(4);
+		parallel.parse(sql);
+		parallel.setVariable("min", 3);
+		
+		for (int n = 0; n < 2; n++) {
+			
+			QueryResults result = parallel.execute(many);
+			
+			assertEquals(250, result.getResults().size());
+			
+			// The groups are in the order of their first object.
+			assertEquals(Lists.newArrayList("p28"), result.getResults().get(0));
+			assertEquals(expected.getResults(), result.getResults());
+			assertEquals(Lists.newArrayList(expected.getGroupByResults().values()),
+					Lists.newArrayList(result.getGroupByResults().values()));
+			
+			List key = (List) result.getResults().get(11);
+			assertEquals(expected.getGroupBySaveValues(key).get("most"),
+					result.getGroupBySaveValues(key).get("most"));
+			
+		}
+		
+	}
+	
+	@Test
+	public void testGroupByIntAndEnumKeys() throws QueryParseException, QueryExecutionException {
+		
+		List<Work> many = Lists.newArrayList();
+		Map<Integer, Integer> counts = Maps.newLinkedHashMap();
+		for (int i = 0; i < 3000; i++) {
+			int time = (i * 37) % 101;
+			many.add(new Work(persons.get("jeremie"), persons.get("sylvain"), time));
+			counts.put(time, counts.containsKey(time) ? counts.get(time) + 1 : 1);
+		}
+		
+		for (int threads = 1; threads < 5; threads += 3) {
+			
+			Query q = new Query();
+			q.setGroupByThreads(threads);
+			q.parse("SELECT * FROM net.sf.josql.Work GROUP BY time");
+			QueryResults result = q.execute(many);
+			
+			assertEquals(counts.size(), result.getResults().size());
+			
+			int i = 0;
+			for (Integer time : counts.keySet()) {
+				List key = (List) result.getResults().get(i++);
+				assertEquals(Lists.newArrayList(time), key);
+				assertEquals(counts.get(time).intValue(), ((List) result.getGroupByResults().get(key)).size());
+			}
+			
+		}
+		
+		List<MathContext> contexts = Lists.newArrayList();
+		for (int i = 0; i < 20; i++) {
+			contexts.add(new MathContext(i, RoundingMode.values()[(i * 3) % 5]));
+		}
+		
+		Query q = new Query();
+		q.parse("SELECT roundingMode, count(:_allobjs, precision > 9) FROM java.math.MathContext GROUP BY roundingMode");
+		QueryResults result = q.execute(contexts);
+		
+		assertEquals(5, result.getResults().size());
+		assertEquals(Lists.newArrayList(RoundingMode.UP), result.getResults().get(0));
+		assertEquals(Lists.newArrayList(RoundingMode.FLOOR), result.getResults().get(1));
+		assertEquals(Lists.newArrayList(RoundingMode.UP, 2),
+				((List) result.getGroupByResults().get(result.getResults().get(0))).get(0));
+		
+	}
+	
+	@Test
+	public void testGroupSortedInput() throws QueryParseException, QueryExecutionException {
+		
+		List<Work> sorted = Lists.newArrayList();
+		for (int i = 0; i < 1000; i++) {
+			sorted.add(new Work(new Person("p" + (i / 40), "w"), persons.get("sylvain"), i % 13));
+		}
+		
+		List<Work> shuffled = Lists.newArrayList(sorted);
+		Collections.shuffle(shuffled, new Random(7));
+		
+		String[] sqls = {
+				"SELECT worker.name, sum(time), count(:_allobjs, time > 4) FROM net.sf.josql.Work GROUP BY worker.name",
+				"SELECT time FROM net.sf.josql.Work WHERE time > 2 GROUP BY worker.name ORDER BY time DESC "
+						+ "EXECUTE ON GROUP_BY_RESULTS max(time) AS most" };
+		
+		for (String sql : sqls) {
+			
+			for (List<Work> objs : Lists.newArrayList(sorted, shuffled)) {
+				
+				Query hashed = new Query();
+				hashed.parse(sql);
+				QueryResults expected = hashed.execute(objs);
+				
+				// Shuffled, a key comes back and the objects are grouped as usual.
+				Query q = new Query();
+				q.setGroupByInputSorted(true);
+				q.parse(sql);
+				QueryResults result = q.execute(objs);
+				
+				assertEquals(25, result.getResults().size());
+				assertEquals(expected.getResults(), result.getResults());
+				assertEquals(Lists.newArrayList(expected.getGroupByResults().values()),
+						Lists.newArrayList(result.getGroupByResults().values()));
+				
+				List key = (List) result.getResults().get(3);
+				assertEquals(expected.getGroupBySaveValues(key), result.getGroupBySaveValues(key));
+				
+			}
+			
+		}
+		
+	}
+	
 	private void showExecutionTimeInfo(final Map<String, Double> timings) {
 		
 		for(String s : timings.keySet()) {
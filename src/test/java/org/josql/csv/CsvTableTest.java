@@ -1,21 +1,34 @@
 package org.josql.csv;
 
+import com.google.common.base.Charsets;
 import com.google.common.collect.Lists;
+import com.google.common.io.Files;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.URLClassLoader;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import net.sf.josql.Person;
+import org.josql.Query;
+import org.josql.QueryPlanCache;
 import org.josql.Result;
 import org.josql.exceptions.CsvMappingNotFoundException;
 import org.josql.exceptions.QueryExecutionException;
 import org.josql.exceptions.QueryParseException;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class CsvTableTest {
 
@@ -25,6 +38,9 @@ public class CsvTableTest {
     private File resource4;
     private File resource5;
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Before
     public void setUp() throws URISyntaxException {
 
@@ -175,6 +191,46 @@ public class CsvTableTest {
 
     }
 
+    @Test
+    public void testSelectWithQueryCache() throws IOException, QueryExecutionException, QueryParseException {
+
+        QueryPlanCache cache = QueryPlanCache.getInstance();
+        cache.clear();
+
+        CsvTable table = new CsvTable(resource, Work.class);
+        table.setQueryCacheEnabled(true);
+        table.read("time", "worker", "superviser");
+
+        for (int i = 0; i < 3; i++) {
+            List<Result> results = table.query("SELECT * FROM org.josql.csv.Work WHERE time > 2").execute();
+            assertEquals(2, results.size());
+        }
+
+        assertEquals(1, cache.getMissCount());
+        assertEquals(2, cache.getHitCount());
+
+    }
+
+    @Test
+    public void testQueryCacheIsPerClassLoader() throws QueryParseException {
+
+        QueryPlanCache cache = new QueryPlanCache(4);
+        String sql = "SELECT * FROM org.josql.csv.Work";
+
+        ClassLoader loader1 = new URLClassLoader(new URL[0], getClass().getClassLoader());
+        ClassLoader loader2 = new URLClassLoader(new URL[0], getClass().getClassLoader());
+
+        cache.release(cache.acquire(sql, null, loader1));
+        cache.release(cache.acquire(sql, null, loader2));
+        assertEquals(2, cache.size());
+
+        Query q = cache.acquire(sql, null, loader1);
+        assertSame(loader1, q.getClassLoader());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+
+    }
+
     @Test
     public void testWithDateConverter() throws IOException, QueryExecutionException, QueryParseException {
 
@@ -221,7 +277,198 @@ public class CsvTableTest {
     }
 
     @Test
-    public void testQueryWithoutReading() throws FileNotFoundException, QueryExecutionException, QueryParseException {
+    public void testReadWithSnapshot() throws IOException {
+
+        File directory = folder.newFolder();
+
+        CsvTable table = new CsvTable(resource2, Work.class);
+        table.setConverter(Date.class, new SimpleDateConverter("dd/MM/yyyy"));
+        table.setSnapshotEnabled(true);
+        table.setCacheDirectory(directory);
+
+        List<Object> parsed = table.read("time", "date", "worker", "superviser");
+
+        assertFalse(table.isSnapshotLoaded());
+
+        File snapshotFile = CsvSnapshot.getSnapshotFile(resource2, directory);
+        assertTrue(snapshotFile.isFile());
+
+        CsvTable cached = new CsvTable(resource2, Work.class);
+        cached.setConverter(Date.class, new SimpleDateConverter("dd/MM/yyyy"));
+        cached.setSnapshotEnabled(true);
+        cached.setCacheDirectory(directory);
+
+        List<Object> loaded = cached.read("time", "date", "worker", "superviser");
+
+        assertTrue(cached.isSnapshotLoaded());
+
+        assertEquals(parsed.size(), loaded.size());
+        for (int i = 0; i < parsed.size(); i++) {
+            assertEquals(parsed.get(i).toString(), loaded.get(i).toString());
+        }
+
+        CsvSnapshot snapshot = cached.getSnapshot();
+        assertEquals(CsvSnapshot.KIND_LONG, snapshot.getColumnKind(0));
+        assertEquals(CsvSnapshot.KIND_STRING, snapshot.getColumnKind(1));
+        assertEquals(2L, snapshot.getChunkMinimum(0, 0));
+        assertEquals(8L, snapshot.getChunkMaximum(0, 0));
+        assertNull(snapshot.getDictionary(0));
+
+    }
+
+    @Test
+    public void testSnapshotIsRejectedWhenATypeChanges() throws IOException {
+
+        Map<Class<?>, StringConverter<?>> converters = new HashMap<Class<?>, StringConverter<?>>();
+        String[] properties = {"time", "worker"};
+
+        CsvSnapshot.Builder builder = new CsvSnapshot.Builder(properties,
+                new Class<?>[] {Long.TYPE, String.class}, converters);
+        builder.addRow(new String[] {"8", "guidoux"});
+
+        File snapshotFile = new File(folder.newFolder(), "work.josql");
+        CsvOptions options = new CsvOptions();
+        builder.build().write(snapshotFile, resource2.length(), resource2.lastModified(), options);
+
+        CsvSnapshot snapshot = CsvSnapshot.load(snapshotFile, resource2, properties, options);
+        assertTrue(snapshot.isCompatible(new Class<?>[] {Long.TYPE, String.class}, converters));
+
+        // The same kind of column but a narrower type.
+        assertFalse(snapshot.isCompatible(new Class<?>[] {Integer.TYPE, String.class}, converters));
+        assertFalse(snapshot.isCompatible(new Class<?>[] {Long.class, String.class}, converters));
+        assertFalse(snapshot.isCompatible(new Class<?>[] {Long.TYPE, Object.class}, converters));
+
+    }
+
+    @Test
+    public void testSnapshotColumnIsDemoted() {
+
+        CsvSnapshot.Builder builder = new CsvSnapshot.Builder(new String[] {"time", "worker"},
+                new Class<?>[] {Integer.TYPE, String.class}, new HashMap<Class<?>, StringConverter<?>>());
+
+        builder.addRow(new String[] {"8", "guidoux"});
+        builder.addRow(new String[] {"0x10", "carreau"});
+
+        CsvSnapshot snapshot = builder.build();
+        assertEquals(CsvSnapshot.KIND_LONG, snapshot.getColumnKind(0));
+        assertNull(snapshot.getDictionary(0));
+        assertEquals(16L, snapshot.getLong(0, 1));
+
+        // A cell that is not a number turns the column into strings, the
+        // cells before keep their values.
+        builder.addRow(new String[] {"n/a", "guidoux"});
+
+        snapshot = builder.build();
+        assertEquals(CsvSnapshot.KIND_STRING, snapshot.getColumnKind(0));
+        assertEquals("8", snapshot.getString(0, 0));
+        assertEquals("16", snapshot.getString(0, 1));
+        assertEquals("n/a", snapshot.getString(0, 2));
+        assertEquals(2, snapshot.getDictionary(1).length);
+
+    }
+
+    @Test
+    public void testReadWithDictionaryColumns() throws IOException {
+
+        File directory = folder.newFolder();
+
+        for (int i = 0; i < 2; i++) {
+
+            // The first read parses the file, the second one loads the snapshot.
+            CsvTable table = new CsvTable(resource2, Work.class);
+            table.setConverter(Date.class, new SimpleDateConverter("dd/MM/yyyy"));
+            table.setSnapshotEnabled(true);
+            table.setCacheDirectory(directory);
+            table.setDictionaryColumns("superviser");
+
+            List<Object> objects = table.read("time", "date", "worker", "superviser");
+
+            assertEquals(i == 1, table.isSnapshotLoaded());
+            assertEquals(1, table.getDictionary().size());
+            assertTrue(((Work) objects.get(0)).getSuperviser() == ((Work) objects.get(1)).getSuperviser());
+
+        }
+
+    }
+
+    @Test
+    public void testReadWithRowIndex() throws IOException, QueryExecutionException, QueryParseException {
+
+        File csvFile = folder.newFile("rows.csv");
+        StringBuilder sb = new StringBuilder("time;worker;superviser;\n");
+        for (int i = 0; i < 5000; i++) {
+            // A quoted line break must not be seen as the end of a record.
+            sb.append(i).append(i == 10 ? ";'multi\nline';" : ";worker;").append("sylvain;\n");
+        }
+        Files.write(sb.toString(), csvFile, Charsets.UTF_8);
+
+        CsvTable table = new CsvTable(csvFile, Work.class);
+        table.setRowIndexEnabled(true);
+        table.setRowIndexInterval(100);
+        table.read("time", "worker", "superviser");
+
+        assertEquals(5000, table.getRowIndex().getRowCount());
+        assertTrue(CsvRowIndex.getIndexFile(csvFile, null).isFile());
+
+        List<Object> objects = table.getObjects();
+        assertEquals(5000, objects.size());
+        assertEquals(4321, ((Work) objects.get(4321)).getTime());
+        assertEquals("multi\nline", ((Work) objects.get(10)).getWorker());
+
+        assertEquals(2, table.getRowList().getPagesRead());
+
+        List<Result> results = table.query("SELECT * FROM org.josql.csv.Work LIMIT 1001, 5").execute();
+
+        assertEquals(5, results.size());
+        assertEquals(1000, ((Work) results.get(0).getList().get(0)).getTime());
+
+        // Only the page of the range was parsed.
+        assertEquals(3, table.getRowList().getPagesRead());
+
+        results = table.query("SELECT * FROM org.josql.csv.Work WHERE time > 10 ORDER BY time % 10 DESC, time DESC LIMIT 1, 2").execute();
+
+        assertEquals(4999, ((Work) results.get(0).getList().get(0)).getTime());
+
+        // Sorting gets the rows many times, each page was only parsed once during the
+        // execution: the 47 not read yet and page 43, no longer recently used when reached.
+        assertEquals(51, table.getRowList().getPagesRead());
+
+    }
+
+    @Test
+    public void testFollow() throws IOException, QueryExecutionException, QueryParseException {
+
+        File csvFile = folder.newFile("follow.csv");
+        Files.write("time;worker;superviser;\n1;jeremie;sylvain;\n2;sebastien;sylvain;\n", csvFile, Charsets.UTF_8);
+
+        CsvTable table = new CsvTable(csvFile, Work.class);
+        CsvTableFollower follower = table.follow("SELECT worker, @total_time FROM org.josql.csv.Work "
+                + "WHERE time > 1 GROUP BY worker EXECUTE ON GROUP_BY_RESULTS sum(time) AS total_time",
+                "time", "worker", "superviser");
+
+        List<Result> results = follower.poll();
+        assertEquals(1, results.size());
+        assertEquals(Lists.newArrayList("sebastien", 2.0), results.get(0).getList());
+
+        // The last record is not terminated yet, it is read on the next poll.
+        Files.append("5;jeremie;sylvain;\n4;jerem", csvFile, Charsets.UTF_8);
+
+        results = follower.poll();
+        assertEquals(1, results.size());
+        assertEquals(Lists.newArrayList("jeremie", 5.0), results.get(0).getList());
+
+        Files.append("ie;sylvain;\n", csvFile, Charsets.UTF_8);
+
+        results = follower.poll();
+        assertEquals(1, results.size());
+        assertEquals(Lists.newArrayList("jeremie", 9.0), results.get(0).getList());
+
+        assertEquals(0, follower.poll().size());
+
+    }
+
+    @Test
+    public void testQueryWithoutReading()throws FileNotFoundException, QueryExecutionException, QueryParseException {
 
         CsvTable table = new CsvTable(resource, Work.class);
 